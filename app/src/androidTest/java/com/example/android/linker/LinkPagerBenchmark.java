@@ -0,0 +1,87 @@
+package com.example.android.linker;
+
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract;
+import com.example.android.linker.SQLdb.TestLinkProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times the first page and a page deep into the list for libraries of 100 and 100k links.
+ * Keyset pages are seeks on the title index, so neither time should grow with the library.
+ * Timings are written to logcat under the class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LinkPagerBenchmark {
+
+    private static final String LOG_TAG = LinkPagerBenchmark.class.getSimpleName();
+
+    private static final int SMALL_LIBRARY = 100;
+
+    private static final int LARGE_LIBRARY = 100000;
+
+    private static final int RUNS = 25;
+
+    /** Allowed growth of the median page time from the small to the large library, plus a fixed allowance for noise. */
+    private static final double MAX_GROWTH = 3;
+    private static final double NOISE_MILLIS = 2;
+
+    private static MockContentResolver library(int size) {
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(LinkContract.CONTENT_AUTHORITY, TestLinkProvider.create("pager_benchmark_" + size + "_"));
+        ContentValues[] rows = new ContentValues[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, String.format("Title %06d", (i * 7919) % size));
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + i);
+        }
+        assertEquals(size, resolver.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows));
+        return resolver;
+    }
+
+    /** Returns the median time of loading the page after the row, in milliseconds. */
+    private static double medianMillis(MockContentResolver resolver, LinkItem after) {
+        long[] nanos = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            assertFalse(LinkPager.query(resolver, after, LinkPager.PAGE_SIZE).isEmpty());
+            nanos[run] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[RUNS / 2] / 1e6;
+    }
+
+    /** Returns the row halfway down the list, found by paging from the start once. */
+    private static LinkItem middle(MockContentResolver resolver, int size) {
+        List<LinkItem> rows = LinkPager.query(resolver, null, size / 2);
+        return rows.get(rows.size() - 1);
+    }
+
+    @Test
+    public void pageTimeStaysFlat() {
+        MockContentResolver small = library(SMALL_LIBRARY);
+        double smallFirst = medianMillis(small, null);
+        double smallMiddle = medianMillis(small, middle(small, SMALL_LIBRARY));
+
+        MockContentResolver large = library(LARGE_LIBRARY);
+        double largeFirst = medianMillis(large, null);
+        double largeMiddle = medianMillis(large, middle(large, LARGE_LIBRARY));
+
+        Log.i(LOG_TAG, "First page: " + smallFirst + " ms for " + SMALL_LIBRARY + " links, " + largeFirst + " ms for "
+                + LARGE_LIBRARY + ". Middle page: " + smallMiddle + " ms and " + largeMiddle + " ms.");
+        assertTrue(largeFirst < smallFirst * MAX_GROWTH + NOISE_MILLIS);
+        assertTrue(largeMiddle < smallMiddle * MAX_GROWTH + NOISE_MILLIS);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.linker;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.linker.SQLdb.LinkContract;
+import com.example.android.linker.SQLdb.LinkProvider;
+import com.example.android.linker.SQLdb.TestLinkProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pages through the list with {@link LinkPager#query} and compares the pages with a single query of the whole table.
+ * Also reads the changes made after a load, as the pager does to update the list in place.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LinkPagerTest {
+
+    private static final int ROW_COUNT = 237;
+
+    private MockContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        LinkProvider provider = TestLinkProvider.create("pager_test_");
+        resolver = new MockContentResolver();
+        resolver.addProvider(LinkContract.CONTENT_AUTHORITY, provider);
+
+        ContentValues[] rows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + i);
+            // Long runs of equal titles, and some missing ones, so pages have to break ties on the id.
+            if (i % 7 == 0) {
+                rows[i].putNull(LinkContract.LinkEntry.COLUMN_LINK_TITLE);
+            } else {
+                rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "Title " + (i % 5));
+            }
+        }
+        assertEquals(ROW_COUNT, resolver.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows));
+    }
+
+    @Test
+    public void pagesMatchWholeTable() {
+        List<Long> expected = new ArrayList<>();
+        Cursor cursor = resolver.query(LinkContract.LinkEntry.CONTENT_URI, new String[] {LinkContract.LinkEntry._ID},
+                null, null, LinkContract.LinkEntry.SORT_ORDER_TITLE);
+        try {
+            while (cursor.moveToNext()) {
+                expected.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<Long> paged = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        LinkItem last = null;
+        while (true) {
+            List<LinkItem> page = LinkPager.query(resolver, last, LinkPager.PAGE_SIZE);
+            for (LinkItem item : page) {
+                assertNotNull(item.title);
+                assertTrue("Row " + item.id + " loaded twice", seen.add(item.id));
+                paged.add(item.id);
+            }
+            if (page.size() < LinkPager.PAGE_SIZE) {
+                break;
+            }
+            last = page.get(page.size() - 1);
+        }
+        assertEquals(ROW_COUNT, paged.size());
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    public void lastPageIsShort() {
+        List<LinkItem> first = LinkPager.query(resolver, null, ROW_COUNT - 1);
+        assertEquals(ROW_COUNT - 1, first.size());
+        assertEquals(1, LinkPager.query(resolver, first.get(first.size() - 1), LinkPager.PAGE_SIZE).size());
+    }
+
+    @Test
+    public void changesSinceLoadAreTheRowsTouched() {
+        long since = LinkPager.queryLastSeq(resolver);
+        List<LinkItem> first = LinkPager.query(resolver, null, 2);
+
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "Renamed");
+        resolver.update(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, first.get(0).id), values, null, null);
+        resolver.delete(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, first.get(1).id), null, null);
+
+        Set<Long> changedIds = new LinkedHashSet<>();
+        long seq = LinkPager.queryChanges(resolver, since, changedIds);
+        assertTrue(seq > since);
+        assertEquals(seq, LinkPager.queryLastSeq(resolver));
+        assertEquals(2, changedIds.size());
+
+        // The deleted row is gone, the renamed one comes back with its new title.
+        List<LinkItem> rows = LinkPager.queryRows(resolver, null, changedIds);
+        assertEquals(1, rows.size());
+        assertEquals(first.get(0).id, rows.get(0).id);
+        assertEquals("Renamed", rows.get(0).title);
+
+        assertEquals(seq, LinkPager.queryChanges(resolver, seq, new HashSet<Long>()));
+    }
+
+    @Test
+    public void manyChangesReloadInstead() {
+        long since = LinkPager.queryLastSeq(resolver);
+        ContentValues[] rows = new ContentValues[LinkPager.MAX_CHANGES + 1];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/more/" + i);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "More");
+        }
+        resolver.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows);
+        assertEquals(LinkPager.CHANGES_RELOAD, LinkPager.queryChanges(resolver, since, new HashSet<Long>()));
+    }
+}
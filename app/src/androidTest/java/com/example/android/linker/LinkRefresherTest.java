@@ -0,0 +1,126 @@
+package com.example.android.linker;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.linker.SQLdb.LinkContract;
+import com.example.android.linker.SQLdb.LinkProvider;
+import com.example.android.linker.SQLdb.TestLinkProvider;
+import com.example.android.linker.core.UrlNormalizer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Refreshes stale links against a page of its own, and checks the titles the user renamed are kept whether or not the
+ * page of the link is in the metadata cache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LinkRefresherTest {
+
+    private static final String OLD_TITLE = "Old title";
+
+    private static final String NEW_TITLE = "New title";
+
+    private MockContentResolver resolver;
+
+    private MetadataCache metadataCache;
+
+    @Before
+    public void setUp() {
+        LinkProvider provider = TestLinkProvider.create("refresher_test_");
+        resolver = new MockContentResolver();
+        resolver.addProvider(LinkContract.CONTENT_AUTHORITY, provider);
+        metadataCache = new MetadataCache(new ContextWrapper(InstrumentationRegistry.getTargetContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        });
+    }
+
+    /** Inserts a link that has never been refreshed. */
+    private long insert(String path, String title, String scrapedTitle) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + path);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_SCRAPED_TITLE, scrapedTitle);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_REFRESHED, 0);
+        return ContentUris.parseId(resolver.insert(LinkContract.LinkEntry.CONTENT_URI, values));
+    }
+
+    /** Caches the page of a link with the title it had when it was saved. */
+    private void cache(String path, String title) {
+        MetadataCache.Validators validators = new MetadataCache.Validators();
+        validators.etag = "\"" + path + "\"";
+        validators.maxAge = -1;
+        validators.fetched = System.currentTimeMillis();
+        metadataCache.put(UrlNormalizer.normalize("https://example.com/" + path), title, null, null, null, validators, 0);
+    }
+
+    /** Returns the title and the scraped title of a link. */
+    private String[] titles(long id) {
+        Cursor cursor = resolver.query(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, id),
+                new String[] {LinkContract.LinkEntry.COLUMN_LINK_TITLE, LinkContract.LinkEntry.COLUMN_LINK_SCRAPED_TITLE},
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return new String[] {cursor.getString(0), cursor.getString(1)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Refreshes every stale link against a page titled {@link #NEW_TITLE}. */
+    private LinkRefresher.Result refresh() {
+        return new LinkRefresher(resolver, null, metadataCache) {
+            @Override
+            Page fetch(String url) {
+                return new Page(NEW_TITLE, null, null);
+            }
+        }.run();
+    }
+
+    @Test
+    public void scrapedTitleIsReplacedWithoutCacheEntry() {
+        long id = insert("scraped", OLD_TITLE, OLD_TITLE);
+        long untitled = insert("untitled", "", null);
+
+        assertEquals(2, refresh().refreshed);
+        assertArrayEquals(new String[] {NEW_TITLE, NEW_TITLE}, titles(id));
+        assertArrayEquals(new String[] {NEW_TITLE, NEW_TITLE}, titles(untitled));
+    }
+
+    @Test
+    public void renamedTitleIsKept() {
+        long uncached = insert("renamed", "My name", OLD_TITLE);
+        long cached = insert("renamed_cached", "My name", OLD_TITLE);
+        cache("renamed_cached", OLD_TITLE);
+
+        assertEquals(2, refresh().refreshed);
+        assertArrayEquals(new String[] {"My name", NEW_TITLE}, titles(uncached));
+        assertArrayEquals(new String[] {"My name", NEW_TITLE}, titles(cached));
+    }
+
+    @Test
+    public void unknownScrapedTitleFallsBackToTheCache() {
+        long cached = insert("legacy_cached", OLD_TITLE, null);
+        cache("legacy_cached", OLD_TITLE);
+        long uncached = insert("legacy", OLD_TITLE, null);
+
+        assertEquals(2, refresh().refreshed);
+        assertArrayEquals(new String[] {NEW_TITLE, NEW_TITLE}, titles(cached));
+        // Could have been renamed, so the title stays. The scraped title is known from now on.
+        assertArrayEquals(new String[] {OLD_TITLE, NEW_TITLE}, titles(uncached));
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.linker;
+
+import android.content.Context;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.linker.SQLdb.LinkContract;
+import com.example.android.linker.SQLdb.TestLinkProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes the snapshot of the first screen and reads it back as a cold start would.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ListSnapshotTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = TestLinkProvider.reset("list_snapshot_test_");
+    }
+
+    private static List<LinkItem> rows(int count) {
+        List<LinkItem> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int type = i % 4 == 0 ? LinkContract.LinkEntry.TYPE_FOLDER : LinkContract.LinkEntry.TYPE_LINK;
+            rows.add(new LinkItem(i + 1, "Title " + i, "https://example.com/" + i, null, type, i, i * 2, 1000L * i));
+        }
+        return rows;
+    }
+
+    @Test
+    public void missingSnapshotReadsAsNull() {
+        assertNull(ListSnapshot.read(context));
+    }
+
+    @Test
+    public void snapshotKeepsTheFirstScreen() {
+        List<LinkItem> rows = rows(ListSnapshot.ROW_COUNT + 10);
+        assertNotNull(ListSnapshot.write(context, rows, null));
+
+        ListSnapshot snapshot = ListSnapshot.read(context);
+        assertNotNull(snapshot);
+        assertEquals(ListSnapshot.ROW_COUNT, snapshot.items.size());
+        for (int i = 0; i < ListSnapshot.ROW_COUNT; i++) {
+            LinkItem expected = rows.get(i);
+            LinkItem actual = snapshot.items.get(i);
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.title, actual.title);
+            assertEquals(expected.url, actual.url);
+            assertNull(actual.imageHash);
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.childCount, actual.childCount);
+            assertEquals(expected.linkCount, actual.linkCount);
+            assertEquals(expected.latestDate, actual.latestDate);
+            assertNull(snapshot.getThumbnail(actual));
+        }
+    }
+
+    @Test
+    public void snapshotIsReplacedWhole() {
+        ListSnapshot previous = ListSnapshot.write(context, rows(5), null);
+        ListSnapshot.write(context, rows(2), previous);
+        assertEquals(2, ListSnapshot.read(context).items.size());
+        assertFalse(new File(context.getFilesDir(), "list_snapshot.tmp").exists());
+    }
+}
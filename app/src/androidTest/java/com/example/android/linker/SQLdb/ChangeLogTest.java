@@ -0,0 +1,133 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the change log written along with the link table, and its compaction.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChangeLogTest {
+
+    private static final String[] PROJECTION = {
+            LinkContract.ChangeEntry.COLUMN_SEQ,
+            LinkContract.ChangeEntry.COLUMN_ROW_ID,
+            LinkContract.ChangeEntry.COLUMN_DELETED
+    };
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create("change_log_test_");
+    }
+
+    private long insert(String title) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + title);
+        return ContentUris.parseId(provider.insert(LinkContract.LinkEntry.CONTENT_URI, values));
+    }
+
+    private void rename(long id, String title) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+        provider.update(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, id), values, null, null);
+    }
+
+    private void delete(long id) {
+        provider.delete(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, id), null, null);
+    }
+
+    /** Returns the entries of the log as {seq, row id, deleted}, in the order they are returned. */
+    private List<long[]> queryChanges(Uri uri) {
+        List<long[]> entries = new ArrayList<>();
+        Cursor cursor = provider.query(uri, PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new long[] {cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    @Test
+    public void logHoldsTheLatestChangeOfEachRow() {
+        long first = insert("First");
+        long second = insert("Second");
+        long third = insert("Third");
+        rename(first, "Renamed");
+        delete(second);
+
+        List<long[]> entries = queryChanges(LinkContract.ChangeEntry.CONTENT_URI);
+        assertEquals(3, entries.size());
+        assertArrayEquals(new long[] {third, 0}, new long[] {entries.get(0)[1], entries.get(0)[2]});
+        assertArrayEquals(new long[] {first, 0}, new long[] {entries.get(1)[1], entries.get(1)[2]});
+        assertArrayEquals(new long[] {second, 1}, new long[] {entries.get(2)[1], entries.get(2)[2]});
+        for (int i = 1; i < entries.size(); i++) {
+            assertTrue(entries.get(i)[0] > entries.get(i - 1)[0]);
+        }
+    }
+
+    @Test
+    public void sinceLeavesOutTheChangesSeen() {
+        insert("First");
+        List<long[]> seen = queryChanges(LinkContract.ChangeEntry.CONTENT_URI);
+        long since = seen.get(seen.size() - 1)[0];
+        assertTrue(queryChanges(LinkContract.ChangeEntry.buildChangesUri(since)).isEmpty());
+
+        long second = insert("Second");
+        List<long[]> entries = queryChanges(LinkContract.ChangeEntry.buildChangesUri(since));
+        assertEquals(1, entries.size());
+        assertEquals(second, entries.get(0)[1]);
+    }
+
+    @Test
+    public void compactionMarksTheLog() {
+        int deletes = LinkContract.ChangeEntry.MAX_DELETED + 5;
+        ContentValues[] rows = new ContentValues[deletes];
+        for (int i = 0; i < deletes; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "Row " + i);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + i);
+        }
+        provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows);
+        List<long[]> inserted = queryChanges(LinkContract.ChangeEntry.CONTENT_URI);
+        long since = inserted.get(0)[0];
+        for (long[] entry : inserted) {
+            delete(entry[1]);
+        }
+
+        // The oldest deletions are replaced by a single mark, which tells an observer that saw none of them to reload.
+        List<long[]> entries = queryChanges(LinkContract.ChangeEntry.buildChangesUri(since));
+        assertEquals(LinkContract.ChangeEntry.MAX_DELETED + 1, entries.size());
+        assertEquals(LinkContract.ChangeEntry.ROW_ID_COMPACTED, entries.get(0)[1]);
+        for (long[] entry : entries) {
+            assertEquals(1, entry[2]);
+        }
+
+        // An observer past the mark still gets every deletion after it.
+        long mark = entries.get(0)[0];
+        List<long[]> after = queryChanges(LinkContract.ChangeEntry.buildChangesUri(mark));
+        assertEquals(LinkContract.ChangeEntry.MAX_DELETED, after.size());
+        for (long[] entry : after) {
+            assertNotEquals(LinkContract.ChangeEntry.ROW_ID_COMPACTED, entry[1]);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the aggregate columns of the folders against a walk of the tree, after random inserts, moves, edits and deletes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FolderAggregateTest {
+
+    private static final String PREFIX = "folder_aggregate_test_";
+
+    private static final int STEPS = 1500;
+
+    /** Steps between two checks of every folder. */
+    private static final int CHECK_INTERVAL = 100;
+
+    private static final String[] PROJECTION = {
+            LinkContract.LinkEntry._ID,
+            LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE,
+            LinkContract.LinkEntry.COLUMN_LINK_DATE,
+            LinkContract.LinkEntry.COLUMN_LINK_CHILD_COUNT,
+            LinkContract.LinkEntry.COLUMN_LINK_LINK_COUNT,
+            LinkContract.LinkEntry.COLUMN_LINK_LATEST_DATE
+    };
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create(PREFIX);
+    }
+
+    private long insert(int type, Long folderId, long date) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, type);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "Row");
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/");
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, folderId);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATE, date);
+        return ContentUris.parseId(provider.insert(LinkContract.LinkEntry.CONTENT_URI, values));
+    }
+
+    private void update(long id, String column, Long value) {
+        ContentValues values = new ContentValues();
+        values.put(column, value);
+        provider.update(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, id), values, null, null);
+    }
+
+    private List<Long> queryIds(String selection) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = provider.query(LinkContract.LinkEntry.CONTENT_URI, new String[] {LinkContract.LinkEntry._ID}, selection, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /** Compares the aggregate columns of every folder with the counts and the latest date found by walking its subtree. */
+    private void assertAggregates() {
+        Cursor folders = provider.query(LinkContract.LinkEntry.CONTENT_URI, PROJECTION,
+                LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE + "=" + LinkContract.LinkEntry.TYPE_FOLDER, null, null);
+        try {
+            while (folders.moveToNext()) {
+                long folderId = folders.getLong(0);
+                int children = 0;
+                int links = 0;
+                long latestDate = 0;
+                List<Long> pending = new ArrayList<>();
+                pending.add(folderId);
+                while (!pending.isEmpty()) {
+                    long parent = pending.remove(pending.size() - 1);
+                    Cursor rows = provider.query(LinkContract.LinkEntry.CONTENT_URI, PROJECTION,
+                            LinkContract.LinkEntry.SELECTION_IN_FOLDER, new String[] {String.valueOf(parent)}, null);
+                    try {
+                        while (rows.moveToNext()) {
+                            if (parent == folderId) {
+                                children++;
+                            }
+                            if (rows.getInt(1) == LinkContract.LinkEntry.TYPE_FOLDER) {
+                                pending.add(rows.getLong(0));
+                            } else {
+                                links++;
+                                latestDate = Math.max(latestDate, rows.getLong(2));
+                            }
+                        }
+                    } finally {
+                        rows.close();
+                    }
+                }
+                assertEquals("Children of " + folderId, children, folders.getInt(3));
+                assertEquals("Links under " + folderId, links, folders.getInt(4));
+                assertEquals("Latest date under " + folderId, latestDate, folders.getLong(5));
+            }
+        } finally {
+            folders.close();
+        }
+    }
+
+    @Test
+    public void aggregatesFollowRandomChanges() {
+        Random random = new Random(20);
+        for (int step = 1; step <= STEPS; step++) {
+            List<Long> folders = queryIds(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE + "=" + LinkContract.LinkEntry.TYPE_FOLDER);
+            List<Long> rows = queryIds(null);
+            folders.add(null);
+            Long folderId = folders.get(random.nextInt(folders.size()));
+            double operation = random.nextDouble();
+
+            if (rows.isEmpty() || operation < 0.6) {
+                int type = random.nextInt(4) == 0 ? LinkContract.LinkEntry.TYPE_FOLDER : LinkContract.LinkEntry.TYPE_LINK;
+                insert(type, folderId, random.nextInt(1000));
+            } else if (operation < 0.75) {
+                try {
+                    update(rows.get(random.nextInt(rows.size())), LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, folderId);
+                } catch (IllegalArgumentException e) {
+                    // The folder was the row itself or under it, and the move was rolled back.
+                }
+            } else if (operation < 0.9) {
+                update(rows.get(random.nextInt(rows.size())), LinkContract.LinkEntry.COLUMN_LINK_DATE, (long) random.nextInt(1000));
+            } else {
+                provider.delete(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, rows.get(random.nextInt(rows.size()))), null, null);
+            }
+
+            if (step % CHECK_INTERVAL == 0) {
+                assertAggregates();
+            }
+        }
+    }
+
+    @Test
+    public void deleteBySelectionUpdatesFoldersAbove() {
+        long folder = insert(LinkContract.LinkEntry.TYPE_FOLDER, null, 1);
+        long inner = insert(LinkContract.LinkEntry.TYPE_FOLDER, folder, 2);
+        insert(LinkContract.LinkEntry.TYPE_LINK, inner, 30);
+        insert(LinkContract.LinkEntry.TYPE_LINK, folder, 20);
+
+        provider.delete(LinkContract.LinkEntry.CONTENT_URI, LinkContract.LinkEntry.COLUMN_LINK_DATE + " >= 30", null);
+        assertAggregates();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aggregatesAreReadOnly() {
+        long folder = insert(LinkContract.LinkEntry.TYPE_FOLDER, null, 1);
+        update(folder, LinkContract.LinkEntry.COLUMN_LINK_LINK_COUNT, 5L);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds a tree of 10 levels of folders holding 50k rows in all, then times subtree counts against a walk of the
+ * folder ids, and times moving and deleting whole subtrees.
+ * Timings are written to logcat under the class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FolderTreeBenchmark {
+
+    private static final String LOG_TAG = FolderTreeBenchmark.class.getSimpleName();
+
+    private static final int LEVELS = 10;
+
+    /** Every folder holds two folders, down to the last level. */
+    private static final int FAN_OUT = 2;
+
+    private static final int ROW_COUNT = 50000;
+
+    private static final int RUNS = 11;
+
+    private LinkProvider provider;
+
+    /** Folders by level, in insertion order. */
+    private long[][] folders = new long[LEVELS][];
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create("folder_tree_benchmark_");
+        int folderCount = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            folders[level] = new long[(int) Math.pow(FAN_OUT, level)];
+            for (int i = 0; i < folders[level].length; i++) {
+                Long parent = level == 0 ? null : folders[level - 1][i / FAN_OUT];
+                folders[level][i] = insertFolder("Folder " + level + "." + i, parent);
+                folderCount++;
+            }
+        }
+
+        long[] leaves = folders[LEVELS - 1];
+        ContentValues[] rows = new ContentValues[ROW_COUNT - folderCount];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "Link " + i);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/article/" + i);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, leaves[i % leaves.length]);
+        }
+        assertEquals(rows.length, provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows));
+    }
+
+    private long insertFolder(String title, Long folderId) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_FOLDER);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, folderId);
+        return ContentUris.parseId(provider.insert(LinkContract.LinkEntry.CONTENT_URI, values));
+    }
+
+    /** Counts the rows under a folder through the closure table. */
+    private int countSubtree(long folderId) {
+        Cursor cursor = provider.query(LinkContract.LinkEntry.buildSubtreeUri(folderId), LinkContract.LinkEntry.PROJECTION_COUNT, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Counts the rows under a folder by querying the rows of every folder met, as the tree would be read without the closure table. */
+    private int walkSubtree(long folderId) {
+        int count = 0;
+        Deque<Long> pending = new ArrayDeque<>();
+        pending.add(folderId);
+        String[] projection = {LinkContract.LinkEntry._ID, LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE};
+        while (!pending.isEmpty()) {
+            Cursor cursor = provider.query(LinkContract.LinkEntry.CONTENT_URI, projection,
+                    LinkContract.LinkEntry.SELECTION_IN_FOLDER, new String[] {String.valueOf(pending.poll())}, null);
+            try {
+                while (cursor.moveToNext()) {
+                    count++;
+                    if (cursor.getInt(1) == LinkContract.LinkEntry.TYPE_FOLDER) {
+                        pending.add(cursor.getLong(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return count;
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    @Test
+    public void countsSubtreesWithoutWalking() {
+        long root = folders[0][0];
+        long[] closureNanos = new long[RUNS];
+        long[] walkNanos = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            assertEquals(ROW_COUNT - 1, countSubtree(root));
+            closureNanos[run] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            assertEquals(ROW_COUNT - 1, walkSubtree(root));
+            walkNanos[run] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Log.i(LOG_TAG, "Count of " + (ROW_COUNT - 1) + " rows: closure table " + median(closureNanos) / 1000
+                + " us, walk " + median(walkNanos) / 1000 + " us");
+        assertTrue(median(closureNanos) < median(walkNanos));
+    }
+
+    @Test
+    public void movesAndDeletesSubtrees() {
+        long moved = folders[2][0];
+        long target = folders[3][FAN_OUT * FAN_OUT * FAN_OUT - 1];
+        int movedRows = countSubtree(moved) + 1;
+        int targetRows = countSubtree(target);
+
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, target);
+        long start = SystemClock.elapsedRealtime();
+        assertEquals(1, provider.update(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, moved), values, null, null));
+        long moveMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(targetRows + movedRows, countSubtree(target));
+
+        start = SystemClock.elapsedRealtime();
+        assertEquals(movedRows, provider.delete(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, moved), null, null));
+        long deleteMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(targetRows, countSubtree(target));
+        assertEquals(ROW_COUNT - 1 - movedRows, countSubtree(folders[0][0]));
+
+        Log.i(LOG_TAG, "Subtree of " + movedRows + " rows: move " + moveMillis + " ms, delete " + deleteMillis + " ms");
+    }
+}
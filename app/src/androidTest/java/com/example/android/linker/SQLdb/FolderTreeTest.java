@@ -0,0 +1,129 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link LinkProvider} keeps the closure table of the folders in sync through inserts, moves and deletes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FolderTreeTest {
+
+    private static final String PREFIX = "folder_tree_test_";
+
+    private LinkProvider provider;
+
+    /** Folders a, b in a and c in b, with a link in c. */
+    private long a;
+    private long b;
+    private long c;
+    private long link;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create(PREFIX);
+        a = insertFolder("a", null);
+        b = insertFolder("b", a);
+        c = insertFolder("c", b);
+        link = insertLink("link", c, new byte[] {1, 2, 3});
+    }
+
+    private long insertFolder(String title, Long folderId) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_FOLDER);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, folderId);
+        return ContentUris.parseId(provider.insert(LinkContract.LinkEntry.CONTENT_URI, values));
+    }
+
+    private long insertLink(String title, Long folderId, byte[] image) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + title);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, folderId);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE, image);
+        return ContentUris.parseId(provider.insert(LinkContract.LinkEntry.CONTENT_URI, values));
+    }
+
+    private int countSubtree(long folderId) {
+        Cursor cursor = provider.query(LinkContract.LinkEntry.buildSubtreeUri(folderId), LinkContract.LinkEntry.PROJECTION_COUNT, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void move(long id, Long folderId) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, folderId);
+        assertEquals(1, provider.update(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, id), values, null, null));
+    }
+
+    @Test
+    public void subtreeHoldsEveryLevel() {
+        assertEquals(3, countSubtree(a));
+        assertEquals(2, countSubtree(b));
+        assertEquals(0, countSubtree(link));
+
+        Cursor cursor = provider.query(LinkContract.LinkEntry.buildSubtreeUri(a),
+                new String[] {LinkContract.LinkEntry._ID, LinkContract.FolderTreeEntry.COLUMN_DEPTH},
+                LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE + "=" + LinkContract.LinkEntry.TYPE_LINK, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(link, cursor.getLong(0));
+            assertEquals(3, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void linkCannotHoldRows() {
+        insertLink("inside a link", link, null);
+    }
+
+    @Test
+    public void moveCarriesTheSubtree() {
+        move(b, null);
+        assertEquals(0, countSubtree(a));
+        assertEquals(2, countSubtree(b));
+
+        move(b, a);
+        assertEquals(3, countSubtree(a));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void folderCannotMoveUnderItself() {
+        move(a, c);
+    }
+
+    @Test
+    public void deleteTakesTheSubtree() {
+        long other = insertLink("other", null, null);
+        assertEquals(4, provider.delete(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, a), null, null));
+
+        SQLiteDatabase db = TestLinkProvider.openHelper(PREFIX).getReadableDatabase();
+        try {
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, LinkContract.LinkEntry.TABLE_NAME));
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, LinkContract.FolderTreeEntry.TABLE_NAME,
+                    LinkContract.FolderTreeEntry.COLUMN_DESCENDANT + "=?", new String[] {String.valueOf(other)}));
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, LinkContract.FolderTreeEntry.TABLE_NAME));
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, LinkContract.ThumbnailEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Inserts 10k rows one at a time, through {@link LinkProvider#bulkInsert}, and through {@link LinkProvider#applyBatch}.
+ * Timings are written to logcat under the class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LinkProviderBatchBenchmark {
+
+    private static final String LOG_TAG = LinkProviderBatchBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 10000;
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create("batch_benchmark_");
+    }
+
+    private static ContentValues row(int i) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "Title " + i);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/article/" + i);
+        return values;
+    }
+
+    private int count() {
+        Cursor cursor = provider.query(LinkContract.LinkEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void compareSingleInsertsWithBatches() throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            provider.insert(LinkContract.LinkEntry.CONTENT_URI, row(i));
+        }
+        long singleMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROW_COUNT, count());
+        provider.delete(LinkContract.LinkEntry.CONTENT_URI, null, null);
+
+        ContentValues[] rows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows[i] = row(i);
+        }
+        start = SystemClock.elapsedRealtime();
+        assertEquals(ROW_COUNT, provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows));
+        long bulkMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROW_COUNT, count());
+        provider.delete(LinkContract.LinkEntry.CONTENT_URI, null, null);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            operations.add(ContentProviderOperation.newInsert(LinkContract.LinkEntry.CONTENT_URI).withValues(row(i)).build());
+        }
+        start = SystemClock.elapsedRealtime();
+        provider.applyBatch(operations);
+        long batchMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROW_COUNT, count());
+
+        Log.i(LOG_TAG, ROW_COUNT + " rows: insert " + singleMillis + " ms, bulkInsert " + bulkMillis
+                + " ms, applyBatch " + batchMillis + " ms");
+        assertTrue(bulkMillis < singleMillis);
+        assertTrue(batchMillis < singleMillis);
+    }
+
+    @Test
+    public void bulkInsertSkipsInvalidRows() {
+        ContentValues invalid = row(1);
+        invalid.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "not a url");
+        ContentValues[] rows = {row(0), invalid, row(2)};
+
+        assertEquals(2, provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows));
+        assertEquals(2, count());
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Searches a library of 50k links and checks the median query stays under 10 ms.
+ * Timings are written to logcat under the class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LinkSearchBenchmark {
+
+    private static final String LOG_TAG = LinkSearchBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 50000;
+
+    private static final int RUNS = 25;
+
+    private static final long TARGET_MILLIS = 10;
+
+    private static final String[] WORDS = {"android", "kotlin", "java", "sqlite", "search", "index", "thumbnail",
+            "linker", "example", "news", "blog", "recipe", "travel", "music", "performance", "database"};
+
+    /** Common words, rare words, several words and a query without results. */
+    private static final String[] QUERIES = {"andr", "recipe", "sqlite perf", "travel 123", "databa music news", "nothing"};
+
+    private static final String[] PROJECTION = {
+            LinkContract.LinkEntry._ID,
+            LinkContract.LinkEntry.COLUMN_LINK_URL,
+            LinkContract.LinkEntry.COLUMN_LINK_TITLE,
+            LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH
+    };
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create("search_benchmark_");
+        Random random = new Random(1);
+        ContentValues[] rows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            StringBuilder title = new StringBuilder();
+            for (int w = 0; w < 4; w++) {
+                title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            rows[i] = new ContentValues();
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title.append(i).toString());
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + WORDS[random.nextInt(WORDS.length)] + "/" + i);
+        }
+        assertEquals(ROW_COUNT, provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows));
+    }
+
+    @Test
+    public void searchesUnderTarget() {
+        for (String query : QUERIES) {
+            long[] nanos = new long[RUNS];
+            int count = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                Cursor cursor = provider.query(LinkContract.LinkEntry.buildSearchUri(query), PROJECTION, null, null, null);
+                try {
+                    // Fills the cursor window, as the list does when it binds the first rows.
+                    count = cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                nanos[run] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+            Arrays.sort(nanos);
+            double medianMillis = nanos[RUNS / 2] / 1e6;
+            Log.i(LOG_TAG, "\"" + query + "\": " + count + " results, median " + medianMillis + " ms, max "
+                    + nanos[RUNS - 1] / 1e6 + " ms");
+            assertTrue("\"" + query + "\" took " + medianMillis + " ms", medianMillis < TARGET_MILLIS);
+        }
+    }
+}
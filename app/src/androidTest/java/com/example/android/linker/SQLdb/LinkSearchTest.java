@@ -0,0 +1,127 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the search uri of {@link LinkProvider} and that the full-text index follows the link table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LinkSearchTest {
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create("search_test_");
+    }
+
+    private Uri insert(String title, String url) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, url);
+        return provider.insert(LinkContract.LinkEntry.CONTENT_URI, values);
+    }
+
+    private List<String> search(String query) {
+        List<String> titles = new ArrayList<>();
+        Cursor cursor = provider.query(LinkContract.LinkEntry.buildSearchUri(query),
+                new String[] {LinkContract.LinkEntry._ID, LinkContract.LinkEntry.COLUMN_LINK_TITLE}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                titles.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return titles;
+    }
+
+    @Test
+    public void matchesPrefixesOfEveryWord() {
+        insert("Android performance patterns", "https://example.com/a");
+        insert("Android architecture", "https://example.com/b");
+        insert("Kotlin coroutines", "https://example.com/c");
+
+        assertEquals(2, search("andr").size());
+        assertEquals(1, search("andr perf").size());
+        assertEquals(1, search("ANDROID, Patterns!").size());
+        assertTrue(search("swift").isEmpty());
+    }
+
+    @Test
+    public void ranksTitleMatchesBeforeUrlMatches() {
+        insert("A recipe", "https://example.com/travel");
+        insert("B travel guide", "https://example.com/b");
+        insert("C travel notes", "https://example.com/c");
+
+        List<String> results = search("travel");
+        assertEquals(3, results.size());
+        assertEquals("B travel guide", results.get(0));
+        assertEquals("C travel notes", results.get(1));
+        assertEquals("A recipe", results.get(2));
+    }
+
+    @Test
+    public void followsUpdatesAndDeletes() {
+        Uri uri = insert("Old title", "https://example.com/a");
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "New title");
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/a");
+        provider.update(uri, values, null, null);
+
+        assertTrue(search("old").isEmpty());
+        assertEquals(1, search("new").size());
+
+        provider.delete(uri, null, null);
+        assertTrue(search("new").isEmpty());
+    }
+
+    @Test
+    public void appliesLimit() {
+        for (int i = 0; i < 5; i++) {
+            insert("Title " + i, "https://example.com/" + i);
+        }
+        Uri uri = LinkContract.LinkEntry.buildSearchUri("title").buildUpon()
+                .appendQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT, "3").build();
+        Cursor cursor = provider.query(uri, null, null, null, null);
+        try {
+            assertEquals(3, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void emptyQueryReturnsNothing() {
+        insert("Title", "https://example.com/");
+        assertTrue(search("  ,.").isEmpty());
+    }
+
+    @Test
+    public void buildsMatchQueries() {
+        assertNull(LinkProvider.buildMatchQuery("\"*-", null));
+        assertEquals("foo* bar*", LinkProvider.buildMatchQuery("Foo \"bar", null));
+        assertEquals("title:foo* title:bar*", LinkProvider.buildMatchQuery("foo-bar", LinkContract.SearchEntry.COLUMN_TITLE));
+    }
+
+    @Test
+    public void searchUriHasDirectoryType() {
+        long id = ContentUris.parseId(insert("Title", "https://example.com/"));
+        assertTrue(id > 0);
+        assertEquals(LinkContract.LinkEntry.ALL_LINK_ENTRY, provider.getType(LinkContract.LinkEntry.buildSearchUri("title")));
+    }
+}
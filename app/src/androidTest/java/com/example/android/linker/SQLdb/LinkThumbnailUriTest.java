@@ -0,0 +1,139 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the thumbnail uri of {@link LinkProvider} streams the stored file.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LinkThumbnailUriTest {
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create("thumbnail_uri_test_");
+    }
+
+    private static byte[] webp() {
+        return webp(8);
+    }
+
+    private static byte[] webp(int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.WEBP, 80, bytes);
+        return bytes.toByteArray();
+    }
+
+    private long insert(byte[] image) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/");
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE, image);
+        return ContentUris.parseId(provider.insert(LinkContract.LinkEntry.CONTENT_URI, values));
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void streamsThumbnail() throws IOException {
+        byte[] image = webp();
+        Uri uri = LinkContract.LinkEntry.buildThumbnailUri(insert(image));
+
+        assertEquals("image/webp", provider.getType(uri));
+        assertArrayEquals(new String[] {"image/webp"}, provider.getStreamTypes(uri, "image/*"));
+        assertNull(provider.getStreamTypes(uri, "text/*"));
+
+        ParcelFileDescriptor file = provider.openFile(uri, "r");
+        try (InputStream input = new FileInputStream(file.getFileDescriptor())) {
+            assertArrayEquals(image, read(input));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void streamsThumbnailByHash() throws IOException {
+        byte[] image = webp();
+        long id = insert(image);
+        Uri uri = LinkContract.ThumbnailEntry.buildThumbnailUri(ThumbnailStore.hash(image));
+
+        ParcelFileDescriptor file = provider.openFile(uri, "r");
+        try (InputStream input = new FileInputStream(file.getFileDescriptor())) {
+            assertArrayEquals(image, read(input));
+        } finally {
+            file.close();
+        }
+
+        provider.delete(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, id), null, null);
+        try {
+            provider.openFile(uri, "r");
+            fail("The thumbnail outlived its last reference.");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void rowWithoutThumbnail() throws IOException {
+        provider.openFile(LinkContract.LinkEntry.buildThumbnailUri(insert(null)), "r");
+    }
+
+    @Test
+    public void rolledBackThumbnailIsDeleted() throws Exception {
+        byte[] image = webp(12);
+        File file = new ThumbnailStore(provider.getContext()).getFile(ThumbnailStore.hash(image));
+        file.delete();
+
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/");
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE, image);
+        ContentValues invalid = new ContentValues();
+        invalid.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, 99);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LinkContract.LinkEntry.CONTENT_URI).withValues(values).build());
+        operations.add(ContentProviderOperation.newInsert(LinkContract.LinkEntry.CONTENT_URI).withValues(invalid).build());
+        try {
+            provider.applyBatch(operations);
+            fail("The invalid row was inserted.");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // The batch rolled back, taking the reference to the thumbnail with it.
+        assertFalse(file.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thumbnailsAreReadOnly() throws IOException {
+        provider.openFile(LinkContract.LinkEntry.buildThumbnailUri(insert(webp())), "w");
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileNotFoundException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the metadata cache table of {@link LinkProvider} keeps one row per url and shares thumbnails with the links.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MetadataCacheProviderTest {
+
+    private static final String PREFIX = "metadata_cache_test_";
+
+    private static final String URL = "https://example.com/";
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create(PREFIX);
+    }
+
+    private long insert(String url, String etag, long fetched, byte[] image) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_URL, url);
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_TITLE, "Example");
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_ETAG, etag);
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_FETCHED, fetched);
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_IMAGE, image);
+        return ContentUris.parseId(provider.insert(LinkContract.MetadataEntry.CONTENT_URI, values));
+    }
+
+    private Cursor query(String url) {
+        return provider.query(LinkContract.MetadataEntry.CONTENT_URI, null,
+                LinkContract.MetadataEntry.COLUMN_METADATA_URL + "=?", new String[] {url}, null);
+    }
+
+    @Test
+    public void insertReplacesTheSameUrl() {
+        insert(URL, "\"a\"", 1, null);
+        long id = insert(URL, "\"b\"", 2, null);
+
+        Cursor cursor = query(URL);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(id, cursor.getLong(cursor.getColumnIndex(LinkContract.MetadataEntry._ID)));
+            assertEquals("\"b\"", cursor.getString(cursor.getColumnIndex(LinkContract.MetadataEntry.COLUMN_METADATA_ETAG)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void revalidationUpdatesFetchTime() {
+        insert(URL, "\"a\"", 1, null);
+
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_FETCHED, 5);
+        assertEquals(1, provider.update(LinkContract.MetadataEntry.CONTENT_URI, values,
+                LinkContract.MetadataEntry.COLUMN_METADATA_URL + "=?", new String[] {URL}));
+
+        Cursor cursor = query(URL);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(5, cursor.getLong(cursor.getColumnIndex(LinkContract.MetadataEntry.COLUMN_METADATA_FETCHED)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateRejectsThumbnails() {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_IMAGE, new byte[] {1});
+        provider.update(LinkContract.MetadataEntry.CONTENT_URI, values, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void insertNeedsFetchTime() {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.MetadataEntry.COLUMN_METADATA_URL, URL);
+        provider.insert(LinkContract.MetadataEntry.CONTENT_URI, values);
+    }
+
+    @Test
+    public void deleteReleasesThumbnail() throws FileNotFoundException {
+        Uri thumbnail = LinkContract.MetadataEntry.buildThumbnailUri(insert(URL, null, 1, new byte[] {1, 2, 3}));
+        provider.openFile(thumbnail, "r");
+
+        assertEquals(1, provider.delete(LinkContract.MetadataEntry.CONTENT_URI, null, null));
+
+        LinkDbStructure helper = TestLinkProvider.openHelper(PREFIX);
+        try {
+            assertEquals(0, DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), LinkContract.ThumbnailEntry.TABLE_NAME));
+        } finally {
+            helper.close();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrades a database of the first version, holding thumbnail blobs, and checks that the upgrade leaves the blobs to
+ * the {@link ThumbnailBackfill}, which moves them a chunk at a time and resumes from its last committed checkpoint.
+ * The search index, the folder tree, its aggregates and the indexes of the links are left to backfills the same way.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+
+    private static final String PREFIX = "migration_test_";
+
+    /** Spans a few chunks, the last one partial. */
+    private static final int ROW_COUNT = 45;
+
+    /** Links filed into each folder by {@link #addFolders()}. */
+    private static final int FOLDER_SIZE = 10;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = TestLinkProvider.reset(PREFIX);
+
+        // The schema of the first version, before the thumbnails moved to files.
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath("linker.db"), null);
+        try {
+            db.execSQL("CREATE TABLE link (_id INTEGER PRIMARY KEY AUTOINCREMENT, type INTEGER NOT NULL DEFAULT(0), "
+                    + "folder_id INTEGER, title TEXT, url TEXT NOT NULL, image BLOB);");
+            for (int i = 0; i < ROW_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put("type", LinkContract.LinkEntry.TYPE_LINK);
+                values.put("title", "Link " + i);
+                values.put("url", "https://example.com/" + i);
+                values.put("image", new byte[] {(byte) i, 1, 2, 3});
+                db.insert("link", null, values);
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Files the first links into a folder, and the next ones into a folder inside it, in the first version.
+     * @return long[] - Row ids of the outer and the inner folder.
+     */
+    private long[] addFolders() {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(context.getDatabasePath("linker.db").getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            long outer = insertFolder(db, null);
+            long inner = insertFolder(db, outer);
+            db.execSQL("UPDATE link SET folder_id = ? WHERE _id <= ?", new Object[] {outer, FOLDER_SIZE});
+            db.execSQL("UPDATE link SET folder_id = ? WHERE _id > ? AND _id <= ?", new Object[] {inner, FOLDER_SIZE, 2 * FOLDER_SIZE});
+            return new long[] {outer, inner};
+        } finally {
+            db.close();
+        }
+    }
+
+    private static long insertFolder(SQLiteDatabase db, Long folderId) {
+        ContentValues values = new ContentValues();
+        values.put("type", LinkContract.LinkEntry.TYPE_FOLDER);
+        values.put("folder_id", folderId);
+        values.put("title", "Folder");
+        values.put("url", "");
+        return db.insert("link", null, values);
+    }
+
+    private static long countBlobs(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, LinkContract.LinkEntry.TABLE_NAME, LinkContract.LinkEntry.COLUMN_LINK_IMAGE + " IS NOT NULL");
+    }
+
+    private static long checkpoint(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + LinkContract.MigrationEntry.COLUMN_CHECKPOINT + " FROM "
+                + LinkContract.MigrationEntry.TABLE_NAME + " WHERE " + LinkContract.MigrationEntry.COLUMN_NAME + "=?",
+                new String[] {ThumbnailBackfill.NAME});
+    }
+
+    @Test
+    public void backfillResumesFromItsCheckpoint() {
+        LinkDbStructure helper = TestLinkProvider.openHelper(PREFIX);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            // The upgrade only changed the schema.
+            assertEquals(ROW_COUNT, countBlobs(db));
+            assertTrue(Migrations.isPending(db, ThumbnailBackfill.NAME));
+            assertEquals(0, checkpoint(db));
+
+            // A chunk stopped before it commits leaves the rows and the checkpoint as they were.
+            ThumbnailBackfill backfill = new ThumbnailBackfill(new ThumbnailStore(context));
+            db.beginTransaction();
+            try {
+                assertTrue(backfill.runChunk(db, 0, ROW_COUNT) < ROW_COUNT);
+            } finally {
+                db.endTransaction();
+            }
+            assertEquals(ROW_COUNT, countBlobs(db));
+
+            Migrations.run(new LinkWriter(db), context.getContentResolver(), backfill);
+            assertEquals(0, countBlobs(db));
+            assertFalse(Migrations.isPending(db, ThumbnailBackfill.NAME));
+            assertEquals(ROW_COUNT, checkpoint(db));
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, LinkContract.LinkEntry.TABLE_NAME,
+                    LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH + " IS NULL"));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void thumbnailOpensBeforeItsChunkRuns() throws Exception {
+        // The provider starts the backfill on its own thread. Whether or not it has reached the last row, its
+        // thumbnail opens, moved ahead of its chunk if need be.
+        LinkProvider provider = TestLinkProvider.attach(PREFIX);
+        Uri uri = LinkContract.LinkEntry.buildThumbnailUri(ROW_COUNT);
+        ParcelFileDescriptor descriptor = provider.openFile(uri, "r");
+        try {
+            assertEquals(4, descriptor.getStatSize());
+        } finally {
+            descriptor.close();
+        }
+
+        Cursor cursor = provider.query(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, ROW_COUNT),
+                new String[] {LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertFalse(cursor.isNull(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void heavyStepsAreLeftToBackfills() {
+        long[] folders = addFolders();
+        LinkDbStructure helper = TestLinkProvider.openHelper(PREFIX);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertTrue(Migrations.isPending(db, SearchBackfill.NAME));
+            assertTrue(Migrations.isPending(db, FolderTreeBackfill.NAME));
+            assertTrue(Migrations.isPending(db, FolderAggregateBackfill.NAME));
+            assertTrue(Migrations.isPending(db, LinkIndexBackfill.NAME));
+            assertEquals(0, countIndexes(db));
+            assertEquals(0, countSubtree(db, folders[0]));
+
+            Migrations.run(new LinkWriter(db), context.getContentResolver(), new LinkIndexBackfill(),
+                    new ThumbnailBackfill(new ThumbnailStore(context)), new SearchBackfill(), new FolderTreeBackfill(),
+                    new FolderAggregateBackfill());
+            assertFalse(Migrations.isPending(db, SearchBackfill.NAME));
+            assertFalse(Migrations.isPending(db, FolderTreeBackfill.NAME));
+            assertFalse(Migrations.isPending(db, FolderAggregateBackfill.NAME));
+            assertFalse(Migrations.isPending(db, LinkIndexBackfill.NAME));
+
+            assertEquals(2, countIndexes(db));
+            assertEquals(2 * FOLDER_SIZE + 1, countSubtree(db, folders[0]));
+            assertEquals(FOLDER_SIZE, countSubtree(db, folders[1]));
+            assertEquals(ROW_COUNT, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + LinkContract.SearchEntry.TABLE_NAME
+                    + " WHERE " + LinkContract.SearchEntry.TABLE_NAME + " MATCH ?", new String[] {"link*"}));
+
+            Cursor cursor = db.query(LinkContract.LinkEntry.TABLE_NAME, new String[] {LinkContract.LinkEntry.COLUMN_LINK_CHILD_COUNT,
+                    LinkContract.LinkEntry.COLUMN_LINK_LINK_COUNT}, LinkContract.LinkEntry._ID + "=?",
+                    new String[] {String.valueOf(folders[0])}, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(FOLDER_SIZE + 1, cursor.getInt(0));
+                assertEquals(2 * FOLDER_SIZE, cursor.getInt(1));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void queriesFallBackBeforeTheBackfillsRun() {
+        // The provider starts the backfills on its own thread. Whether or not they are done, the search finds every
+        // link and the subtree lists every row under the folder.
+        long[] folders = addFolders();
+        LinkProvider provider = TestLinkProvider.attach(PREFIX);
+        Uri search = LinkContract.LinkEntry.buildSearchUri("link").buildUpon()
+                .appendQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT, String.valueOf(ROW_COUNT)).build();
+        Cursor cursor = provider.query(search, new String[] {LinkContract.LinkEntry._ID}, null, null, null);
+        try {
+            assertEquals(ROW_COUNT, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        cursor = provider.query(LinkContract.LinkEntry.buildSubtreeUri(folders[0]), new String[] {LinkContract.LinkEntry._ID},
+                null, null, null);
+        try {
+            assertEquals(2 * FOLDER_SIZE + 1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Counts the indexes of the links the upgrade to version 9 rebuilds. */
+    private static long countIndexes(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, "sqlite_master", "type = 'index' AND name IN (?, ?)",
+                new String[] {LinkContract.LinkEntry.INDEX_TITLE, LinkContract.LinkEntry.INDEX_FOLDER});
+    }
+
+    /** Counts the rows the closure table holds under a folder. */
+    private static long countSubtree(SQLiteDatabase db, long folderId) {
+        return DatabaseUtils.queryNumEntries(db, LinkContract.FolderTreeEntry.TABLE_NAME, LinkContract.FolderTreeEntry.COLUMN_ANCESTOR
+                + "=? AND " + LinkContract.FolderTreeEntry.COLUMN_DEPTH + " > 0", new String[] {String.valueOf(folderId)});
+    }
+}
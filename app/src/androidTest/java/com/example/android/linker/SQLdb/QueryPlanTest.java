@@ -0,0 +1,206 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.linker.LinkPager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for every query shape the app issues and fails when one of them scans a whole table
+ * or sorts through a temporary B-tree. Searches only sort their matches, and must not walk any index of the link table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private static final String PREFIX = "query_plan_";
+
+    /** A scan without an index, in both the old "SCAN TABLE x" and the newer "SCAN x" wording. */
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?\\w+$");
+
+    /**
+     * Any walk of a whole table, through an index or not. Only the listings walk an index on purpose, a search must
+     * only read the rows its MATCH finds.
+     */
+    private static final Pattern TABLE_SCAN = Pattern.compile("^SCAN (TABLE )?\\w+( AS \\w+)?( USING (COVERING )?INDEX \\w+)?$");
+
+    /** Projection of the link list in LinkFragment. */
+    private static final String[] LIST_PROJECTION = {
+            LinkContract.LinkEntry._ID,
+            LinkContract.LinkEntry.COLUMN_LINK_URL,
+            LinkContract.LinkEntry.COLUMN_LINK_TITLE,
+            LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH,
+            LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE,
+            LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID
+    };
+
+    private LinkDbStructure helper;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        TestLinkProvider.create(PREFIX).query(LinkContract.LinkEntry.CONTENT_URI, null, null, null, null).close();
+        helper = TestLinkProvider.openHelper(PREFIX);
+        db = helper.getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    private static String select(String table, String[] projection, String selection, String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, table, projection, selection, null, null, sortOrder, null);
+    }
+
+    /**
+     * Returns the detail column of every step of the plan.
+     * @param sql
+     * @param args
+     * @return List
+     */
+    private List<String> plan(String sql, String... args) {
+        List<String> details = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int columnDetail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(columnDetail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return details;
+    }
+
+    /** Fails when the plan of the query has a full scan or a temporary sort. */
+    private void assertIndexed(String sql, String... args) {
+        List<String> details = plan(sql, args);
+        assertFalse("Empty plan for " + sql, details.isEmpty());
+        for (String detail : details) {
+            assertFalse("Full scan in " + sql + ": " + details, FULL_SCAN.matcher(detail).matches());
+            assertFalse("Temporary sort in " + sql + ": " + details, detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    /**
+     * Fails unless the plan of the search starts from the full-text matches and looks their links up by id.
+     * The matches are sorted, which is bounded by the limit of the search.
+     */
+    private void assertDrivenByMatch(String sql, String... args) {
+        List<String> details = plan(sql, args);
+        assertFalse("Empty plan for " + sql, details.isEmpty());
+        for (String detail : details) {
+            assertFalse("Table scan in " + sql + ": " + details, TABLE_SCAN.matcher(detail).matches());
+        }
+        assertTrue(details.toString(), details.get(0).contains(LinkContract.SearchEntry.TABLE_NAME + " VIRTUAL TABLE INDEX"));
+        assertTrue(details.toString(), details.get(1).startsWith("SEARCH")
+                && details.get(1).contains(LinkContract.LinkEntry.TABLE_NAME + " USING INTEGER PRIMARY KEY"));
+    }
+
+    @Test
+    public void titleSortedList() {
+        assertIndexed(select(LinkContract.LinkEntry.TABLE_NAME, LIST_PROJECTION, null, LinkContract.LinkEntry.SORT_ORDER_TITLE));
+    }
+
+    @Test
+    public void titleListPage() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, LinkContract.LinkEntry.TABLE_NAME, LIST_PROJECTION,
+                LinkContract.LinkEntry.SELECTION_AFTER_TITLE, null, null, LinkContract.LinkEntry.SORT_ORDER_TITLE, "50");
+        assertIndexed(sql, "Title", "Title", "1");
+        assertTrue(plan(sql, "Title", "Title", "1").get(0).startsWith("SEARCH"));
+    }
+
+    @Test
+    public void folderList() {
+        assertIndexed(select(LinkContract.LinkEntry.TABLE_NAME, LIST_PROJECTION,
+                LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID + "=?", LinkContract.LinkEntry.SORT_ORDER_TITLE), "1");
+    }
+
+    @Test
+    public void topLevelPage() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, LinkContract.LinkEntry.TABLE_NAME, LIST_PROJECTION,
+                LinkContract.LinkEntry.SELECTION_TOP_LEVEL + " AND " + LinkContract.LinkEntry.SELECTION_AFTER_TITLE,
+                null, null, LinkContract.LinkEntry.SORT_ORDER_TITLE, "50");
+        assertIndexed(sql, "Title", "Title", "1");
+    }
+
+    @Test
+    public void folderPageIsCovered() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, LinkContract.LinkEntry.TABLE_NAME, LinkPager.PROJECTION,
+                LinkContract.LinkEntry.SELECTION_IN_FOLDER + " AND " + LinkContract.LinkEntry.SELECTION_AFTER_TITLE,
+                null, null, LinkContract.LinkEntry.SORT_ORDER_TITLE, "50");
+        assertIndexed(sql, "1", "Title", "Title", "1");
+        List<String> details = plan(sql, "1", "Title", "Title", "1");
+        assertTrue(details.toString(), details.get(0).contains("COVERING INDEX " + LinkContract.LinkEntry.INDEX_FOLDER));
+    }
+
+    @Test
+    public void subtree() {
+        assertIndexed(select(FolderTree.TABLES_SUBTREE, LinkContract.LinkEntry.PROJECTION_COUNT,
+                LinkContract.FolderTreeEntry.COLUMN_ANCESTOR + "=? AND " + LinkContract.FolderTreeEntry.COLUMN_DEPTH + " > 0", null), "1");
+    }
+
+    @Test
+    public void ancestorsOfRow() {
+        assertIndexed(select(LinkContract.FolderTreeEntry.TABLE_NAME,
+                new String[] {LinkContract.FolderTreeEntry.COLUMN_ANCESTOR, LinkContract.FolderTreeEntry.COLUMN_DEPTH},
+                LinkContract.FolderTreeEntry.COLUMN_DESCENDANT + "=?", null), "1");
+    }
+
+    @Test
+    public void staleLinks() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, LinkContract.LinkEntry.TABLE_NAME,
+                new String[] {LinkContract.LinkEntry._ID, LinkContract.LinkEntry.COLUMN_LINK_URL},
+                LinkContract.LinkEntry.SELECTION_STALE, null, null, LinkContract.LinkEntry.SORT_ORDER_REFRESHED, "25");
+        assertIndexed(sql, "1000");
+    }
+
+    @Test
+    public void singleRow() {
+        assertIndexed(select(LinkContract.LinkEntry.TABLE_NAME, null, LinkContract.LinkEntry._ID + "=?", null), "1");
+    }
+
+    @Test
+    public void thumbnailsOfRow() {
+        assertIndexed(select(LinkContract.LinkEntry.TABLE_NAME,
+                new String[] {LinkContract.LinkEntry._ID, LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH},
+                LinkContract.LinkEntry._ID + "=?", null), "1");
+    }
+
+    @Test
+    public void thumbnailReferenceCount() {
+        assertIndexed(select(LinkContract.ThumbnailEntry.TABLE_NAME,
+                new String[] {LinkContract.ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT},
+                LinkContract.ThumbnailEntry.COLUMN_THUMBNAIL_HASH + "=?", null), "0000");
+    }
+
+    @Test
+    public void searchTitles() {
+        assertDrivenByMatch(LinkProvider.buildSearchSql(LIST_PROJECTION, null, null, 100, false), "title:a*");
+    }
+
+    @Test
+    public void searchUrls() {
+        assertDrivenByMatch(LinkProvider.buildSearchSql(LIST_PROJECTION, null, null, 100, true), "a*", "title:a*");
+    }
+
+    @Test
+    public void titleListIsCovered() {
+        List<String> details = plan(select(LinkContract.LinkEntry.TABLE_NAME, LIST_PROJECTION, null, LinkContract.LinkEntry.SORT_ORDER_TITLE));
+        assertTrue(details.toString(), details.get(0).contains("COVERING INDEX " + LinkContract.LinkEntry.INDEX_TITLE));
+    }
+}
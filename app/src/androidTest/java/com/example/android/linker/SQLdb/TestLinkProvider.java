@@ -0,0 +1,89 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.support.test.InstrumentationRegistry;
+import android.test.RenamingDelegatingContext;
+
+import java.io.File;
+
+/**
+ * Creates a {@link LinkProvider} backed by its own database file and files directory, so tests never touch the links
+ * or the thumbnails of the installed app.
+ */
+public final class TestLinkProvider {
+
+    private TestLinkProvider() {}
+
+    /**
+     * Returns a context that prefixes the database name and keeps its files in a directory of its own.
+     * {@link RenamingDelegatingContext} only renames the databases, so the files directory is moved here.
+     * @param prefix Prefix of the database file and the files directory, unique per test class.
+     * @return Context
+     */
+    public static Context context(final String prefix) {
+        return new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), prefix) {
+            @Override
+            public File getFilesDir() {
+                File directory = new File(super.getFilesDir(), prefix + "files");
+                directory.mkdirs();
+                return directory;
+            }
+        };
+    }
+
+    /**
+     * Deletes the database and the files left by an earlier test with the same prefix.
+     * @param prefix Prefix of the database file and the files directory, unique per test class.
+     * @return Context - The context of {@link #context(String)}, now empty.
+     */
+    public static Context reset(String prefix) {
+        Context context = context(prefix);
+        context.deleteDatabase("linker.db");
+        delete(context.getFilesDir());
+        return context;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Attaches a new provider to a context that prefixes the database name.
+     * The database and the thumbnails are deleted first, so every call starts from an empty schema.
+     * @param prefix Prefix of the database file, unique per test class.
+     * @return LinkProvider
+     */
+    public static LinkProvider create(String prefix) {
+        reset(prefix);
+        return attach(prefix);
+    }
+
+    /**
+     * Attaches a new provider to the database left by an earlier provider or test, upgrading it if it is older.
+     * @param prefix Prefix of the database file, unique per test class.
+     * @return LinkProvider
+     */
+    public static LinkProvider attach(String prefix) {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = LinkContract.CONTENT_AUTHORITY;
+        LinkProvider provider = new LinkProvider();
+        provider.attachInfo(context(prefix), info);
+        return provider;
+    }
+
+    /**
+     * Opens the database of a provider created by {@link #create(String)}.
+     * @param prefix The prefix passed to {@link #create(String)}.
+     * @return LinkDbStructure
+     */
+    public static LinkDbStructure openHelper(String prefix) {
+        return new LinkDbStructure(context(prefix));
+    }
+}
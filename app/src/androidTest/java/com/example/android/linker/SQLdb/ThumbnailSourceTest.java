@@ -0,0 +1,167 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that links sharing a downloaded image share its thumbnail, found by the hash of the image, until the last one goes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailSourceTest {
+
+    private static final String PREFIX = "thumbnail_source_test_";
+
+    /** Stands in for the hash of the downloaded image. */
+    private static final String SOURCE = ThumbnailStore.hash(new byte[] {1, 2, 3});
+
+    private static final int LINK_COUNT = 3;
+
+    private LinkProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create(PREFIX);
+    }
+
+    private static byte[] webp() {
+        Bitmap bitmap = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.WEBP, 80, bytes);
+        return bytes.toByteArray();
+    }
+
+    private void insert(int i, byte[] image) {
+        provider.insert(LinkContract.LinkEntry.CONTENT_URI, values(i, image));
+    }
+
+    private static ContentValues values(int i, byte[] image) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + i);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE, image);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_SOURCE, SOURCE);
+        return values;
+    }
+
+    private long[] stats() {
+        Cursor cursor = provider.query(LinkContract.ThumbnailEntry.STATS_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return new long[] {
+                    cursor.getLong(cursor.getColumnIndexOrThrow(LinkContract.ThumbnailEntry.STATS_THUMBNAILS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(LinkContract.ThumbnailEntry.STATS_REFERENCES)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(LinkContract.ThumbnailEntry.STATS_STORED_BYTES)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(LinkContract.ThumbnailEntry.STATS_REFERENCED_BYTES)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(LinkContract.ThumbnailEntry.STATS_SOURCES))
+            };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void sharedImageIsStoredOnce() throws IOException {
+        byte[] image = webp();
+        for (int i = 0; i < LINK_COUNT; i++) {
+            insert(i, image);
+        }
+
+        Uri uri = LinkContract.ThumbnailEntry.buildSourceUri(SOURCE);
+        assertEquals("image/webp", provider.getType(uri));
+        ParcelFileDescriptor file = provider.openFile(uri, "r");
+        try {
+            assertEquals(image.length, file.getStatSize());
+        } finally {
+            file.close();
+        }
+        assertArrayEquals(new long[] {1, LINK_COUNT, image.length, LINK_COUNT * image.length, 1}, stats());
+    }
+
+    @Test
+    public void sourceGoesWithTheLastLink() throws IOException {
+        byte[] image = webp();
+        for (int i = 0; i < LINK_COUNT; i++) {
+            insert(i, image);
+        }
+
+        provider.delete(LinkContract.LinkEntry.CONTENT_URI, LinkContract.LinkEntry.COLUMN_LINK_URL + "=?",
+                new String[] {"https://example.com/0"});
+        assertEquals(LINK_COUNT - 1, stats()[1]);
+        provider.openFile(LinkContract.ThumbnailEntry.buildSourceUri(SOURCE), "r").close();
+
+        provider.delete(LinkContract.LinkEntry.CONTENT_URI, null, null);
+        assertArrayEquals(new long[] {0, 0, 0, 0, 0}, stats());
+        try {
+            provider.openFile(LinkContract.ThumbnailEntry.buildSourceUri(SOURCE), "r");
+            fail("The source outlived its thumbnail.");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void skippedRowReleasesItsReference() throws IOException {
+        byte[] image = webp();
+        ContentValues[] rows = new ContentValues[LINK_COUNT];
+        for (int i = 0; i < LINK_COUNT; i++) {
+            rows[i] = values(i, image);
+        }
+        // Passes validation and takes its reference, then breaks the NOT NULL constraint of the date.
+        rows[1].putNull(LinkContract.LinkEntry.COLUMN_LINK_DATE);
+
+        assertEquals(LINK_COUNT - 1, provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows));
+        assertArrayEquals(new long[] {1, LINK_COUNT - 1, image.length, (LINK_COUNT - 1) * image.length, 1}, stats());
+
+        provider.delete(LinkContract.LinkEntry.CONTENT_URI, null, null);
+        assertArrayEquals(new long[] {0, 0, 0, 0, 0}, stats());
+    }
+
+    @Test
+    public void skippedOnlyRowLeavesNoThumbnail() throws IOException {
+        byte[] image = webp();
+        ContentValues row = values(0, image);
+        row.putNull(LinkContract.LinkEntry.COLUMN_LINK_DATE);
+
+        assertEquals(0, provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, new ContentValues[] {row}));
+        assertArrayEquals(new long[] {0, 0, 0, 0, 0}, stats());
+        assertFalse(new ThumbnailStore(provider.getContext()).getFile(ThumbnailStore.hash(image)).exists());
+    }
+
+    @Test
+    public void onlyUnsettledDirectoryIsSwept() throws IOException {
+        byte[] image = webp();
+        insert(0, image);
+        ThumbnailStore store = new ThumbnailStore(provider.getContext());
+        File thumbnail = store.getFile(ThumbnailStore.hash(image));
+        File stray = store.getFile(ThumbnailStore.hash(new byte[] {4, 5, 6}));
+        assertTrue(stray.createNewFile());
+        assertFalse(store.needsSweep());
+
+        // A process stopped between a write and the end of its transaction leaves no marker.
+        assertTrue(new File(thumbnail.getParentFile(), ThumbnailStore.SETTLED_MARKER_NAME).delete());
+        assertTrue(store.needsSweep());
+        LinkDbStructure helper = TestLinkProvider.openHelper(PREFIX);
+        try {
+            assertEquals(1, store.sweep(helper.getWritableDatabase()));
+        } finally {
+            helper.close();
+        }
+        assertTrue(thumbnail.exists());
+        assertFalse(stray.exists());
+        assertFalse(store.needsSweep());
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.linker.LinkPager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times the query of the first page of the list while idle, then while a 10k row {@link LinkProvider#bulkInsert} runs
+ * on another thread. With write-ahead logging the page is read from the last commit and does not wait for the write.
+ * Timings are written to logcat under the class name.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WriteContentionBenchmark {
+
+    private static final String LOG_TAG = WriteContentionBenchmark.class.getSimpleName();
+
+    /** Rows in the list before the write starts. */
+    private static final int SEED_COUNT = 1000;
+
+    private static final int WRITE_COUNT = 10000;
+
+    private static final int IDLE_QUERIES = 200;
+
+    private LinkProvider provider;
+
+    private final Uri pageUri = LinkContract.LinkEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT, String.valueOf(LinkPager.PAGE_SIZE))
+            .build();
+
+    @Before
+    public void setUp() {
+        provider = TestLinkProvider.create("write_contention_benchmark_");
+        assertEquals(SEED_COUNT, provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, rows("Seed", SEED_COUNT)));
+    }
+
+    private static ContentValues[] rows(String prefix, int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, prefix + " " + i);
+            rows[i].put(LinkContract.LinkEntry.COLUMN_LINK_URL, "https://example.com/" + prefix + "/" + i);
+        }
+        return rows;
+    }
+
+    /** Queries the first page as the list does and returns the time it took, in microseconds. */
+    private long queryPage() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        Cursor cursor = provider.query(pageUri, LinkPager.PROJECTION, LinkContract.LinkEntry.SELECTION_TOP_LEVEL, null,
+                LinkContract.LinkEntry.SORT_ORDER_TITLE);
+        try {
+            assertEquals(LinkPager.PAGE_SIZE, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+    }
+
+    private int count() {
+        Cursor cursor = provider.query(LinkContract.LinkEntry.CONTENT_URI, LinkContract.LinkEntry.PROJECTION_COUNT, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String summarize(List<Long> micros) {
+        List<Long> sorted = new ArrayList<>(micros);
+        Collections.sort(sorted);
+        return sorted.size() + " queries, p50 " + sorted.get(sorted.size() / 2) + " us, p99 "
+                + sorted.get(sorted.size() * 99 / 100) + " us, max " + sorted.get(sorted.size() - 1) + " us";
+    }
+
+    @Test
+    public void pageQueriesDoNotWaitForWrites() throws Exception {
+        List<Long> idle = new ArrayList<>();
+        for (int i = 0; i < IDLE_QUERIES; i++) {
+            idle.add(queryPage());
+        }
+
+        final ContentValues[] written = rows("Written", WRITE_COUNT);
+        final long[] writeMillis = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                provider.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, written);
+                writeMillis[0] = SystemClock.elapsedRealtime() - start;
+            }
+        });
+
+        List<Long> contended = new ArrayList<>();
+        writer.start();
+        while (writer.isAlive()) {
+            contended.add(queryPage());
+            // A reader sees the rows before the write or after it, never part of it.
+            int count = count();
+            assertTrue("Saw " + count + " rows", count == SEED_COUNT || count == SEED_COUNT + WRITE_COUNT);
+        }
+        writer.join();
+        assertEquals(SEED_COUNT + WRITE_COUNT, count());
+
+        Log.i(LOG_TAG, "Idle: " + summarize(idle));
+        Log.i(LOG_TAG, "During a " + WRITE_COUNT + " row write of " + writeMillis[0] + " ms: " + summarize(contended));
+        assertFalse(contended.isEmpty());
+        assertTrue("A query waited for the write", Collections.max(contended) / 1000 < writeMillis[0] / 2);
+    }
+}
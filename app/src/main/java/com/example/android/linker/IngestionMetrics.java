@@ -0,0 +1,182 @@
+package com.example.android.linker;
+
+import android.content.Context;
+import android.os.Trace;
+import android.util.Log;
+
+import com.example.android.linker.core.LatencyHistogram;
+import com.example.android.linker.core.LinkHttpClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Times every stage of scraping a shared link into in-process histograms, for the life of the process.
+ * The request, decode and encode stages are also {@link Trace} sections, so they line up with systrace and the
+ * profiler. Dump the histograms with {@link IngestionMetricsReceiver}.
+ */
+public final class IngestionMetrics {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = IngestionMetrics.class.getSimpleName();
+
+    /** Name of the dump written by {@link #dumpToFile(Context)}. */
+    private static final String DUMP_FILE_NAME = "ingestion_metrics.txt";
+
+    /** The stages of scraping a link. Requests are split into their connect, first byte, download and parse parts. */
+    public enum Stage {
+        /** The whole scrape of a shared link, from the cache lookup to the encoded thumbnail. */
+        TOTAL("ingest"),
+        /** Streaming the head of the page. */
+        HEAD_REQUEST("head"),
+        /** Downloading and parsing the whole page, when the head has no usable metadata. */
+        DOCUMENT_REQUEST("document"),
+        /** Downloading the thumbnail image. */
+        IMAGE_REQUEST("image"),
+        /** Resolving the host and connecting, for every request. */
+        CONNECT("connect"),
+        /** Waiting for the response headers, for every request. */
+        FIRST_BYTE("first byte"),
+        /** Reading the page body. */
+        HTML_DOWNLOAD("html download"),
+        /** Tokenizing the head of the page, between reads. */
+        HEAD_PARSE("head parse"),
+        /** Parsing the whole page with Jsoup, between reads. */
+        DOCUMENT_PARSE("document parse"),
+        /** Reading the image body. */
+        IMAGE_DOWNLOAD("image download"),
+        /** Decoding the image at thumbnail size. */
+        DECODE("decode"),
+        /** Encoding the thumbnail for the thumbnail store. */
+        ENCODE("encode");
+
+        /** Used in the dump and as the trace section name. */
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final IngestionMetrics instance = new IngestionMetrics();
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    private IngestionMetrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /** Returns the metrics of the process. */
+    public static IngestionMetrics getInstance() {
+        return instance;
+    }
+
+    /** Returns the histogram of a stage. */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Records one sample of a stage.
+     * @param stage
+     * @param nanos
+     * @param bytes Bytes read or written by the stage, or 0.
+     */
+    public void record(Stage stage, long nanos, long bytes) {
+        histograms.get(stage).record(nanos, bytes);
+    }
+
+    /**
+     * Opens the trace section of a stage. Every call must be followed by {@link #end(Stage, long, long)} on the same
+     * thread, as trace sections nest.
+     * @param stage
+     * @return long - The start time to pass to {@link #end(Stage, long, long)}.
+     */
+    public long begin(Stage stage) {
+        Trace.beginSection(stage.label);
+        return System.nanoTime();
+    }
+
+    /**
+     * Closes the trace section of a stage and records its duration.
+     * @param stage
+     * @param start Returned by {@link #begin(Stage)}.
+     * @param bytes Bytes read or written by the stage, or 0.
+     * @return long - The duration of the stage in nanoseconds.
+     */
+    public long end(Stage stage, long start, long bytes) {
+        long nanos = System.nanoTime() - start;
+        Trace.endSection();
+        record(stage, nanos, bytes);
+        return nanos;
+    }
+
+    /**
+     * Splits a finished request into its connect, first byte, download and parse stages.
+     * A 304 has no body, so only its connect and first byte stages are recorded.
+     * @param response The response, closed or not.
+     * @param requestNanos Duration of the whole request, from {@link #end(Stage, long, long)}.
+     * @param download Stage of the body reads.
+     * @param parse Stage of the work between the reads, or null when the body is only read.
+     */
+    public void recordResponse(LinkHttpClient.Response response, long requestNanos, Stage download, Stage parse) {
+        record(Stage.CONNECT, response.getConnectNanos(), 0);
+        record(Stage.FIRST_BYTE, response.getFirstByteNanos(), 0);
+        if (response.isNotModified()) {
+            return;
+        }
+        record(download, response.getReadNanos(), response.getBytesRead());
+        if (parse != null) {
+            long parseNanos = requestNanos - response.getConnectNanos() - response.getFirstByteNanos() - response.getReadNanos();
+            record(parse, Math.max(0, parseNanos), 0);
+        }
+    }
+
+    /** Drops every sample. */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /** Formats one line per stage with its percentiles and bytes. */
+    public String dump() {
+        StringBuilder dump = new StringBuilder("Ingestion stages as of ")
+                .append(DateFormat.getDateTimeInstance().format(new Date())).append('\n');
+        for (Stage stage : Stage.values()) {
+            dump.append(String.format("%-15s", stage.label)).append(histograms.get(stage)).append('\n');
+        }
+        return dump.toString();
+    }
+
+    /** Writes the dump to logcat, a line per stage. */
+    public void dumpToLog() {
+        for (String line : dump().split("\n")) {
+            Log.i(LOG_TAG, line);
+        }
+    }
+
+    /**
+     * Writes the dump to the app's external files directory, where adb can pull it without root.
+     * @param context
+     * @return File - The dump.
+     */
+    public File dumpToFile(Context context) throws IOException {
+        File directory = context.getExternalFilesDir(null);
+        File file = new File(directory != null ? directory : context.getFilesDir(), DUMP_FILE_NAME);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"))) {
+            writer.write(dump());
+        }
+        return file;
+    }
+}
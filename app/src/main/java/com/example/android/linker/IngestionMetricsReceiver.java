@@ -0,0 +1,97 @@
+package com.example.android.linker;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract.ThumbnailEntry;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Dumps the {@link IngestionMetrics} on demand, to logcat and to a file, along with the space the shared thumbnails save:
+ *
+ * adb shell am broadcast -a com.example.android.linker.action.DUMP_METRICS [--ez reset true]
+ *
+ * The receiver requires the DUMP permission, which the shell holds and other apps do not.
+ */
+public class IngestionMetricsReceiver extends BroadcastReceiver {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = IngestionMetricsReceiver.class.getSimpleName();
+
+    /** Dumps the metrics. */
+    public static final String ACTION_DUMP_METRICS = "com.example.android.linker.action.DUMP_METRICS";
+
+    /** When true, the histograms are emptied after the dump, so the next dump covers a new run. */
+    public static final String EXTRA_RESET = "reset";
+
+    /**
+     * Dumps the metrics on a thread of its own, since writing the file and querying the provider are too slow for the
+     * main thread. The broadcast is kept pending until the dump is done, so the process is not stopped halfway.
+     */
+    @Override
+    public void onReceive(Context context, final Intent intent) {
+        if (!ACTION_DUMP_METRICS.equals(intent.getAction())) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    dump(appContext, intent.getBooleanExtra(EXTRA_RESET, false));
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        }, LOG_TAG).start();
+    }
+
+    /** Dumps the metrics to logcat and to a file, then the thumbnail stats. */
+    private static void dump(Context context, boolean reset) {
+        IngestionMetrics metrics = IngestionMetrics.getInstance();
+        metrics.dumpToLog();
+        try {
+            File file = metrics.dumpToFile(context);
+            Log.i(LOG_TAG, "Wrote the metrics to " + file);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write the metrics.", e);
+        }
+        if (reset) {
+            metrics.reset();
+        }
+        logThumbnailStats(context);
+    }
+
+    /** Logs how much space the thumbnails take, against a copy of the thumbnail in every row referencing it. */
+    private static void logThumbnailStats(Context context) {
+        Cursor cursor = context.getContentResolver().query(ThumbnailEntry.STATS_URI, null, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            long thumbnails = cursor.getLong(cursor.getColumnIndexOrThrow(ThumbnailEntry.STATS_THUMBNAILS));
+            long references = cursor.getLong(cursor.getColumnIndexOrThrow(ThumbnailEntry.STATS_REFERENCES));
+            long stored = cursor.getLong(cursor.getColumnIndexOrThrow(ThumbnailEntry.STATS_STORED_BYTES));
+            long referenced = cursor.getLong(cursor.getColumnIndexOrThrow(ThumbnailEntry.STATS_REFERENCED_BYTES));
+            long sources = cursor.getLong(cursor.getColumnIndexOrThrow(ThumbnailEntry.STATS_SOURCES));
+            long saved = referenced - stored;
+            Log.i(LOG_TAG, thumbnails + " thumbnails shared by " + references + " references take " + stored
+                    + " bytes, saving " + saved + " of " + referenced + " bytes ("
+                    + (referenced == 0 ? 0 : Math.round(saved * 100.0 / referenced)) + "%), "
+                    + sources + " downloaded images known.");
+        } finally {
+            cursor.close();
+        }
+    }
+}
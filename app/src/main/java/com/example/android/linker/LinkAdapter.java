@@ -0,0 +1,162 @@
+package com.example.android.linker;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.linker.SQLdb.LinkContract;
+
+/**
+ * Binds the rows loaded by a {@link LinkPager} to a {@link RecyclerView}.
+ * Ids are stable, so a reload after a change keeps the rows that did not move in place.
+ */
+public class LinkAdapter extends RecyclerView.Adapter<LinkAdapter.LinkViewHolder> implements LinkPager.Listener {
+
+    /** Tag identifies the originating class of the log output */
+    private static final String LOG_TAG = LinkAdapter.class.getSimpleName();
+
+    /** Handles clicks on the rows. */
+    public interface OnLinkClickListener {
+        void onLinkClick(long id);
+
+        void onLinkLongClick(long id);
+    }
+
+    /** Source of the rows. */
+    private final LinkPager pager;
+
+    /** Told about clicks on the rows. */
+    private final OnLinkClickListener clickListener;
+
+    /** Decodes the thumbnails off the main thread. */
+    private final ThumbnailLoader thumbnailLoader;
+
+    /** Inflates the rows. */
+    private final LayoutInflater inflater;
+
+    /** Formats the summaries of the folders. */
+    private final Resources resources;
+
+    public LinkAdapter(Context context, LinkPager pager, OnLinkClickListener clickListener) {
+        this.pager = pager;
+        this.clickListener = clickListener;
+        thumbnailLoader = new ThumbnailLoader(context);
+        inflater = LayoutInflater.from(context);
+        resources = context.getResources();
+        setHasStableIds(true);
+    }
+
+    @Override
+    public LinkViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new LinkViewHolder(inflater.inflate(R.layout.list_item, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(LinkViewHolder holder, int position) {
+        LinkItem item = pager.getItems().get(position);
+        holder.title.setText(item.title);
+        holder.url.setText(item.type == LinkContract.LinkEntry.TYPE_FOLDER ? describeFolder(item) : item.url);
+
+        // Always rebinds the image, so a recycled row never keeps the thumbnail of the link it showed before.
+        thumbnailLoader.load(holder.image, item.imageHash, pager.getPlaceholder(item));
+        pager.onBind(position);
+    }
+
+    /**
+     * Describes the content of a folder from its aggregate columns, such as "12 links, updated 3 days ago".
+     * @param item A folder.
+     * @return CharSequence
+     */
+    private CharSequence describeFolder(LinkItem item) {
+        String links = resources.getQuantityString(R.plurals.folder_link_count, item.linkCount, item.linkCount);
+        if (item.latestDate == 0) {
+            return links;
+        }
+        CharSequence updated = DateUtils.getRelativeTimeSpanString(item.latestDate, System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS);
+        return resources.getString(R.string.folder_summary, links, updated);
+    }
+
+    /** Cancels the thumbnail decode of a row that scrolled off screen. */
+    @Override
+    public void onViewRecycled(LinkViewHolder holder) {
+        thumbnailLoader.cancel(holder.image);
+    }
+
+    @Override
+    public int getItemCount() {
+        return pager.getItems().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return pager.getItems().get(position).id;
+    }
+
+    @Override
+    public void onPageAppended(int start, int count) {
+        notifyItemRangeInserted(start, count);
+    }
+
+    @Override
+    public void onReloaded() {
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onItemInserted(int position) {
+        notifyItemInserted(position);
+    }
+
+    @Override
+    public void onItemRemoved(int position) {
+        notifyItemRemoved(position);
+    }
+
+    @Override
+    public void onItemChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    @Override
+    public void onItemMoved(int from, int to) {
+        notifyItemMoved(from, to);
+    }
+
+    /** Holds the views of a row, so they are looked up once per row rather than on every bind. */
+    class LinkViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnLongClickListener {
+        final ImageView image;
+        final TextView title;
+        final TextView url;
+
+        LinkViewHolder(View view) {
+            super(view);
+            image = view.findViewById(R.id.web_thumbnail);
+            title = view.findViewById(R.id.web_title);
+            url = view.findViewById(R.id.web_url);
+            view.setOnClickListener(this);
+            view.setOnLongClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                clickListener.onLinkClick(getItemId());
+            }
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            if (getAdapterPosition() == RecyclerView.NO_POSITION) {
+                return false;
+            }
+            clickListener.onLinkLongClick(getItemId());
+            return true;
+        }
+    }
+}
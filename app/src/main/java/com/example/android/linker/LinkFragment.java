@@ -13,14 +13,13 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.Toast;
 
 import com.example.android.linker.SQLdb.LinkContract;
@@ -36,9 +35,6 @@ public class LinkFragment extends Fragment {
     /** Unique identifier for the asynctaskloader. */
     private static final int LINK_INFO_ASYNC = 0;
 
-    /** Unique identifier for the {@link CursorLoader}. */
-    private static final int LINK_CURSOR_LOADER = 1;
-
     /** Unique identifier for the {@link android.support.v4.app.DialogFragment} that inserts data into the database. */
     public static final int INSERT_DIALOG = 0;
 
@@ -57,13 +53,13 @@ public class LinkFragment extends Fragment {
     /** Will hold the url obtained through the {@link LinkFragment.SharedText} interface. */
     private String text;
 
-    /**
-     * LinkCursorAdapter extends {@link android.widget.CursorAdapter}.
-     * It will populate our {@link ListView} with the data pointed to by the cursor.
-     */
-    private LinkCursorAdapter lCursorAdapter;
+    /** Loads the list a page at a time. */
+    private LinkPager linkPager;
+
+    /** Populates the {@link RecyclerView} with the rows loaded by the {@link #linkPager}. */
+    private LinkAdapter linkAdapter;
 
-    /** TO DO FEATURE. Interface will be used to create folder fragments. */
+    /** Interface opens a folder in a fragment of its own. */
     private ShowFolderFragment showFolderFragment;
 
     /** Interface will instantiate, initialize, and show a {@link android.support.v4.app.DialogFragment}. */
@@ -78,11 +74,33 @@ public class LinkFragment extends Fragment {
     /** Unique identifier for the {@link android.support.v4.app.DialogFragment} and it tells the dialog to fill populate field with the data from the parsed URL. */
     public static final int DISPLAY_INSERT_INFO = 1;
 
+    /** Argument holding the id of the folder listed by the fragment. Absent at the top level. */
+    private static final String ARG_FOLDER_ID = "folderId";
+
+    /** Argument of the dialog holding the folder new links are saved in. Absent at the top level. */
+    public static final String DIALOG_FOLDER_ID = "getFolderID";
+
+    /** Folder listed by the fragment, or null for the top level. */
+    private Long folderId;
+
     /** Instantiates a {@link LinkFragment}. */
     public static LinkFragment newInstance() {
         return new LinkFragment();
     }
 
+    /**
+     * Instantiates a {@link LinkFragment} listing a folder.
+     * @param folderId Id of the folder.
+     * @return LinkFragment
+     */
+    public static LinkFragment newInstance(long folderId) {
+        Bundle arguments = new Bundle();
+        arguments.putLong(ARG_FOLDER_ID, folderId);
+        LinkFragment fragment = new LinkFragment();
+        fragment.setArguments(arguments);
+        return fragment;
+    }
+
     /** Used to verify whether {@link MainActivity} has implemented these interfaces. */
     @Override
     public void onAttach(Context context) {
@@ -111,11 +129,15 @@ public class LinkFragment extends Fragment {
         }
     }
 
-    /** Loads the {@link CursorLoader}. */
+    /** Starts loading the first page of the list, showing the snapshot of the top level meanwhile. */
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        getLoaderManager().initLoader(LINK_CURSOR_LOADER, null, cursorLoader);
+        if (getArguments() != null && getArguments().containsKey(ARG_FOLDER_ID)) {
+            folderId = getArguments().getLong(ARG_FOLDER_ID);
+        }
+        linkPager = new LinkPager(sContext, folderId);
+        linkPager.start();
     }
 
     /** Creates and sets most of the UI elements. */
@@ -123,56 +145,15 @@ public class LinkFragment extends Fragment {
     @Override
     public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
 
-        lCursorAdapter = new LinkCursorAdapter(sContext, null);
-        ListView linkListView = getActivity().findViewById(R.id.fragment_list_view); //fragment_list_view is the ListView located in the fragment_layout.xml under the layout directory.
-        linkListView.setAdapter(lCursorAdapter);
-
-        /** The URL of the item is queried and used to initialize an intent to open the URL in a browser. */
-        linkListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                String[] projection = {
-                        LinkContract.LinkEntry.COLUMN_LINK_URL,
-                        LinkContract.LinkEntry.COLUMN_LINK_TITLE,
-                        LinkContract.LinkEntry.COLUMN_LINK_IMAGE,
-                };
-
-                Cursor cursor = getActivity().getContentResolver().query(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, l), projection, null, null, null);
-                String actualUrl = "";
-
-                if (cursor.moveToFirst()) {
-                    int columnUrl = cursor.getColumnIndex(LinkContract.LinkEntry.COLUMN_LINK_URL);
-                    actualUrl = cursor.getString(columnUrl);
-                }
-
-                cursor.close();
-
-                Intent viewUrl = new Intent(Intent.ACTION_VIEW, Uri.parse(actualUrl));
-                if (viewUrl.resolveActivity(sContext.getPackageManager()) != null) {
-                    startActivity(viewUrl);
-                }
-            }
-        });
-
-        /** The URL, bitmap, and URL title are queried and and used to fill in the views of the custom dialog. The dialog can either delete or update the data of the item registered.*/
-        linkListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
-            @Override
-            public boolean onItemLongClick(AdapterView<?> adapterView, View view, int i, long l) {
-                Bundle queryUpdateBundle = new Bundle();
-                queryUpdateBundle.putInt("getDialog", QUERY_UPDATE_DIALOG);
-                queryUpdateBundle.putInt("getDisplayInfo", DISPLAY_QUERY_UPDATE_INFO);
-                queryUpdateBundle.putLong("getID", l);
-                try {
-                    showDialog.showDialog(queryUpdateBundle);
-                }
-                catch(Exception e) {
-                    Toast.makeText(sContext,
-                            e.getMessage(), Toast.LENGTH_LONG)
-                            .show();
-                }
-                return true;
-            }
-        });
+        linkAdapter = new LinkAdapter(sContext, linkPager, linkClickListener);
+        linkPager.setListener(linkAdapter);
+        RecyclerView linkListView = getActivity().findViewById(R.id.fragment_list_view); //fragment_list_view is the RecyclerView located in the fragment_layout.xml under the layout directory.
+        linkListView.setLayoutManager(new LinearLayoutManager(sContext));
+        linkListView.setHasFixedSize(true);
+        linkListView.setAdapter(linkAdapter);
+        if (folderId == null) {
+            StartupMetrics.watch(getActivity(), linkListView, linkPager);
+        }
 
         /**
          * Opens a dialog. If the text variable is null, the dialog's views will be empty. The user is free to populate the EditText themselves.
@@ -190,6 +171,7 @@ public class LinkFragment extends Fragment {
                 else {
                     Bundle emptyDialogBundle = new Bundle();
                     emptyDialogBundle.putInt("getDialog", INSERT_DIALOG);
+                    putFolderId(emptyDialogBundle);
                     try {
                         showDialog.showDialog(emptyDialogBundle); // Shows an empty dialog when text is null.
                     }
@@ -205,40 +187,67 @@ public class LinkFragment extends Fragment {
         return inflater.inflate(R.layout.fragment_layout, container, false);
     }
 
-    /**
-     * The CursorLoader and CursorAdapter populates the fragment with ListViews of the database rows.
-     * It also detects whether there has been any changes in the database and updates the ListViews.
-     */
-    private LoaderManager.LoaderCallbacks<Cursor> cursorLoader = new LoaderManager.LoaderCallbacks<Cursor>() {
+    /** Stops loading pages once the fragment is gone. */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        linkPager.setListener(null);
+        linkPager.close();
+    }
 
+    /** Handles clicks on the rows of the list. */
+    private LinkAdapter.OnLinkClickListener linkClickListener = new LinkAdapter.OnLinkClickListener() {
+
+        /**
+         * The URL of the item is queried and used to initialize an intent to open the URL in a browser.
+         * A folder is opened in a fragment of its own instead.
+         */
         @Override
-        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        public void onLinkClick(long id) {
             String[] projection = {
-                    LinkContract.LinkEntry._ID,
                     LinkContract.LinkEntry.COLUMN_LINK_URL,
                     LinkContract.LinkEntry.COLUMN_LINK_TITLE,
-                    LinkContract.LinkEntry.COLUMN_LINK_IMAGE,
                     LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE,
-                    LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID
             };
 
-            return new CursorLoader( //Returns a cursor pointing to the data requested.
-                    sContext,
-                    LinkContract.LinkEntry.CONTENT_URI,
-                    projection,
-                    null,
-                    null,
-                    LinkContract.LinkEntry.COLUMN_LINK_TITLE);
-        }
+            Cursor cursor = getActivity().getContentResolver().query(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, id), projection, null, null, null);
+            String actualUrl = "";
+            int dataType = LinkContract.LinkEntry.TYPE_LINK;
 
-        @Override
-        public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-            lCursorAdapter.swapCursor(data); //Populates the CursorAdapter with the cursor returned from OnCreateLoader.
+            if (cursor.moveToFirst()) {
+                int columnUrl = cursor.getColumnIndex(LinkContract.LinkEntry.COLUMN_LINK_URL);
+                actualUrl = cursor.getString(columnUrl);
+                dataType = cursor.getInt(cursor.getColumnIndex(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE));
+            }
+
+            cursor.close();
+
+            if (dataType == LinkContract.LinkEntry.TYPE_FOLDER) {
+                showFolderFragment.showFolderFragment(id);
+                return;
+            }
+
+            Intent viewUrl = new Intent(Intent.ACTION_VIEW, Uri.parse(actualUrl));
+            if (viewUrl.resolveActivity(sContext.getPackageManager()) != null) {
+                startActivity(viewUrl);
+            }
         }
 
+        /** The URL, bitmap, and URL title are queried and and used to fill in the views of the custom dialog. The dialog can either delete or update the data of the item registered.*/
         @Override
-        public void onLoaderReset(Loader<Cursor> loader) {
-            lCursorAdapter.swapCursor(null); //Dereferences the cursor.
+        public void onLinkLongClick(long id) {
+            Bundle queryUpdateBundle = new Bundle();
+            queryUpdateBundle.putInt("getDialog", QUERY_UPDATE_DIALOG);
+            queryUpdateBundle.putInt("getDisplayInfo", DISPLAY_QUERY_UPDATE_INFO);
+            queryUpdateBundle.putLong("getID", id);
+            try {
+                showDialog.showDialog(queryUpdateBundle);
+            }
+            catch(Exception e) {
+                Toast.makeText(sContext,
+                        e.getMessage(), Toast.LENGTH_LONG)
+                        .show();
+            }
         }
     };
 
@@ -255,11 +264,16 @@ public class LinkFragment extends Fragment {
 
             if (data.getImageBlob() != null) {
                 loaderBundle.putByteArray("getByteArray", data.getImageBlob());
+                loaderBundle.putString("getImageSource", data.getImageSource());
             }
             loaderBundle.putString("getTitle", data.getTitle());
             loaderBundle.putString("getUrl", data.getUrl());
             loaderBundle.putInt("getDialog", INSERT_DIALOG); // This is a dialog that will only enter data into the database.
             loaderBundle.putInt("getDisplayInfo", DISPLAY_INSERT_INFO); // Signals for a dialog populated with the parsed data.
+            putFolderId(loaderBundle);
+            if (data.isPartial()) {
+                Toast.makeText(sContext, R.string.link_info_partial, Toast.LENGTH_SHORT).show();
+            }
 
             /** Opens a dialog with the data in another thread. Temporary solution until I create an AsyncTask. */
             handler = new Handler() {
@@ -288,6 +302,13 @@ public class LinkFragment extends Fragment {
         }
     };
 
+    /** Saves the links of the insert dialog in the folder listed by the fragment. */
+    private void putFolderId(Bundle dialogBundle) {
+        if (folderId != null) {
+            dialogBundle.putLong(DIALOG_FOLDER_ID, folderId);
+        }
+    }
+
     public interface ShowFolderFragment {
         void showFolderFragment(long id);
     }
@@ -0,0 +1,158 @@
+package com.example.android.linker;
+
+import android.app.IntentService;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.ClipData;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.linker.core.UrlExtractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a bulk import of shared links outside the activity, reporting its progress in a notification.
+ */
+public class LinkImportService extends IntentService {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = LinkImportService.class.getSimpleName();
+
+    /** Text or HTML holding the links to import. */
+    public static final String EXTRA_PAYLOAD = "com.example.android.linker.extra.PAYLOAD";
+
+    /** Identifies the notification channel of the import. */
+    private static final String CHANNEL_ID = "import";
+
+    /** Identifies the import notification. */
+    private static final int NOTIFICATION_ID = 1;
+
+    /** Shared files larger than this are not read. */
+    private static final int MAX_STREAM_BYTES = 4 * 1024 * 1024;
+
+    /** The notification is updated at most this often, in milliseconds. */
+    private static final long PROGRESS_INTERVAL = 500;
+
+    public LinkImportService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts an import of the links found in the payload and the files.
+     * @param context
+     * @param payload Text or HTML, may be null.
+     * @param streams Shared files, may be null. They go in the clip data of the intent, the only place the read grant
+     *                applies to, so the service keeps its own grant after the activity is destroyed.
+     */
+    public static void start(Context context, String payload, ArrayList<Uri> streams) {
+        Intent intent = new Intent(context, LinkImportService.class);
+        intent.putExtra(EXTRA_PAYLOAD, payload);
+        if (streams != null && !streams.isEmpty()) {
+            ClipData clip = ClipData.newRawUri(null, streams.get(0));
+            for (int i = 1; i < streams.size(); i++) {
+                clip.addItem(new ClipData.Item(streams.get(i)));
+            }
+            intent.setClipData(clip);
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+
+        StringBuilder payload = new StringBuilder();
+        if (intent.getStringExtra(EXTRA_PAYLOAD) != null) {
+            payload.append(intent.getStringExtra(EXTRA_PAYLOAD));
+        }
+        ClipData streams = intent.getClipData();
+        if (streams != null) {
+            for (int i = 0; i < streams.getItemCount(); i++) {
+                Uri stream = streams.getItemAt(i).getUri();
+                if (stream != null) {
+                    payload.append('\n').append(readStream(stream));
+                }
+            }
+        }
+
+        List<String> urls = UrlExtractor.extractUrls(payload.toString());
+        if (urls.isEmpty()) {
+            return;
+        }
+
+        final NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.import_channel), NotificationManager.IMPORTANCE_LOW));
+        }
+        final NotificationCompat.Builder notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_language)
+                .setContentTitle(getString(R.string.import_title))
+                .setOngoing(true)
+                .setProgress(urls.size(), 0, false);
+        notificationManager.notify(NOTIFICATION_ID, notification.build());
+
+        ThumbnailEncoder encoder = new ThumbnailEncoder(getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
+        LinkImporter.Result result = new LinkImporter(getContentResolver(), encoder, new MetadataCache(this)).run(urls, new LinkImporter.ProgressListener() {
+            private long lastUpdate;
+
+            @Override
+            public void onProgress(int done, int total) {
+                long now = System.currentTimeMillis();
+                if (done == total || now - lastUpdate >= PROGRESS_INTERVAL) {
+                    lastUpdate = now;
+                    notificationManager.notify(NOTIFICATION_ID, notification
+                            .setContentText(getString(R.string.import_progress, done, total))
+                            .setProgress(total, done, false)
+                            .build());
+                }
+            }
+        });
+
+        notificationManager.notify(NOTIFICATION_ID, notification
+                .setOngoing(false)
+                .setProgress(0, 0, false)
+                .setContentText(getString(R.string.import_done, result.imported, result.getLinksPerSecond()))
+                .build());
+    }
+
+    /**
+     * Reads a shared file as text.
+     * @param stream
+     * @return String - The contents, or an empty string if the file cannot be read or is too large.
+     */
+    private String readStream(Uri stream) {
+        try (InputStream input = getContentResolver().openInputStream(stream)) {
+            if (input == null) {
+                return "";
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+                if (bytes.size() > MAX_STREAM_BYTES) {
+                    Log.w(LOG_TAG, "Skipping " + stream + ", it is larger than " + MAX_STREAM_BYTES + " bytes.");
+                    return "";
+                }
+            }
+            return new String(bytes.toByteArray(), Charset.forName("UTF-8"));
+        } catch (IOException | SecurityException e) {
+            Log.w(LOG_TAG, "Unable to read " + stream, e);
+            return "";
+        }
+    }
+}
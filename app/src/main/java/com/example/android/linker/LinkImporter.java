@@ -0,0 +1,163 @@
+package com.example.android.linker;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract;
+import com.example.android.linker.core.UrlValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports many links at once. Metadata is fetched by a bounded pool of workers and the rows are written in batches.
+ */
+public class LinkImporter {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = LinkImporter.class.getSimpleName();
+
+    /** Number of links fetched at the same time. */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** Number of rows written per batch. */
+    public static final int DEFAULT_BATCH_SIZE = 25;
+
+    /** Reports the import as it goes. */
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    /** Writes the imported rows. */
+    private final ContentResolver resolver;
+
+    /** Sizes the thumbnails to the list item. */
+    private final ThumbnailEncoder encoder;
+
+    /** Skips or shortens the fetch of pages scraped before. May be null. */
+    private final MetadataCache metadataCache;
+
+    /** Number of links fetched at the same time. */
+    private final int parallelism;
+
+    /** Number of rows written per batch. */
+    private final int batchSize;
+
+    public LinkImporter(ContentResolver resolver, ThumbnailEncoder encoder, MetadataCache metadataCache) {
+        this(resolver, encoder, metadataCache, DEFAULT_PARALLELISM, DEFAULT_BATCH_SIZE);
+    }
+
+    public LinkImporter(ContentResolver resolver, ThumbnailEncoder encoder, MetadataCache metadataCache, int parallelism, int batchSize) {
+        this.resolver = resolver;
+        this.encoder = encoder;
+        this.metadataCache = metadataCache;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Fetches the metadata of every URL and writes the links.
+     * @param urls
+     * @param listener Called on the calling thread after every link.
+     * @return Result - Counts and throughput of the import.
+     */
+    public Result run(List<String> urls, ProgressListener listener) {
+        long start = SystemClock.elapsedRealtime();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        CompletionService<ContentValues> completionService = new ExecutorCompletionService<>(pool);
+        Result result = new Result();
+
+        int submitted = 0;
+        for (final String url : urls) {
+            if (!UrlValidator.isValid(url)) {
+                result.failed++;
+                continue;
+            }
+            completionService.submit(new Callable<ContentValues>() {
+                @Override
+                public ContentValues call() {
+                    return toContentValues(new LinkInfo(url, encoder, metadataCache));
+                }
+            });
+            submitted++;
+        }
+
+        List<ContentValues> batch = new ArrayList<>(batchSize);
+        try {
+            for (int i = 0; i < submitted; i++) {
+                try {
+                    batch.add(completionService.take().get());
+                } catch (ExecutionException e) {
+                    Log.w(LOG_TAG, "Unable to fetch a link.", e.getCause());
+                    result.failed++;
+                }
+                if (batch.size() == batchSize) {
+                    write(batch, result);
+                }
+                listener.onProgress(result.imported + result.failed + batch.size(), urls.size());
+            }
+            write(batch, result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Imported " + result.imported + " links, " + result.failed + " failed, in "
+                + result.elapsedMillis + " ms (" + result.getLinksPerSecond() + " links/sec).");
+        if (metadataCache != null) {
+            Log.i(LOG_TAG, "Metadata cache: " + metadataCache.getStats());
+        }
+        return result;
+    }
+
+    /** Writes the batch and empties it. The rows the provider skips count as failed. */
+    private void write(List<ContentValues> batch, Result result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int inserted = resolver.bulkInsert(LinkContract.LinkEntry.CONTENT_URI, batch.toArray(new ContentValues[batch.size()]));
+        result.imported += inserted;
+        result.failed += batch.size() - inserted;
+        batch.clear();
+    }
+
+    /** Converts the fetched metadata into a row of the link table. */
+    private static ContentValues toContentValues(LinkInfo info) {
+        ContentValues values = new ContentValues();
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, LinkContract.LinkEntry.TYPE_LINK);
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, info.getTitle());
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_SCRAPED_TITLE, info.getTitle());
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, info.getUrl());
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE, info.getImageBlob());
+        values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_SOURCE, info.getImageSource());
+        return values;
+    }
+
+    /** Outcome of an import. */
+    public static class Result {
+
+        /** Links written to the database. */
+        public int imported;
+
+        /** Links that were invalid or could not be written. */
+        public int failed;
+
+        /** Wall time of the import. */
+        public long elapsedMillis;
+
+        /** Returns the number of links imported per second. */
+        public double getLinksPerSecond() {
+            return elapsedMillis == 0 ? 0 : imported * 1000.0 / elapsedMillis;
+        }
+    }
+}
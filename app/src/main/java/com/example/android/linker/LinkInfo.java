@@ -2,17 +2,21 @@ package com.example.android.linker;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
+
+import com.example.android.linker.SQLdb.ThumbnailStore;
+import com.example.android.linker.core.Deadline;
+import com.example.android.linker.core.DocumentMetadataExtractor;
+import com.example.android.linker.core.HeadMetadataExtractor;
+import com.example.android.linker.core.LinkHttpClient;
+import com.example.android.linker.core.RecordingInputStream;
+import com.example.android.linker.core.UrlExtractor;
+import com.example.android.linker.core.UrlNormalizer;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.Map;
 import android.util.Log;
 
 /**
@@ -38,40 +42,87 @@ public class LinkInfo {
     /** Holds the converted bitmap. */
     private Bitmap myBitmap;
 
+    /** Decodes the downloaded image at thumbnail size and encodes the thumbnail. */
+    private ThumbnailEncoder encoder;
+
+    /** Remembers scraped pages between shares. May be null. */
+    private MetadataCache metadataCache;
+
+    /** Validators of the page response, kept to cache the page. */
+    private MetadataCache.Validators validators;
+
+    /** Url of the image the thumbnail was made from. */
+    private String imageUrl;
+
+    /** Hash of the downloaded image bytes the thumbnail was made from. Null when the image was not downloaded. */
+    private String imageSource;
+
+    /** Bytes downloaded for the page and its image. */
+    private long bytesDownloaded;
+
+    /** Set when a conditional request found the cached page unchanged. */
+    private boolean notModified;
+
+    /** Whether the page and image were fetched in full without errors, rather than served by the {@link #metadataCache}. */
+    private boolean fetchedInFull;
+
+    /** Bounds the whole scrape and cancels it from another thread. */
+    private Deadline deadline;
+
+    /** Set when the deadline passed or the scrape was cancelled before every stage was over. */
+    private boolean partial;
+
+    /** Times each stage of the scrape. */
+    private final IngestionMetrics metrics = IngestionMetrics.getInstance();
+
+    /** Images larger than this are not downloaded. */
+    private static final int MAX_IMAGE_BYTES = 8 * 1024 * 1024;
+
     /** Used as a check to verify whether the data string had to be tokenized and a proper URL extracted. */
     boolean hasURLBeenParsed = false;
 
     /**
      * Text is first parsed for a URL, then parsed for the URL title and thumbnail, then converted to a byte array.
      * @param data
+     * @param encoder Decodes and encodes the thumbnail at the list item size.
+     * @param metadataCache Serves pages scraped before and caches new ones. May be null.
      */
-    public LinkInfo(String data){
+    public LinkInfo(String data, ThumbnailEncoder encoder, MetadataCache metadataCache){
+        this(data, encoder, metadataCache, Deadline.none());
+    }
+
+    /**
+     * Same as {@link #LinkInfo(String, ThumbnailEncoder, MetadataCache)}, but every stage stops once the deadline passes
+     * or is cancelled. What was fetched by then is kept, such as the title without the thumbnail.
+     * @param data
+     * @param encoder Decodes and encodes the thumbnail at the list item size.
+     * @param metadataCache Serves pages scraped before and caches new ones. May be null.
+     * @param deadline Bounds every request, read, decode and encode of the scrape.
+     */
+    public LinkInfo(String data, ThumbnailEncoder encoder, MetadataCache metadataCache, Deadline deadline){
         passedData = data;
-        convertToByte(linkParser(textParser(passedData)));
+        this.encoder = encoder;
+        this.metadataCache = metadataCache;
+        this.deadline = deadline;
+        long start = metrics.begin(IngestionMetrics.Stage.TOTAL);
+        try {
+            convertToByte(linkParser(textParser(passedData)));
+            cacheMetadata();
+        } finally {
+            metrics.end(IngestionMetrics.Stage.TOTAL, start, bytesDownloaded);
+        }
     }
 
     /**
-     * Tokenize the string and extract the token that is a URL.
+     * Extracts the first URL of the text.
      * @param data The constructor argument.
-     * @return String - A url if pattern matching is successful, or the original argument if it fails.
+     * @return String - The URL if one is found, or the original argument otherwise.
      */
     private String textParser(String data) {
-        url = data;
-        StringTokenizer string = new StringTokenizer(data, " \"\n"); // Tokenize the String in an attempt to remove quotation marks.
-
-        while(string.hasMoreTokens()) {
-            String str = string.nextToken();
-            Pattern pattern = Pattern.compile("www.*|http.*");
-            Matcher match = pattern.matcher(str); // Makes sure the URL starts with either www or http.
-
-            if (match.matches()) {
-                url = str;
-                hasURLBeenParsed = true;
-            }
-
-            if (!url.startsWith("http://") && !url.startsWith("https://")) {
-                url = "https://" + url;
-            }
+        url = UrlExtractor.extractFirstUrl(data);
+        hasURLBeenParsed = url != null;
+        if (url == null) {
+            url = data;
         }
         return url;
     }
@@ -85,54 +136,253 @@ public class LinkInfo {
         String imageUrl = "";
 
         /**
-         * If the URL equals passedData, than that means pattern matching failed in {@link LinkInfo#textParser(String)} and the constructor argument, data, holds no URL.
+         * If the URL equals passedData, than that means {@link LinkInfo#textParser(String)} found no URL in the constructor argument, data.
          * There is no need for HTML parsing at this point.
          */
         if (hasURLBeenParsed) {
-            try {
-
-                Document doc = Jsoup.connect(url).timeout(10000).get();
-                title = doc.title();
+            MetadataCache.Entry cached = metadataCache != null ? metadataCache.get(UrlNormalizer.normalize(url)) : null;
+            if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+                useCached(cached);
+                metadataCache.recordHit(cached);
+                return null;
+            }
 
-                Element image = doc.select("meta[property=og:image]").first(); //Uses Open Graph Protocol.
-                if (image != null) {
-                    imageUrl = image.attr("content");
-                    if (imageUrl.equals("")) {
-                        image = doc.select("img[src~=.*(png|jpe?g).*]").first(); //Searches in the img element for any text that ends in png, jpg, or jpeg.
-                        imageUrl = image.attr("abs:src");
-                        imageUrl = imageUrl.replace("&amp;", "&");
-                    }
+            try {
+                HeadMetadataExtractor.Metadata head = headParser(url, cached);
+                if (head != null) {
+                    title = head.title;
+                    imageUrl = head.imageUrl != null ? head.imageUrl : "";
+                } else if (!notModified) {
+                    // The head request failed, the page is requested again in full.
+                    imageUrl = documentParser(url, cached);
+                }
+                if (notModified) {
+                    // The cached title and thumbnail are still current.
+                    useCached(cached);
+                    metadataCache.revalidated(cached, validators);
+                    return null;
                 }
-                if (!imageUrl.startsWith("http://") && !imageUrl.startsWith("https://")) {
+
+                if (!imageUrl.equals("") && !imageUrl.startsWith("http://") && !imageUrl.startsWith("https://")) {
                     imageUrl = "https://" + imageUrl;
                 }
 
                 if (!imageUrl.equals("")) {
-                    URL sUrl = new URL(imageUrl);
-                    HttpURLConnection connection = (HttpURLConnection) sUrl.openConnection();
-                    connection.setDoInput(true);
-                    connection.connect();
-
-                    InputStream input = connection.getInputStream();
-                    myBitmap = BitmapFactory.decodeStream(input);
+                    byte[] source = imageParser(imageUrl);
+                    this.imageUrl = imageUrl;
+                    if (source != null) {
+                        imageSource = ThumbnailStore.hash(source);
+                        blob = metadataCache != null ? metadataCache.readThumbnailOfSource(imageSource) : null;
+                    }
+                    if (blob != null) {
+                        // Another link shares the image, such as the logo of the site, and its thumbnail is reused.
+                        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                            Log.d(LOG_TAG, "Reused the thumbnail of " + source.length + " image bytes for " + url);
+                        }
+                    } else if (source != null) {
+                        deadline.check();
+                        long start = metrics.begin(IngestionMetrics.Stage.DECODE);
+                        try {
+                            myBitmap = encoder.decode(source);
+                        } finally {
+                            metrics.end(IngestionMetrics.Stage.DECODE, start, source.length);
+                        }
+                        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                            Log.d(LOG_TAG, "Downloaded " + source.length + " image bytes for " + url);
+                        }
+                    }
                 }
+                fetchedInFull = true;
             } catch (IOException e) {
+                if (deadline.isDone()) {
+                    partial = true;
+                    Log.i(LOG_TAG, "Stopped scraping " + url + (deadline.isCancelled() ? " on cancel." : " at the deadline."));
+                } else {
                     e.printStackTrace();
+                }
             }
         }
         return myBitmap;
     }
 
     /**
-     * Takes bitmap and converts it to a byte array in order to be inserted into the database.
-     * Temporary measure. Will replace method with one that saves the bitmap to disk and passes filepath to the database.
+     * Streams the head of the page and stops reading as soon as the head is over.
+     * When the head lacks a title or thumbnail, the same response is parsed in full instead, from its first byte, so a
+     * page without metadata in its head is still downloaded only once.
+     * When the page is cached, the request is conditional and the validators are set without reading anything on a 304.
+     * @param url The matched URL.
+     * @param cached Cached entry of the page, may be null.
+     * @return Metadata - The title and thumbnail URL found, or null on a 304 or if the page could not be opened.
+     */
+    private HeadMetadataExtractor.Metadata headParser(String url, MetadataCache.Entry cached) {
+        Map<String, String> headers = cached != null ? cached.getConditionalHeaders() : Collections.<String, String>emptyMap();
+        long start = metrics.begin(IngestionMetrics.Stage.HEAD_REQUEST);
+        LinkHttpClient.Response timed = null;
+        boolean wholeDocument = false;
+        try (LinkHttpClient.Response response = LinkHttpClient.getInstance().get(url, headers, deadline)) {
+            timed = response;
+            validators = MetadataCache.Validators.from(response);
+            if (response.isNotModified()) {
+                notModified = cached != null;
+                if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                    Log.d(LOG_TAG, "Not modified since cached: " + url);
+                }
+                return null;
+            }
+            RecordingInputStream body = new RecordingInputStream(response.getBody());
+            HeadMetadataExtractor.Metadata head = new HeadMetadataExtractor().extract(body, response.getCharset(), response.getUrl());
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, "Read " + head.bytesRead + " bytes of the head of " + url);
+            }
+            if (!head.isUsable()) {
+                wholeDocument = true;
+                HeadMetadataExtractor.Metadata document = new DocumentMetadataExtractor().extract(body.replay(), response.getCharset(), response.getUrl());
+                if (!document.title.isEmpty() || head.title == null) {
+                    head.title = document.title;
+                }
+                if (head.imageUrl == null) {
+                    head.imageUrl = document.imageUrl;
+                }
+            }
+            bytesDownloaded += response.getBytesRead();
+            return head;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to stream the head of " + url, e);
+            return null;
+        } finally {
+            long nanos = metrics.end(IngestionMetrics.Stage.HEAD_REQUEST, start, timed != null ? timed.getBytesRead() : 0);
+            if (timed != null) {
+                metrics.recordResponse(timed, nanos, IngestionMetrics.Stage.HTML_DOWNLOAD,
+                        wholeDocument ? IngestionMetrics.Stage.DOCUMENT_PARSE : IngestionMetrics.Stage.HEAD_PARSE);
+            }
+        }
+    }
+
+    /**
+     * Fallback for a page whose head request failed. Downloads and parses the whole page.
+     * When the page is cached, the request is conditional like the head request, and a 304 sets {@link #notModified}.
+     * @param url The matched URL.
+     * @param cached Cached entry of the page, may be null.
+     * @return String - The thumbnail URL, or an empty string if none was found or on a 304. The title is initialized as well.
+     */
+    private String documentParser(String url, MetadataCache.Entry cached) throws IOException {
+        Map<String, String> headers = cached != null ? cached.getConditionalHeaders() : Collections.<String, String>emptyMap();
+        HeadMetadataExtractor.Metadata document;
+        long start = metrics.begin(IngestionMetrics.Stage.DOCUMENT_REQUEST);
+        LinkHttpClient.Response timed = null;
+        try (LinkHttpClient.Response response = LinkHttpClient.getInstance().get(url, headers, deadline)) {
+            timed = response;
+            validators = MetadataCache.Validators.from(response);
+            if (response.isNotModified()) {
+                notModified = cached != null;
+                if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                    Log.d(LOG_TAG, "Not modified since cached: " + url);
+                }
+                return "";
+            }
+            document = new DocumentMetadataExtractor().extract(response.getBody(), response.getCharset(), response.getUrl());
+            bytesDownloaded += response.getBytesRead();
+        } finally {
+            long nanos = metrics.end(IngestionMetrics.Stage.DOCUMENT_REQUEST, start, timed != null ? timed.getBytesRead() : 0);
+            if (timed != null) {
+                metrics.recordResponse(timed, nanos, IngestionMetrics.Stage.HTML_DOWNLOAD, IngestionMetrics.Stage.DOCUMENT_PARSE);
+            }
+        }
+        if (!document.title.isEmpty() || title == null) {
+            title = document.title;
+        }
+        return document.imageUrl;
+    }
+
+    /**
+     * Downloads the thumbnail image.
+     * @param imageUrl
+     * @return byte[] - The image bytes, or null if the image exceeds {@link #MAX_IMAGE_BYTES}.
+     */
+    private byte[] imageParser(String imageUrl) throws IOException {
+        long start = metrics.begin(IngestionMetrics.Stage.IMAGE_REQUEST);
+        LinkHttpClient.Response timed = null;
+        try (LinkHttpClient.Response response = LinkHttpClient.getInstance().get(imageUrl, Collections.<String, String>emptyMap(), deadline)) {
+            timed = response;
+            byte[] source = readImage(response.getBody());
+            bytesDownloaded += response.getBytesRead();
+            return source;
+        } finally {
+            long nanos = metrics.end(IngestionMetrics.Stage.IMAGE_REQUEST, start, timed != null ? timed.getBytesRead() : 0);
+            if (timed != null) {
+                metrics.recordResponse(timed, nanos, IngestionMetrics.Stage.IMAGE_DOWNLOAD, null);
+            }
+        }
+    }
+
+    /**
+     * Takes the title and thumbnail from a cached page instead of fetching it.
+     * @param cached
+     */
+    private void useCached(MetadataCache.Entry cached) {
+        title = cached.title;
+        imageUrl = cached.imageUrl;
+        blob = metadataCache.readThumbnail(cached);
+    }
+
+    /**
+     * Caches a page fetched in full, as long as its response allows a later fetch to be skipped or made conditional.
+     */
+    private void cacheMetadata() {
+        if (metadataCache == null || !fetchedInFull) {
+            return;
+        }
+        metadataCache.recordMiss();
+        if (validators != null && validators.noStore) {
+            // A copy kept from before the server forbade storing the page goes as well.
+            metadataCache.remove(UrlNormalizer.normalize(url));
+            return;
+        }
+        if (validators != null && (validators.etag != null || validators.lastModified != null || validators.maxAge > 0)) {
+            metadataCache.put(UrlNormalizer.normalize(url), title, imageUrl, blob, imageSource, validators, bytesDownloaded);
+        }
+    }
+
+    /**
+     * Reads the whole image into memory so its bounds can be decoded before the pixels.
+     * @param input
+     * @return byte[] - The image bytes, or null if the image exceeds {@link #MAX_IMAGE_BYTES}.
+     */
+    private byte[] readImage(InputStream input) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            stream.write(buffer, 0, read);
+            if (stream.size() > MAX_IMAGE_BYTES) {
+                Log.w(LOG_TAG, "Skipping image larger than " + MAX_IMAGE_BYTES + " bytes.");
+                return null;
+            }
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Takes bitmap and converts it to a byte array in order to be handed to the {@link com.example.android.linker.SQLdb.LinkProvider}.
+     * The provider writes the bytes to the {@link com.example.android.linker.SQLdb.ThumbnailStore} and only keeps their hash.
+     * A decoded thumbnail is still encoded past the deadline, as that is quick and the dialog can show it, but not once cancelled.
      * @param myBitmap
      */
     private void convertToByte(Bitmap myBitmap) {
+        if (myBitmap != null && deadline.isCancelled()) {
+            partial = true;
+            return;
+        }
         if (myBitmap!=null) {
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            myBitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-            blob = stream.toByteArray();
+            long start = metrics.begin(IngestionMetrics.Stage.ENCODE);
+            try {
+                blob = encoder.encode(myBitmap);
+            } finally {
+                metrics.end(IngestionMetrics.Stage.ENCODE, start, blob != null ? blob.length : 0);
+            }
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, "Stored a " + myBitmap.getWidth() + "x" + myBitmap.getHeight() + " thumbnail in " + blob.length + " bytes.");
+            }
         }
     }
 
@@ -156,6 +406,11 @@ public class LinkInfo {
         return blob;
     }
 
+    /** Returns the hash of the downloaded image the thumbnail was made from, or null when it was not downloaded. */
+    public String getImageSource() {
+        return imageSource;
+    }
+
     /** Returns the URL title. */
     public String getTitle() {
         return title;
@@ -165,6 +420,11 @@ public class LinkInfo {
     public Bitmap getBitmap() {
         return myBitmap;
     }
+
+    /** Returns whether the scrape stopped at the deadline or on cancel, so the title or thumbnail may be missing. */
+    public boolean isPartial() {
+        return partial;
+    }
 }
 
 
@@ -104,8 +104,14 @@ public class LinkInfoDialogFragment extends DialogFragment {
                             // Insert the contents of the dialog field into the database.
                             values.put(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE, num); // TO DO. Used when folders are added.
                             values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, ((EditText) alertDialog.findViewById(R.id.edit_web_title)).getText().toString());
+                            // The title of the page as scraped, so the refresh can tell whether the user edited it.
+                            values.put(LinkContract.LinkEntry.COLUMN_LINK_SCRAPED_TITLE, getArguments().getString("getTitle"));
                             values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, urlFix);
                             values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE, getArguments().getByteArray("getByteArray"));
+                            values.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_SOURCE, getArguments().getString("getImageSource"));
+                            if (getArguments().containsKey(LinkFragment.DIALOG_FOLDER_ID)) {
+                                values.put(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID, getArguments().getLong(LinkFragment.DIALOG_FOLDER_ID));
+                            }
 
                             try {
                                 getActivity().getContentResolver().insert(LinkContract.LinkEntry.CONTENT_URI, values);
@@ -154,6 +160,8 @@ public class LinkInfoDialogFragment extends DialogFragment {
                             ContentValues values = new ContentValues();
                             values.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, ((EditText) alertDialog.findViewById(R.id.edit_web_title)).getText().toString());
                             values.put(LinkContract.LinkEntry.COLUMN_LINK_URL, ((EditText) alertDialog.findViewById(R.id.edit_web_url)).getText().toString());
+                            // Marks the folders above as updated.
+                            values.put(LinkContract.LinkEntry.COLUMN_LINK_DATE, System.currentTimeMillis());
 
                             try {
                                 getActivity().getContentResolver().update(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, getArguments().getLong("getID")), values, null, null);
@@ -239,21 +247,21 @@ public class LinkInfoDialogFragment extends DialogFragment {
             String[] projection = {
                     LinkContract.LinkEntry.COLUMN_LINK_URL,
                     LinkContract.LinkEntry.COLUMN_LINK_TITLE,
-                    LinkContract.LinkEntry.COLUMN_LINK_IMAGE,
+                    LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH,
             };
             Cursor cursor = getActivity().getContentResolver().query(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, getArguments().getLong("getID")), projection, null, null, null);
 
             if (cursor.moveToFirst()) {
-                int columnImage = cursor.getColumnIndex(LinkContract.LinkEntry.COLUMN_LINK_IMAGE);
+                int columnImage = cursor.getColumnIndex(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH);
                 int columnTitle = cursor.getColumnIndex(LinkContract.LinkEntry.COLUMN_LINK_TITLE);
                 int columnUrl = cursor.getColumnIndex(LinkContract.LinkEntry.COLUMN_LINK_URL);
 
-                byte[] byteImage = cursor.getBlob(columnImage);
+                boolean hasImage = !cursor.isNull(columnImage);
                 String urlTitle = cursor.getString(columnTitle);
                 String actualUrl = cursor.getString(columnUrl);
 
-                if(byteImage != null) {
-                    dialogThumbnail.setImageBitmap(LinkInfo.convertToBitmap(byteImage));
+                if(hasImage) {
+                    dialogThumbnail.setImageURI(LinkContract.LinkEntry.buildThumbnailUri(getArguments().getLong("getID")));
                 }
                 cursor.close();
                 dialogTitle.setText(urlTitle);
@@ -4,30 +4,79 @@ import android.content.Context;
 import android.support.v4.content.AsyncTaskLoader;
 import android.util.Log;
 
+import com.example.android.linker.core.Deadline;
+
 /**
  * LinkInfo's network connection needs to be done in a background thread so we extend the {@link AsyncTaskLoader}.
+ * The scrape is bounded by {@link #DEADLINE}, so the save dialog opens in time with whatever was fetched, and it is
+ * cancelled along with the load, such as when the user leaves the screen.
  */
 public class LinkInfoTask extends AsyncTaskLoader<LinkInfo> {
 
     /** Tag identifies the originating class of the log output. */
     public static final String LOG_TAG = LinkInfoTask.class.getSimpleName();
 
+    /** Time allowed from the share to the save dialog, in milliseconds. */
+    private static final long DEADLINE = 5000;
+
     /** Will hold the string received through the {@link LinkFragment#sharedUrl} interface. */
     private String text;
 
+    /** Sizes the thumbnail to the list item. */
+    private ThumbnailEncoder encoder;
+
+    /** Skips or shortens the fetch of pages scraped before. */
+    private MetadataCache metadataCache;
+
+    /** Deadline of the load in progress, cancelled by {@link #cancelLoadInBackground()}. */
+    private volatile Deadline deadline;
+
     public LinkInfoTask(Context context, String data) {
         super(context);
         text = data;
+        encoder = new ThumbnailEncoder(context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
+        metadataCache = new MetadataCache(context);
     }
 
     /** {@link com.example.android.linker.LinkInfo} is performed in the background. */
     @Override
     public LinkInfo loadInBackground() {
-        return new LinkInfo(text);
+        Deadline deadline = Deadline.after(DEADLINE);
+        this.deadline = deadline;
+        try {
+            // A cancel may have come before the deadline was published.
+            if (isLoadInBackgroundCanceled()) {
+                deadline.cancel();
+            }
+            return new LinkInfo(text, encoder, metadataCache, deadline);
+        } finally {
+            deadline.finish();
+            this.deadline = null;
+        }
+    }
+
+    /** Aborts the request in flight, so the worker thread is free right away rather than after the request times out. */
+    @Override
+    public void cancelLoadInBackground() {
+        Deadline deadline = this.deadline;
+        if (deadline != null) {
+            Log.d(LOG_TAG, "Cancelling the scrape of " + text);
+            deadline.cancel();
+        }
     }
 
     @Override
     protected void onStartLoading() {
         forceLoad();
     }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        onStopLoading();
+    }
 }
@@ -0,0 +1,42 @@
+package com.example.android.linker;
+
+/**
+ * A row of the link list, copied out of a page cursor so the cursor can be closed as soon as the page is read.
+ */
+public class LinkItem {
+
+    /** Row id of the link. */
+    public final long id;
+
+    /** Title of the link. Never null, the provider stores a missing title as an empty string. */
+    public final String title;
+
+    /** Url of the link. */
+    public final String url;
+
+    /** Thumbnail hash of the link, or null when it has none. */
+    public final String imageHash;
+
+    /** Whether the row is a link or a folder. */
+    public final int type;
+
+    /** Rows directly in the folder, 0 for a link. */
+    public final int childCount;
+
+    /** Links under the folder at any depth, 0 for a link. */
+    public final int linkCount;
+
+    /** Time the latest link under the folder was added or edited, 0 when it holds none. */
+    public final long latestDate;
+
+    LinkItem(long id, String title, String url, String imageHash, int type, int childCount, int linkCount, long latestDate) {
+        this.id = id;
+        this.title = title;
+        this.url = url;
+        this.imageHash = imageHash;
+        this.type = type;
+        this.childCount = childCount;
+        this.linkCount = linkCount;
+        this.latestDate = latestDate;
+    }
+}
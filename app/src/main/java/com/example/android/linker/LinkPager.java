@@ -0,0 +1,570 @@
+package com.example.android.linker;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.linker.SQLdb.LinkContract;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the title sorted list of a folder a page at a time from the {@link com.example.android.linker.SQLdb.LinkProvider}.
+ * Each page starts after the (title, _id) of the last loaded row instead of at an offset, so every page is a seek on the
+ * folder index and costs the same however far down the list it is. Only the pages scrolled to are ever loaded.
+ * When the link table changes, only the rows in the change log since the last load are queried and moved into place,
+ * so the list is told about single rows instead of being reloaded.
+ * The top level starts out showing the {@link ListSnapshot} of its first screen, if there is one, and keeps it up to date.
+ * All methods must be called on the main thread.
+ */
+public class LinkPager {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = LinkPager.class.getSimpleName();
+
+    /** Rows loaded per page. A page more than fills the screen, so the first frame needs a single query. */
+    public static final int PAGE_SIZE = 50;
+
+    /** The next page is requested once a row this close to the end of the loaded rows is bound. */
+    public static final int PREFETCH_DISTANCE = 15;
+
+    /**
+     * Columns of the list, all held by the folder index. The aggregate columns give the counts shown on the folders
+     * without counting anything while the list loads.
+     */
+    public static final String[] PROJECTION = {
+            LinkContract.LinkEntry._ID,
+            LinkContract.LinkEntry.COLUMN_LINK_URL,
+            LinkContract.LinkEntry.COLUMN_LINK_TITLE,
+            LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH,
+            LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE,
+            LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID,
+            LinkContract.LinkEntry.COLUMN_LINK_CHILD_COUNT,
+            LinkContract.LinkEntry.COLUMN_LINK_LINK_COUNT,
+            LinkContract.LinkEntry.COLUMN_LINK_LATEST_DATE
+    };
+
+    /** Positions of the columns in {@link #PROJECTION}. */
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_URL = 1;
+    private static final int COLUMN_TITLE = 2;
+    private static final int COLUMN_IMAGE_HASH = 3;
+    private static final int COLUMN_DATA_TYPE = 4;
+    private static final int COLUMN_CHILD_COUNT = 6;
+    private static final int COLUMN_LINK_COUNT = 7;
+    private static final int COLUMN_LATEST_DATE = 8;
+
+    /** Changed rows applied one by one. More changes than this reload the list in a single query instead. */
+    static final int MAX_CHANGES = PAGE_SIZE;
+
+    /** Returned by {@link #queryChanges} when the changes are too many to apply, or were compacted away. */
+    static final long CHANGES_RELOAD = -1;
+
+    /** Delay before the snapshot is written, so a burst of changes writes it once. */
+    private static final long SNAPSHOT_DELAY_MILLIS = 1000;
+
+    /** Told about every change of the list. */
+    public interface Listener {
+        void onPageAppended(int start, int count);
+
+        void onReloaded();
+
+        void onItemInserted(int position);
+
+        void onItemRemoved(int position);
+
+        void onItemChanged(int position);
+
+        void onItemMoved(int from, int to);
+    }
+
+    /** Queries the pages. */
+    private final ContentResolver resolver;
+
+    /** Reads and writes the snapshot of the top level. */
+    private final Context context;
+
+    /** Folder listed, or null for the top level. */
+    private final Long folderId;
+
+    /** Runs the queries one at a time, in order. */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /** Posts the loaded pages back to the main thread. */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Applies the changes of the link table to the list. */
+    private final ContentObserver observer = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            applyChanges();
+        }
+    };
+
+    /**
+     * Highest sequence number of the change log reflected by the list. Only used on the background thread, which reads
+     * it before every full load and advances it with every applied change.
+     */
+    private long seenSeq;
+
+    /** Rows loaded so far, in list order. */
+    private final List<LinkItem> items = new ArrayList<>();
+
+    /** Told about every change of {@link #items}. */
+    private Listener listener;
+
+    /** Incremented by every load, so a page that lands after a newer load was started is dropped. */
+    private int generation;
+
+    /** Whether a load is running. */
+    private boolean loading;
+
+    /** Whether the last page has been loaded. */
+    private boolean endReached;
+
+    /** Whether {@link #close()} was called. Nothing is submitted to the executor afterwards. */
+    private boolean closed;
+
+    /** Whether the rows come from the database rather than the snapshot. */
+    private boolean live;
+
+    /** Snapshot read on start, whose tiny thumbnails stand in for the real ones. Null below the top level. */
+    private ListSnapshot snapshot;
+
+    /** Last snapshot written, carrying its tiny thumbnails over to the next one. Only used on the background thread. */
+    private ListSnapshot writtenSnapshot;
+
+    /** Writes the first screen of the list to the snapshot. */
+    private final Runnable writeSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            final List<LinkItem> rows = new ArrayList<>(items.subList(0, Math.min(ListSnapshot.ROW_COUNT, items.size())));
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writtenSnapshot = ListSnapshot.write(context, rows, writtenSnapshot);
+                }
+            });
+        }
+    };
+
+    public LinkPager(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Creates the pager of a folder.
+     * @param context
+     * @param folderId Id of the folder, or null for the top level.
+     */
+    public LinkPager(Context context, Long folderId) {
+        resolver = context.getContentResolver();
+        this.context = context.getApplicationContext();
+        this.folderId = folderId;
+    }
+
+    /** Sets the listener, or clears it when the list view goes away. */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Returns the rows loaded so far. */
+    public List<LinkItem> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /** Returns whether the rows come from the database, false while the snapshot is shown. */
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * Returns the tiny thumbnail the snapshot holds for a row, shown until the real one is decoded.
+     * @param item
+     * @return Bitmap - Null when the snapshot has none for the current thumbnail of the row.
+     */
+    public Bitmap getPlaceholder(LinkItem item) {
+        return snapshot != null ? snapshot.getThumbnail(item) : null;
+    }
+
+    /**
+     * Shows the snapshot of the top level, then loads the first page and starts following changes of the link table.
+     * The first page replaces the snapshot, rows that did not change keeping their place.
+     */
+    public void start() {
+        if (folderId == null) {
+            snapshot = ListSnapshot.read(context);
+            writtenSnapshot = snapshot;
+            if (snapshot != null) {
+                items.addAll(snapshot.items);
+            }
+        }
+        resolver.registerContentObserver(LinkContract.LinkEntry.CONTENT_URI, true, observer);
+        load(null, PAGE_SIZE, true);
+    }
+
+    /**
+     * Stops following changes and drops any load still running. Later calls that would load rows are ignored.
+     * A snapshot still waiting to be written is dropped too, the next launch replaces it with the live rows anyway.
+     */
+    public void close() {
+        closed = true;
+        resolver.unregisterContentObserver(observer);
+        mainHandler.removeCallbacks(writeSnapshot);
+        generation++;
+        executor.shutdownNow();
+    }
+
+    /** Writes the snapshot of the top level once the changes settle. */
+    private void scheduleSnapshot() {
+        if (folderId == null && !closed) {
+            mainHandler.removeCallbacks(writeSnapshot);
+            mainHandler.postDelayed(writeSnapshot, SNAPSHOT_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Called when a row is bound. Loads the next page when the row is close to the end of the loaded rows.
+     * @param position
+     */
+    public void onBind(int position) {
+        if (!loading && !endReached && position >= items.size() - PREFETCH_DISTANCE) {
+            load(items.isEmpty() ? null : items.get(items.size() - 1), PAGE_SIZE, false);
+        }
+    }
+
+    /**
+     * Reloads every page loaded so far in a single query, keeping the list as long as it was.
+     * Rows are re-read from the start since an insert or delete can shift any page.
+     */
+    private void reload() {
+        load(null, Math.max(PAGE_SIZE, items.size()), true);
+    }
+
+    /**
+     * Loads the rows following a row on the background thread.
+     * @param after Last loaded row, or null to load from the start.
+     * @param limit Rows to load.
+     * @param replace Whether the rows replace the list instead of being appended to it.
+     */
+    private void load(final LinkItem after, final int limit, final boolean replace) {
+        if (closed) {
+            return;
+        }
+        final int loadGeneration = ++generation;
+        loading = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Read before the rows, so a change committed in between is applied again rather than missed.
+                if (replace) {
+                    seenSeq = queryLastSeq(resolver);
+                }
+                final List<LinkItem> page = query(resolver, folderId, after, limit);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loadGeneration != generation) {
+                            return;
+                        }
+                        loading = false;
+                        endReached = page.size() < limit;
+                        if (replace) {
+                            items.clear();
+                            items.addAll(page);
+                            live = true;
+                            if (listener != null) {
+                                listener.onReloaded();
+                            }
+                            scheduleSnapshot();
+                        } else if (!page.isEmpty()) {
+                            int start = items.size();
+                            items.addAll(page);
+                            if (listener != null) {
+                                listener.onPageAppended(start, page.size());
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Queries the rows changed since the last load on the background thread, and moves them into place in the list.
+     * Rows past the end of the loaded pages are left to the page that loads them.
+     */
+    private void applyChanges() {
+        if (closed) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Set<Long> changedIds = new LinkedHashSet<>();
+                long seq = queryChanges(resolver, seenSeq, changedIds);
+                if (seq == CHANGES_RELOAD) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            reload();
+                        }
+                    });
+                    return;
+                }
+                seenSeq = seq;
+                if (changedIds.isEmpty()) {
+                    return;
+                }
+                final Map<Long, LinkItem> rows = new HashMap<>();
+                for (LinkItem item : queryRows(resolver, folderId, changedIds)) {
+                    rows.put(item.id, item);
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (closed) {
+                            return;
+                        }
+                        for (long id : changedIds) {
+                            applyChange(id, rows.get(id));
+                        }
+                        scheduleSnapshot();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Moves a changed row to its place in the list. The change may already be reflected by a page loaded after it was
+     * made, so applying it twice leaves the list as it is.
+     * @param id
+     * @param row The row as it is now, or null when it was deleted or moved out of the folder.
+     */
+    private void applyChange(long id, LinkItem row) {
+        int from = -1;
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).id == id) {
+                from = i;
+                break;
+            }
+        }
+        if (from >= 0) {
+            items.remove(from);
+        }
+        int to = row != null ? insertionPoint(row) : items.size();
+        if (row == null || (to == items.size() && !endReached)) {
+            if (from >= 0 && listener != null) {
+                listener.onItemRemoved(from);
+            }
+            return;
+        }
+
+        items.add(to, row);
+        if (listener == null) {
+            return;
+        }
+        if (from < 0) {
+            listener.onItemInserted(to);
+        } else {
+            if (from != to) {
+                listener.onItemMoved(from, to);
+            }
+            listener.onItemChanged(to);
+        }
+    }
+
+    /** Returns the position of a row in the list, which is sorted on (title, _id). */
+    private int insertionPoint(LinkItem row) {
+        int low = 0;
+        int high = items.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(items.get(middle), row) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares two rows in the order of {@link LinkContract.LinkEntry#SORT_ORDER_TITLE}. The titles are compared by code
+     * point, which is the order SQLite compares their UTF-8 bytes in.
+     */
+    static int compare(LinkItem a, LinkItem b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.title.length() && j < b.title.length()) {
+            int x = a.title.codePointAt(i);
+            int y = b.title.codePointAt(j);
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        if (i < a.title.length() || j < b.title.length()) {
+            return i < a.title.length() ? 1 : -1;
+        }
+        return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+    }
+
+    /**
+     * Queries the highest sequence number of the change log.
+     * @param resolver
+     * @return long - 0 when the log is empty.
+     */
+    static long queryLastSeq(ContentResolver resolver) {
+        Cursor cursor = resolver.query(LinkContract.ChangeEntry.CONTENT_URI,
+                new String[] {"MAX(" + LinkContract.ChangeEntry.COLUMN_SEQ + ")"}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Queries the rows changed after a sequence number.
+     * @param resolver
+     * @param since Highest sequence number already applied.
+     * @param changedIds Filled with the ids of the changed rows, in the order of their latest change.
+     * @return long - The highest sequence number read, or {@link #CHANGES_RELOAD} when the list must be reloaded instead.
+     */
+    static long queryChanges(ContentResolver resolver, long since, Set<Long> changedIds) {
+        String[] projection = {LinkContract.ChangeEntry.COLUMN_SEQ, LinkContract.ChangeEntry.COLUMN_ROW_ID};
+        Cursor cursor = resolver.query(LinkContract.ChangeEntry.buildChangesUri(since), projection, null, null, null);
+        if (cursor == null) {
+            return CHANGES_RELOAD;
+        }
+        long seq = since;
+        try {
+            while (cursor.moveToNext()) {
+                long rowId = cursor.getLong(1);
+                // The log was compacted past the changes seen, so some deleted rows can no longer be told apart.
+                if (rowId == LinkContract.ChangeEntry.ROW_ID_COMPACTED || changedIds.size() >= MAX_CHANGES) {
+                    return CHANGES_RELOAD;
+                }
+                changedIds.add(rowId);
+                seq = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return seq;
+    }
+
+    /**
+     * Queries the rows of a folder among the given ids.
+     * @param resolver
+     * @param folderId Id of the folder, or null for the top level.
+     * @param ids Ids of the rows, which may be deleted or in another folder. Must not be empty.
+     * @return List - The rows still in the folder, in list order.
+     */
+    static List<LinkItem> queryRows(ContentResolver resolver, Long folderId, Collection<Long> ids) {
+        List<String> args = new ArrayList<>(1);
+        StringBuilder selection = new StringBuilder(selectFolder(folderId, args));
+        selection.append(" AND ").append(LinkContract.LinkEntry._ID).append(" IN (");
+        for (long id : ids) {
+            selection.append(id).append(',');
+        }
+        selection.setCharAt(selection.length() - 1, ')');
+        return readRows(resolver, LinkContract.LinkEntry.CONTENT_URI, selection.toString(), args);
+    }
+
+    /**
+     * Queries a page of the top level.
+     * @param resolver
+     * @param after Row the page starts after, or null for the first page.
+     * @param limit Rows in the page.
+     * @return List - The rows, fewer than the limit on the last page.
+     */
+    static List<LinkItem> query(ContentResolver resolver, LinkItem after, int limit) {
+        return query(resolver, null, after, limit);
+    }
+
+    /**
+     * Queries a page of a folder.
+     * @param resolver
+     * @param folderId Id of the folder, or null for the top level.
+     * @param after Row the page starts after, or null for the first page.
+     * @param limit Rows in the page.
+     * @return List - The rows, fewer than the limit on the last page.
+     */
+    static List<LinkItem> query(ContentResolver resolver, Long folderId, LinkItem after, int limit) {
+        Uri uri = LinkContract.LinkEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+        List<String> args = new ArrayList<>(4);
+        String selection = selectFolder(folderId, args);
+        if (after != null) {
+            selection += " AND " + LinkContract.LinkEntry.SELECTION_AFTER_TITLE;
+            args.add(after.title);
+            args.add(after.title);
+            args.add(String.valueOf(after.id));
+        }
+        return readRows(resolver, uri, selection, args);
+    }
+
+    /**
+     * Returns the selection of the rows directly in a folder.
+     * @param folderId Id of the folder, or null for the top level.
+     * @param args Receives the arguments of the selection.
+     * @return String
+     */
+    private static String selectFolder(Long folderId, List<String> args) {
+        if (folderId == null) {
+            return LinkContract.LinkEntry.SELECTION_TOP_LEVEL;
+        }
+        args.add(String.valueOf(folderId));
+        return LinkContract.LinkEntry.SELECTION_IN_FOLDER;
+    }
+
+    /**
+     * Queries the rows matching a selection in list order, and copies them out of the cursor.
+     * @param resolver
+     * @param uri
+     * @param selection
+     * @param args Arguments of the selection.
+     * @return List
+     */
+    private static List<LinkItem> readRows(ContentResolver resolver, Uri uri, String selection, List<String> args) {
+        String[] selectionArgs = args.toArray(new String[args.size()]);
+
+        List<LinkItem> page = new ArrayList<>();
+        Cursor cursor = resolver.query(uri, PROJECTION, selection, selectionArgs, LinkContract.LinkEntry.SORT_ORDER_TITLE);
+        if (cursor == null) {
+            return page;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                page.add(new LinkItem(cursor.getLong(COLUMN_ID), cursor.getString(COLUMN_TITLE), cursor.getString(COLUMN_URL),
+                        cursor.getString(COLUMN_IMAGE_HASH), cursor.getInt(COLUMN_DATA_TYPE), cursor.getInt(COLUMN_CHILD_COUNT),
+                        cursor.getInt(COLUMN_LINK_COUNT), cursor.getLong(COLUMN_LATEST_DATE)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return page;
+    }
+}
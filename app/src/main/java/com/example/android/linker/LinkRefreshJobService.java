@@ -0,0 +1,77 @@
+package com.example.android.linker;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes stale links with {@link LinkRefresher} once a day, while the device is charging on an unmetered network,
+ * so the refresh never costs the user data or battery.
+ */
+public class LinkRefreshJobService extends JobService {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = LinkRefreshJobService.class.getSimpleName();
+
+    /** Identifies the refresh job. */
+    private static final int JOB_ID = 1;
+
+    /** The job runs at most this often, in milliseconds. */
+    private static final long REFRESH_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    /** The refresh in progress, stopped when the constraints no longer hold. */
+    private volatile LinkRefresher refresher;
+
+    /**
+     * Schedules the refresh job unless it is already scheduled. The job survives reboots.
+     * @param context
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, LinkRefreshJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(REFRESH_INTERVAL)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(LOG_TAG, "Unable to schedule the refresh.");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        ThumbnailEncoder encoder = new ThumbnailEncoder(getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
+        final LinkRefresher refresher = new LinkRefresher(getContentResolver(), encoder, new MetadataCache(this));
+        this.refresher = refresher;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                refresher.run();
+                jobFinished(params, false);
+            }
+        }, LOG_TAG).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        LinkRefresher refresher = this.refresher;
+        if (refresher != null) {
+            refresher.stop();
+        }
+        // The links left stale are picked up by the next run.
+        return false;
+    }
+}
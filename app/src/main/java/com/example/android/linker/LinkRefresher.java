@@ -0,0 +1,278 @@
+package com.example.android.linker;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract;
+import com.example.android.linker.SQLdb.ThumbnailStore;
+import com.example.android.linker.core.UrlNormalizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the title and thumbnail of stale links again. Links are read in batches, the least recently refreshed
+ * first, fetched by a bounded pool of workers, and each batch is written back in a single transaction.
+ */
+public class LinkRefresher {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = LinkRefresher.class.getSimpleName();
+
+    /** Links are refreshed once they are this old, in milliseconds. */
+    public static final long STALE_AFTER = TimeUnit.DAYS.toMillis(7);
+
+    /** Number of links fetched at the same time. Lower than the import, as the refresh is never waited on. */
+    public static final int DEFAULT_PARALLELISM = 2;
+
+    /** Number of links read and written per batch. */
+    public static final int DEFAULT_BATCH_SIZE = 25;
+
+    private static final String[] PROJECTION = {
+            LinkContract.LinkEntry._ID,
+            LinkContract.LinkEntry.COLUMN_LINK_URL,
+            LinkContract.LinkEntry.COLUMN_LINK_TITLE,
+            LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH,
+            LinkContract.LinkEntry.COLUMN_LINK_SCRAPED_TITLE
+    };
+
+    /** Reads the stale links and writes them back. */
+    private final ContentResolver resolver;
+
+    /** Sizes the thumbnails to the list item. */
+    private final ThumbnailEncoder encoder;
+
+    /**
+     * Turns refreshes of unchanged pages into conditional requests. May be null. Also tells the title a link saved
+     * before {@link LinkContract.LinkEntry#COLUMN_LINK_SCRAPED_TITLE} existed was scraped with, when its page is cached.
+     */
+    private final MetadataCache metadataCache;
+
+    /** Number of links fetched at the same time. */
+    private final int parallelism;
+
+    /** Number of links per batch. */
+    private final int batchSize;
+
+    /** Set by {@link #stop()}. The batch in flight is dropped and the run ends. */
+    private volatile boolean stopped;
+
+    public LinkRefresher(ContentResolver resolver, ThumbnailEncoder encoder, MetadataCache metadataCache) {
+        this(resolver, encoder, metadataCache, DEFAULT_PARALLELISM, DEFAULT_BATCH_SIZE);
+    }
+
+    public LinkRefresher(ContentResolver resolver, ThumbnailEncoder encoder, MetadataCache metadataCache, int parallelism, int batchSize) {
+        this.resolver = resolver;
+        this.encoder = encoder;
+        this.metadataCache = metadataCache;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+    }
+
+    /** Ends the run. May be called from any thread. */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Refreshes batches of stale links until none is left, a batch cannot be written or {@link #stop()} is called.
+     * A link is marked as refreshed even when its page cannot be fetched, so a dead link waits for the next period
+     * instead of being retried in every batch.
+     * @return Result - Counts and duration of the run.
+     */
+    public Result run() {
+        long start = SystemClock.elapsedRealtime();
+        long staleBefore = System.currentTimeMillis() - STALE_AFTER;
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        CompletionService<ContentProviderOperation> completionService = new ExecutorCompletionService<>(pool);
+        Result result = new Result();
+
+        try {
+            while (!stopped) {
+                List<Row> rows = queryStale(staleBefore);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                for (final Row row : rows) {
+                    completionService.submit(new Callable<ContentProviderOperation>() {
+                        @Override
+                        public ContentProviderOperation call() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            return refresh(row);
+                        }
+                    });
+                }
+
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>(rows.size());
+                for (int i = 0; i < rows.size(); i++) {
+                    try {
+                        operations.add(completionService.take().get());
+                    } catch (ExecutionException e) {
+                        Log.w(LOG_TAG, "Unable to refresh a link.", e.getCause());
+                        result.failed++;
+                    }
+                }
+                if (stopped) {
+                    break;
+                }
+                if (operations.size() < rows.size()) {
+                    // The failed links would be selected again, so the run ends with this batch.
+                    stopped = true;
+                }
+                resolver.applyBatch(LinkContract.CONTENT_AUTHORITY, operations);
+                result.refreshed += operations.size();
+                result.batches++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            Log.w(LOG_TAG, "Unable to write a refreshed batch.", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Refreshed " + result.refreshed + " links in " + result.batches + " batches, " + result.failed
+                + " failed, in " + result.elapsedMillis + " ms.");
+        return result;
+    }
+
+    /** Reads the next batch of stale links. */
+    private List<Row> queryStale(long staleBefore) {
+        Uri uri = LinkContract.LinkEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT, String.valueOf(batchSize))
+                .build();
+        List<Row> rows = new ArrayList<>(batchSize);
+        Cursor cursor = resolver.query(uri, PROJECTION, LinkContract.LinkEntry.SELECTION_STALE,
+                new String[] {String.valueOf(staleBefore)}, LinkContract.LinkEntry.SORT_ORDER_REFRESHED);
+        if (cursor == null) {
+            return rows;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(new Row(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3), cursor.getString(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Fetches the page of a link and builds the update of its row.
+     * The title is only replaced when the user has not renamed the link, that is when the stored title is empty or
+     * is the title the page had when it was last fetched. A link whose scraped title is unknown keeps its title, and
+     * records the scraped one for the next refresh. The thumbnail is only replaced when it changed.
+     * @param row
+     * @return ContentProviderOperation - The update, which marks the row as refreshed in any case.
+     */
+    private ContentProviderOperation refresh(Row row) {
+        String scrapedTitle = row.scrapedTitle;
+        if (scrapedTitle == null && metadataCache != null) {
+            MetadataCache.Entry previous = metadataCache.get(UrlNormalizer.normalize(row.url));
+            scrapedTitle = previous != null ? previous.title : null;
+        }
+        Page page = fetch(row.url);
+
+        ContentProviderOperation.Builder update = ContentProviderOperation
+                .newUpdate(ContentUris.withAppendedId(LinkContract.LinkEntry.CONTENT_URI, row.id))
+                .withValue(LinkContract.LinkEntry.COLUMN_LINK_REFRESHED, System.currentTimeMillis());
+
+        String title = page.title;
+        if (title != null && !title.isEmpty()) {
+            boolean renamed = !row.title.isEmpty() && !row.title.equals(scrapedTitle);
+            if (!title.equals(row.title) && !renamed) {
+                update.withValue(LinkContract.LinkEntry.COLUMN_LINK_TITLE, title);
+            }
+            if (!title.equals(row.scrapedTitle)) {
+                update.withValue(LinkContract.LinkEntry.COLUMN_LINK_SCRAPED_TITLE, title);
+            }
+        }
+
+        byte[] thumbnail = page.thumbnail;
+        if (thumbnail != null && !ThumbnailStore.hash(thumbnail).equals(row.imageHash)) {
+            update.withValue(LinkContract.LinkEntry.COLUMN_LINK_IMAGE, thumbnail);
+            update.withValue(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_SOURCE, page.imageSource);
+        }
+        return update.build();
+    }
+
+    /**
+     * Fetches the title and thumbnail of a page. Called on the workers. Overridden by the tests, which refresh against
+     * pages of their own.
+     * @param url
+     * @return Page
+     */
+    Page fetch(String url) {
+        LinkInfo info = new LinkInfo(url, encoder, metadataCache);
+        return new Page(info.getTitle(), info.getImageBlob(), info.getImageSource());
+    }
+
+    /** A stale link as read from the provider. */
+    private static class Row {
+        final long id;
+        final String url;
+        final String title;
+        final String imageHash;
+
+        /** Title of the page when it was last fetched, null when unknown. */
+        final String scrapedTitle;
+
+        Row(long id, String url, String title, String imageHash, String scrapedTitle) {
+            this.id = id;
+            this.url = url;
+            this.title = title != null ? title : "";
+            this.imageHash = imageHash;
+            this.scrapedTitle = scrapedTitle;
+        }
+    }
+
+    /** Title and thumbnail of a fetched page. */
+    static class Page {
+        final String title;
+        final byte[] thumbnail;
+        final String imageSource;
+
+        /**
+         * @param title Null or empty when the page could not be fetched or has none.
+         * @param thumbnail Encoded thumbnail, may be null.
+         * @param imageSource Hash of the downloaded image the thumbnail was encoded from, may be null.
+         */
+        Page(String title, byte[] thumbnail, String imageSource) {
+            this.title = title;
+            this.thumbnail = thumbnail;
+            this.imageSource = imageSource;
+        }
+    }
+
+    /** Outcome of a refresh run. */
+    public static class Result {
+
+        /** Links written back, whether or not their page changed. */
+        public int refreshed;
+
+        /** Links whose refresh threw. */
+        public int failed;
+
+        /** Batches written. */
+        public int batches;
+
+        /** Wall time of the run. */
+        public long elapsedMillis;
+    }
+}
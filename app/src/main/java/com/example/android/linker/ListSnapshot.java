@@ -0,0 +1,200 @@
+package com.example.android.linker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The first screen of the top level list, kept in a small file so a cold start can show it before the database is open.
+ * Holds the rows as {@link LinkItem}s along with a tiny copy of their thumbnails, shown until the real ones are decoded.
+ * The {@link LinkPager} writes it whenever the first screen changes, and replaces it with the live rows once they load.
+ */
+public final class ListSnapshot {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = ListSnapshot.class.getSimpleName();
+
+    /** Name of the snapshot file under the app's files directory. */
+    private static final String FILE_NAME = "list_snapshot";
+
+    /** Written first, so a snapshot in an older format is ignored rather than misread. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Rows kept, more than a tall screen shows. */
+    public static final int ROW_COUNT = 20;
+
+    /** Width and height of the tiny thumbnails in pixels. The row scales them up until the real one is decoded. */
+    private static final int THUMBNAIL_SIZE = 24;
+
+    /** Quality of the tiny thumbnails, which only stand in for a moment. */
+    private static final int THUMBNAIL_QUALITY = 50;
+
+    /** Rows of the first screen, in list order. */
+    public final List<LinkItem> items;
+
+    /** Encoded tiny thumbnails, keyed by {@link #key(LinkItem)}. */
+    private final Map<String, byte[]> thumbnails;
+
+    /** Tiny thumbnails decoded so far, so a row bound again does not decode its thumbnail again. Main thread only. */
+    private final Map<String, Bitmap> decoded = new HashMap<>();
+
+    private ListSnapshot(List<LinkItem> items, Map<String, byte[]> thumbnails) {
+        this.items = Collections.unmodifiableList(items);
+        this.thumbnails = thumbnails;
+    }
+
+    /** Key of the tiny thumbnail of a row, which a new thumbnail of the row no longer matches. */
+    private static String key(LinkItem item) {
+        return item.id + "_" + item.imageHash;
+    }
+
+    /**
+     * Returns the tiny thumbnail of a row, decoding it on first use. Must be called on the main thread.
+     * @param item
+     * @return Bitmap - Null when the snapshot has none for the current thumbnail of the row.
+     */
+    public Bitmap getThumbnail(LinkItem item) {
+        if (item.imageHash == null) {
+            return null;
+        }
+        String key = key(item);
+        Bitmap bitmap = decoded.get(key);
+        byte[] encoded = thumbnails.get(key);
+        if (bitmap == null && encoded != null) {
+            bitmap = BitmapFactory.decodeByteArray(encoded, 0, encoded.length);
+            decoded.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Reads the snapshot. Small enough to read on the main thread, which is the point of it.
+     * @param context
+     * @return ListSnapshot - Null when there is none yet or it cannot be read.
+     */
+    public static ListSnapshot read(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int count = input.readInt();
+            List<LinkItem> items = new ArrayList<>(count);
+            Map<String, byte[]> thumbnails = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                LinkItem item = new LinkItem(input.readLong(), input.readUTF(), input.readUTF(),
+                        input.readBoolean() ? input.readUTF() : null, input.readInt(), input.readInt(), input.readInt(), input.readLong());
+                items.add(item);
+                int length = input.readInt();
+                if (length > 0) {
+                    byte[] encoded = new byte[length];
+                    input.readFully(encoded);
+                    thumbnails.put(key(item), encoded);
+                }
+            }
+            return new ListSnapshot(items, thumbnails);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read the list snapshot.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the first screen of the list. The tiny thumbnails are scaled down from the decoded ones, or carried over
+     * from the previous snapshot when the thumbnail of a row did not change.
+     * Reads and writes files, so it must not run on the main thread.
+     * @param context
+     * @param items The first rows of the list, at most {@link #ROW_COUNT} are kept.
+     * @param previous The snapshot written before, may be null.
+     * @return ListSnapshot - The snapshot written, or the previous one when it cannot be written.
+     */
+    public static ListSnapshot write(Context context, List<LinkItem> items, ListSnapshot previous) {
+        List<LinkItem> rows = new ArrayList<>(items.subList(0, Math.min(ROW_COUNT, items.size())));
+        Map<String, byte[]> thumbnails = new HashMap<>();
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(context);
+        for (LinkItem item : rows) {
+            if (item.imageHash == null) {
+                continue;
+            }
+            byte[] encoded = previous != null ? previous.thumbnails.get(key(item)) : null;
+            if (encoded == null) {
+                encoded = shrink(thumbnailCache.get(item.imageHash));
+            }
+            if (encoded != null) {
+                thumbnails.put(key(item), encoded);
+            }
+        }
+
+        File directory = context.getFilesDir();
+        File temp = new File(directory, FILE_NAME + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(rows.size());
+            for (LinkItem item : rows) {
+                output.writeLong(item.id);
+                output.writeUTF(item.title);
+                output.writeUTF(item.url);
+                output.writeBoolean(item.imageHash != null);
+                if (item.imageHash != null) {
+                    output.writeUTF(item.imageHash);
+                }
+                output.writeInt(item.type);
+                output.writeInt(item.childCount);
+                output.writeInt(item.linkCount);
+                output.writeLong(item.latestDate);
+                byte[] encoded = thumbnails.get(key(item));
+                output.writeInt(encoded != null ? encoded.length : 0);
+                if (encoded != null) {
+                    output.write(encoded);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write the list snapshot.", e);
+            temp.delete();
+            return previous;
+        }
+        // Renamed into place, so a launch never reads a snapshot that is half written.
+        if (!temp.renameTo(new File(directory, FILE_NAME))) {
+            temp.delete();
+            return previous;
+        }
+        return new ListSnapshot(rows, thumbnails);
+    }
+
+    /**
+     * Scales a thumbnail down to the tiny size and encodes it.
+     * @param bitmap The list size thumbnail, may be null.
+     * @return byte[] - Null when there is no thumbnail.
+     */
+    private static byte[] shrink(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        Bitmap tiny = Bitmap.createScaledBitmap(bitmap, THUMBNAIL_SIZE, THUMBNAIL_SIZE, true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        tiny.compress(Bitmap.CompressFormat.WEBP, THUMBNAIL_QUALITY, output);
+        if (tiny != bitmap) {
+            tiny.recycle();
+        }
+        return output.toByteArray();
+    }
+}
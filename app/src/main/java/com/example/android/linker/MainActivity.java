@@ -1,10 +1,17 @@
 package com.example.android.linker;
 
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.linker.core.UrlExtractor;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements LinkFragment.ShowDialog, LinkFragment.ShowFolderFragment, LinkFragment.SharedText {
 
@@ -27,6 +34,9 @@ public class MainActivity extends AppCompatActivity implements LinkFragment.Show
                     .add(R.id.root_fragment_layout, LinkFragment.newInstance(), "frag")
                     .commit();
         }
+
+        /** Keeps the titles and thumbnails of saved links current in the background. */
+        LinkRefreshJobService.schedule(this);
     }
 
     @Override
@@ -36,9 +46,53 @@ public class MainActivity extends AppCompatActivity implements LinkFragment.Show
         String action = intent.getAction();
         String type = intent.getType();
 
-        /** Receives the URL when a browser shares it to this app. */
+        /** Receives the URL when a browser shares it to this app. Text holding several URLs is imported in bulk. */
         if (Intent.ACTION_SEND.equals(action) && "text/plain".equals(type)) {
-            sharedUrl = intent.getStringExtra(Intent.EXTRA_TEXT);
+            String text = intent.getStringExtra(Intent.EXTRA_TEXT);
+            List<String> urls = text != null ? UrlExtractor.extractUrls(text) : new ArrayList<String>();
+            if (urls.size() > 1) {
+                startImport(text, null, urls.size());
+            } else {
+                sharedUrl = text;
+            }
+        }
+        /** Receives many links at once, such as a list of URLs or an exported bookmarks page. */
+        else if (Intent.ACTION_SEND_MULTIPLE.equals(action) || (Intent.ACTION_SEND.equals(action) && "text/html".equals(type))) {
+            StringBuilder payload = new StringBuilder();
+            ArrayList<CharSequence> texts = Intent.ACTION_SEND_MULTIPLE.equals(action)
+                    ? intent.getCharSequenceArrayListExtra(Intent.EXTRA_TEXT) : null;
+            if (texts != null) {
+                for (CharSequence text : texts) {
+                    payload.append(text).append('\n');
+                }
+            } else if (intent.getStringExtra(Intent.EXTRA_HTML_TEXT) != null) {
+                payload.append(intent.getStringExtra(Intent.EXTRA_HTML_TEXT));
+            } else if (intent.getCharSequenceExtra(Intent.EXTRA_TEXT) != null) {
+                payload.append(intent.getCharSequenceExtra(Intent.EXTRA_TEXT));
+            }
+
+            ArrayList<Uri> streams = new ArrayList<>();
+            if (Intent.ACTION_SEND_MULTIPLE.equals(action)) {
+                ArrayList<Uri> shared = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+                if (shared != null) {
+                    streams.addAll(shared);
+                }
+            } else if (intent.getParcelableExtra(Intent.EXTRA_STREAM) != null) {
+                streams.add((Uri) intent.getParcelableExtra(Intent.EXTRA_STREAM));
+            }
+            startImport(payload.toString(), streams, UrlExtractor.extractUrls(payload.toString()).size());
+        }
+    }
+
+    /**
+     * Hands the shared links over to the {@link LinkImportService} and consumes the intent, so the import does not
+     * start again the next time the activity is started.
+     */
+    private void startImport(String payload, ArrayList<Uri> streams, int count) {
+        LinkImportService.start(this, payload, streams);
+        setIntent(new Intent());
+        if (count > 0) {
+            Toast.makeText(this, getString(R.string.import_started, count), Toast.LENGTH_SHORT).show();
         }
     }
 
@@ -48,11 +102,14 @@ public class MainActivity extends AppCompatActivity implements LinkFragment.Show
         LinkInfoDialogFragment.newInstance(bundle).show(getSupportFragmentManager(), "editDialog");
     }
 
-    /** Interface to create a fragment that will serve as folder to organize links. */
+    /** Interface to create a fragment that will serve as folder to organize links. Back returns to the parent folder. */
     @Override
     public void showFolderFragment(long id) {
-        // TO DO
-
+        getSupportFragmentManager()
+                .beginTransaction()
+                .replace(R.id.root_fragment_layout, LinkFragment.newInstance(id), "folder" + id)
+                .addToBackStack(null)
+                .commit();
     }
 
     /** Designed to either return the URL or dereference the variable. */
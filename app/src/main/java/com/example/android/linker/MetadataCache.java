@@ -0,0 +1,329 @@
+package com.example.android.linker;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract.MetadataEntry;
+import com.example.android.linker.SQLdb.LinkContract.ThumbnailEntry;
+import com.example.android.linker.core.LinkHttpClient;
+import com.example.android.linker.core.UrlNormalizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of scraped page metadata, stored by the {@link com.example.android.linker.SQLdb.LinkProvider}.
+ * A fresh entry is used without any request. A stale entry that has validators turns the next fetch into a conditional
+ * request, and a 304 reuses the entry without parsing the page or downloading its image.
+ * Hits, revalidations, misses and the bytes they saved are counted across process restarts.
+ * Thumbnails are also found by the hash of the downloaded image, so an image shared by many pages is only encoded once.
+ */
+public class MetadataCache {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = MetadataCache.class.getSimpleName();
+
+    /** Preferences file holding the counters. */
+    private static final String PREFERENCES_NAME = "metadata_cache_stats";
+
+    /** Keys of the counters. */
+    private static final String KEY_HITS = "hits";
+    private static final String KEY_REVALIDATIONS = "revalidations";
+    private static final String KEY_MISSES = "misses";
+    private static final String KEY_BYTES_SAVED = "bytes_saved";
+
+    /**
+     * Guards the read-modify-write of the counters. The importer, the refresher and the dialog each have a cache of
+     * their own, all backed by the same preferences, so the lock is shared by the process.
+     */
+    private static final Object STATS_LOCK = new Object();
+
+    /** Columns of a cached page. */
+    private static final String[] PROJECTION = {
+            MetadataEntry._ID,
+            MetadataEntry.COLUMN_METADATA_URL,
+            MetadataEntry.COLUMN_METADATA_TITLE,
+            MetadataEntry.COLUMN_METADATA_IMAGE_URL,
+            MetadataEntry.COLUMN_METADATA_IMAGE_HASH,
+            MetadataEntry.COLUMN_METADATA_ETAG,
+            MetadataEntry.COLUMN_METADATA_LAST_MODIFIED,
+            MetadataEntry.COLUMN_METADATA_MAX_AGE,
+            MetadataEntry.COLUMN_METADATA_FETCHED,
+            MetadataEntry.COLUMN_METADATA_BYTES
+    };
+
+    /** Reads and writes the metadata table. */
+    private final ContentResolver resolver;
+
+    /** Holds the counters. */
+    private final SharedPreferences stats;
+
+    public MetadataCache(Context context) {
+        resolver = context.getContentResolver();
+        stats = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Looks up a page.
+     * @param url Normalized with {@link UrlNormalizer#normalize(String)}.
+     * @return Entry - Null when the page is not cached.
+     */
+    public Entry get(String url) {
+        Cursor cursor = resolver.query(MetadataEntry.CONTENT_URI, PROJECTION,
+                MetadataEntry.COLUMN_METADATA_URL + "=?", new String[] {url}, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.id = cursor.getLong(0);
+            entry.url = cursor.getString(1);
+            entry.title = cursor.getString(2);
+            entry.imageUrl = cursor.getString(3);
+            entry.hasImage = !cursor.isNull(4);
+            entry.etag = cursor.getString(5);
+            entry.lastModified = cursor.getString(6);
+            entry.maxAge = cursor.getLong(7);
+            entry.fetched = cursor.getLong(8);
+            entry.bytes = cursor.getLong(9);
+            return entry;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the thumbnail of a cached page.
+     * @param entry
+     * @return byte[] - The encoded thumbnail, or null when the page has none or it cannot be read.
+     */
+    public byte[] readThumbnail(Entry entry) {
+        if (!entry.hasImage) {
+            return null;
+        }
+        return read(MetadataEntry.buildThumbnailUri(entry.id), entry.url);
+    }
+
+    /**
+     * Reads the thumbnail encoded from a downloaded image for any link or page before.
+     * @param sourceHash Hash of the downloaded image bytes.
+     * @return byte[] - The encoded thumbnail, or null when no stored thumbnail was encoded from the image.
+     */
+    public byte[] readThumbnailOfSource(String sourceHash) {
+        return read(ThumbnailEntry.buildSourceUri(sourceHash), sourceHash);
+    }
+
+    /**
+     * Reads a thumbnail uri in full.
+     * @param uri
+     * @param name Names the thumbnail in the log.
+     * @return byte[] - Null when the uri has no thumbnail or it cannot be read.
+     */
+    private byte[] read(Uri uri, String name) {
+        try (InputStream input = resolver.openInputStream(uri)) {
+            if (input == null) {
+                return null;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read the thumbnail of " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches a page after a full fetch, replacing any previous entry.
+     * @param url Normalized url of the page.
+     * @param title
+     * @param imageUrl Url of the image the thumbnail was made from, may be null.
+     * @param thumbnail Encoded thumbnail, may be null.
+     * @param thumbnailSource Hash of the downloaded image the thumbnail was encoded from, may be null.
+     * @param validators Validators of the page response.
+     * @param bytes Bytes downloaded for the page and its image.
+     */
+    public void put(String url, String title, String imageUrl, byte[] thumbnail, String thumbnailSource, Validators validators, long bytes) {
+        ContentValues values = validators.toContentValues();
+        values.put(MetadataEntry.COLUMN_METADATA_URL, url);
+        values.put(MetadataEntry.COLUMN_METADATA_TITLE, title);
+        values.put(MetadataEntry.COLUMN_METADATA_IMAGE_URL, imageUrl);
+        values.put(MetadataEntry.COLUMN_METADATA_IMAGE, thumbnail);
+        values.put(MetadataEntry.COLUMN_METADATA_IMAGE_SOURCE, thumbnailSource);
+        values.put(MetadataEntry.COLUMN_METADATA_BYTES, bytes);
+        try {
+            resolver.insert(MetadataEntry.CONTENT_URI, values);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Unable to cache " + url, e);
+        }
+    }
+
+    /**
+     * Drops a cached page, such as one the server no longer allows to be stored.
+     * @param url Normalized url of the page.
+     */
+    public void remove(String url) {
+        resolver.delete(MetadataEntry.CONTENT_URI, MetadataEntry.COLUMN_METADATA_URL + "=?", new String[] {url});
+    }
+
+    /**
+     * Marks an entry fresh again after the server answered 304, keeping the validators the 304 refreshed.
+     * @param entry
+     * @param validators Validators of the 304 response. Missing ones keep the cached value.
+     */
+    public void revalidated(Entry entry, Validators validators) {
+        if (validators.etag == null) {
+            validators.etag = entry.etag;
+        }
+        if (validators.lastModified == null) {
+            validators.lastModified = entry.lastModified;
+        }
+        resolver.update(MetadataEntry.CONTENT_URI, validators.toContentValues(),
+                MetadataEntry._ID + "=?", new String[] {String.valueOf(entry.id)});
+        record(KEY_REVALIDATIONS, entry.bytes);
+    }
+
+    /** Counts a fresh entry used without any request. */
+    public void recordHit(Entry entry) {
+        record(KEY_HITS, entry.bytes);
+    }
+
+    /** Counts a page fetched in full. */
+    public void recordMiss() {
+        record(KEY_MISSES, 0);
+    }
+
+    private void record(String key, long bytesSaved) {
+        synchronized (STATS_LOCK) {
+            stats.edit()
+                    .putLong(key, stats.getLong(key, 0) + 1)
+                    .putLong(KEY_BYTES_SAVED, stats.getLong(KEY_BYTES_SAVED, 0) + bytesSaved)
+                    .apply();
+        }
+    }
+
+    /** Returns the counters since the app was installed. */
+    public Stats getStats() {
+        return new Stats(stats.getLong(KEY_HITS, 0), stats.getLong(KEY_REVALIDATIONS, 0),
+                stats.getLong(KEY_MISSES, 0), stats.getLong(KEY_BYTES_SAVED, 0));
+    }
+
+    /** A cached page. */
+    public static class Entry {
+        public long id;
+        public String url;
+        public String title;
+        public String imageUrl;
+        public boolean hasImage;
+        public String etag;
+        public String lastModified;
+
+        /** Seconds the entry stays fresh after {@link #fetched}, or -1 when the server gave no lifetime. */
+        public long maxAge;
+
+        /** Time of the last fetch or revalidation, in milliseconds since the epoch. */
+        public long fetched;
+
+        /** Bytes the full fetch downloaded, saved every time the entry is reused. */
+        public long bytes;
+
+        /** Returns whether the entry can be used without asking the server. */
+        public boolean isFresh(long now) {
+            return maxAge > 0 && now - fetched < maxAge * 1000;
+        }
+
+        /** Returns the headers turning a fetch of the page into a conditional request. Empty when the entry has no validators. */
+        public Map<String, String> getConditionalHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+            return headers;
+        }
+    }
+
+    /** HTTP validators and lifetime of a page response. */
+    public static class Validators {
+        public String etag;
+        public String lastModified;
+        public long maxAge;
+
+        /** True when the server forbids storing the response, so the page must not be cached. */
+        public boolean noStore;
+
+        /** Time the response was received, in milliseconds since the epoch. */
+        public long fetched;
+
+        /**
+         * Reads the validators of a response.
+         * @param response
+         * @return Validators
+         */
+        public static Validators from(LinkHttpClient.Response response) {
+            Validators validators = new Validators();
+            validators.etag = response.getHeader("ETag");
+            validators.lastModified = response.getHeader("Last-Modified");
+            validators.maxAge = LinkHttpClient.parseMaxAge(response.getHeader("Cache-Control"));
+            validators.noStore = LinkHttpClient.isNoStore(response.getHeader("Cache-Control"));
+            validators.fetched = System.currentTimeMillis();
+            return validators;
+        }
+
+        ContentValues toContentValues() {
+            ContentValues values = new ContentValues();
+            values.put(MetadataEntry.COLUMN_METADATA_ETAG, etag);
+            values.put(MetadataEntry.COLUMN_METADATA_LAST_MODIFIED, lastModified);
+            values.put(MetadataEntry.COLUMN_METADATA_MAX_AGE, maxAge);
+            values.put(MetadataEntry.COLUMN_METADATA_FETCHED, fetched);
+            return values;
+        }
+    }
+
+    /** Snapshot of the cache counters. */
+    public static class Stats {
+        public final long hits;
+        public final long revalidations;
+        public final long misses;
+        public final long bytesSaved;
+
+        Stats(long hits, long revalidations, long misses, long bytesSaved) {
+            this.hits = hits;
+            this.revalidations = revalidations;
+            this.misses = misses;
+            this.bytesSaved = bytesSaved;
+        }
+
+        /** Returns the share of lookups served without a full fetch, counting 304s as hits. */
+        public double getHitRate() {
+            long lookups = hits + revalidations + misses;
+            return lookups == 0 ? 0 : (double) (hits + revalidations) / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return hits + " hits, " + revalidations + " revalidated, " + misses + " misses, hit rate "
+                    + Math.round(getHitRate() * 100) + "%, " + bytesSaved + " bytes saved";
+        }
+    }
+}
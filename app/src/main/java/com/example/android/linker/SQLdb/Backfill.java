@@ -0,0 +1,24 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Data rewrite of a schema upgrade too heavy to run inside {@link LinkDbStructure#onUpgrade}.
+ * The upgrade schedules it through {@link Migrations#schedule}, and {@link Migrations#run} works through the rows
+ * afterwards, a chunk at a time.
+ */
+interface Backfill {
+
+    /** Name the progress of the backfill is kept under in the {@link LinkContract.MigrationEntry} table. */
+    String getName();
+
+    /**
+     * Rewrites the next rows after the checkpoint. Runs inside the transaction that records the new checkpoint, so a
+     * chunk is either done and recorded or not done at all. Must stay small, as it holds the writer.
+     * @param db
+     * @param checkpoint Id of the last row done.
+     * @param target Id of the last row to do.
+     * @return long - The new checkpoint, the target once no rows are left.
+     */
+    long runChunk(SQLiteDatabase db, long checkpoint, long target);
+}
@@ -0,0 +1,72 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.linker.SQLdb.LinkContract.ChangeEntry;
+import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+
+/**
+ * Keeps the change log of the link table.
+ * Triggers replace the entry of a row on every insert, update and delete, so the log holds the latest change of each row
+ * and compacts itself as rows change. Only the entries of deleted rows pile up, and {@link #compact(LinkWriter)} drops
+ * the oldest of them.
+ */
+final class ChangeLog {
+
+    /** Sequence number of the newest deleted row past the ones kept, if any. */
+    private static final String SELECT_HORIZON = "SELECT " + ChangeEntry.COLUMN_SEQ + " FROM " + ChangeEntry.TABLE_NAME
+            + " WHERE " + ChangeEntry.COLUMN_DELETED + " = 1 ORDER BY " + ChangeEntry.COLUMN_SEQ + " DESC LIMIT 1 OFFSET " + ChangeEntry.MAX_DELETED;
+
+    /** Drops the deleted rows up to a sequence number, the compaction mark included. */
+    private static final String DELETE_UP_TO = "DELETE FROM " + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry.COLUMN_DELETED
+            + " = 1 AND " + ChangeEntry.COLUMN_SEQ + " <= ?";
+
+    /** Marks the log as compacted up to a sequence number. */
+    private static final String INSERT_MARK = "INSERT OR REPLACE INTO " + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_SEQ + ", "
+            + ChangeEntry.COLUMN_ROW_ID + ", " + ChangeEntry.COLUMN_DELETED + ") VALUES (?, " + ChangeEntry.ROW_ID_COMPACTED + ", 1)";
+
+    private ChangeLog() {}
+
+    /**
+     * Creates the log and the triggers writing it. The sequence number is the primary key, so the entries after a
+     * number are a range of the table. Autoincrement keeps the numbers of deleted entries from being reused.
+     * @param db
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry.COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ChangeEntry.COLUMN_ROW_ID + " INTEGER NOT NULL UNIQUE, "
+                + ChangeEntry.COLUMN_DELETED + " INTEGER NOT NULL DEFAULT(0));");
+        db.execSQL("CREATE INDEX " + ChangeEntry.INDEX_DELETED + " ON " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry.COLUMN_DELETED + ", " + ChangeEntry.COLUMN_SEQ + ");");
+
+        // Replacing the entry of the row gives it the next sequence number.
+        String log = " BEGIN INSERT OR REPLACE INTO " + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_ROW_ID + ", "
+                + ChangeEntry.COLUMN_DELETED + ") VALUES (%s." + LinkEntry._ID + ", %d); END;";
+        db.execSQL("CREATE TRIGGER link_changes_after_insert AFTER INSERT ON " + LinkEntry.TABLE_NAME + String.format(log, "new", 0));
+        db.execSQL("CREATE TRIGGER link_changes_after_update AFTER UPDATE ON " + LinkEntry.TABLE_NAME + String.format(log, "new", 0));
+        db.execSQL("CREATE TRIGGER link_changes_after_delete AFTER DELETE ON " + LinkEntry.TABLE_NAME + String.format(log, "old", 1));
+    }
+
+    /**
+     * Drops the oldest deleted rows beyond {@link ChangeEntry#MAX_DELETED} and marks the log as compacted up to them.
+     * Must be called inside the transaction of a delete.
+     * @param writer Held by the calling thread.
+     */
+    static void compact(LinkWriter writer) {
+        long horizon;
+        try {
+            horizon = writer.statement(SELECT_HORIZON).simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return;
+        }
+        SQLiteStatement delete = writer.statement(DELETE_UP_TO);
+        delete.bindLong(1, horizon);
+        delete.executeUpdateDelete();
+        SQLiteStatement mark = writer.statement(INSERT_MARK);
+        mark.bindLong(1, horizon);
+        mark.execute();
+    }
+}
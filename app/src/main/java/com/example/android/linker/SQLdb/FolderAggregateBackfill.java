@@ -0,0 +1,40 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+
+/**
+ * Fills the date and aggregate columns added in version 9, in place of a pass over every row in the upgrade.
+ * Rows from before the date column take the time they were last fetched, 0 for the oldest ones. The aggregates of the
+ * folders are then counted from the closure table, so this backfill runs after the {@link FolderTreeBackfill}.
+ * Until a folder is reached, its aggregate columns only count the rows written since the upgrade, as the triggers
+ * keep them from then on.
+ */
+final class FolderAggregateBackfill implements Backfill {
+
+    /** Name of the backfill in the {@link LinkContract.MigrationEntry} table. */
+    static final String NAME = "folder_aggregates";
+
+    /** Rows per chunk. Each folder counts its subtree, so the chunk is smaller than a chunk of links. */
+    private static final int CHUNK_SIZE = 100;
+
+    /** Dates the rows of a range of ids, with the checkpoint and the end of the chunk as arguments. */
+    private static final String COPY_DATES = "UPDATE " + LinkEntry.TABLE_NAME + " SET " + LinkEntry.COLUMN_LINK_DATE + " = "
+            + LinkEntry.COLUMN_LINK_REFRESHED + " WHERE " + LinkEntry._ID + " > ? AND " + LinkEntry._ID + " <= ? AND "
+            + LinkEntry.COLUMN_LINK_DATE + " = 0";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long runChunk(SQLiteDatabase db, long checkpoint, long target) {
+        long end = Migrations.chunkEnd(db, LinkEntry.TABLE_NAME, checkpoint, target, CHUNK_SIZE);
+        // The date triggers carry the new dates up to the folders reached already.
+        db.execSQL(COPY_DATES, new Object[] {checkpoint, end});
+        FolderTree.computeAggregates(db, checkpoint, end);
+        return end;
+    }
+}
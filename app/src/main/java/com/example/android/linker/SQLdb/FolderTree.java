@@ -0,0 +1,333 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.linker.SQLdb.LinkContract.FolderTreeEntry;
+import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+
+import java.util.Collection;
+
+/**
+ * Keeps the closure table of the folder hierarchy in sync with the link table.
+ * Inserting a row costs one row per folder above it. Moving or deleting a folder rewrites the rows of its subtree with
+ * a couple of set based statements instead of walking the tree. The methods taking the {@link LinkWriter} must be called
+ * inside the transaction of the write they follow, and run on its compiled statements.
+ * Triggers on the closure table keep the aggregate columns of every folder above a changed row up to date, so the list
+ * never counts the rows of a folder.
+ */
+final class FolderTree {
+
+    /** Levels followed when the tree is read from the folder ids, which also stops a corrupt cycle. */
+    private static final int MAX_DEPTH = 1000;
+
+    /** The ids of a row and of every row under it, with the id of the row as its argument. */
+    private static final String SUBTREE_IDS = "SELECT " + FolderTreeEntry.COLUMN_DESCENDANT + " FROM " + FolderTreeEntry.TABLE_NAME
+            + " WHERE " + FolderTreeEntry.COLUMN_ANCESTOR + " = ?";
+
+    /** Selection of a row of the link table and every row under it, with the id of the row as its argument. */
+    static final String SELECTION_SUBTREE = LinkEntry._ID + " IN (" + SUBTREE_IDS + ")";
+
+    /** Same as {@link #SELECTION_SUBTREE}, read from the folder ids. */
+    static final String SELECTION_SUBTREE_WALK = LinkEntry._ID + " IN (SELECT " + FolderTreeEntry.COLUMN_DESCENDANT
+            + " FROM (" + walkDown(LinkEntry._ID + " = ?") + "))";
+
+    /** The type of a row, with its id as the argument. */
+    private static final String SELECT_TYPE = "SELECT " + LinkEntry.COLUMN_LINK_DATA_TYPE + " FROM " + LinkEntry.TABLE_NAME
+            + " WHERE " + LinkEntry._ID + " = ?";
+
+    /** Whether a row is under another, with the ids of the upper and lower rows as arguments. */
+    private static final String SELECT_IS_UNDER = "SELECT count(*) FROM " + FolderTreeEntry.TABLE_NAME + " WHERE "
+            + FolderTreeEntry.COLUMN_ANCESTOR + " = ? AND " + FolderTreeEntry.COLUMN_DESCENDANT + " = ?";
+
+    private static final String INSERT_COLUMNS = "INSERT INTO " + FolderTreeEntry.TABLE_NAME + " (" + FolderTreeEntry.COLUMN_ANCESTOR
+            + ", " + FolderTreeEntry.COLUMN_DESCENDANT + ", " + FolderTreeEntry.COLUMN_DEPTH + ")";
+
+    /** Pairs a new row with itself, with its id as both arguments. */
+    private static final String INSERT_SELF = INSERT_COLUMNS + " VALUES (?, ?, 0)";
+
+    /** Pairs a new row with every folder above it, with the ids of the row and of its folder as arguments. */
+    private static final String INSERT_UNDER = INSERT_COLUMNS + " SELECT " + FolderTreeEntry.COLUMN_ANCESTOR + ", ?, "
+            + FolderTreeEntry.COLUMN_DEPTH + " + 1 FROM " + FolderTreeEntry.TABLE_NAME + " WHERE " + FolderTreeEntry.COLUMN_DESCENDANT + " = ?";
+
+    /** Detaches a subtree from the folders above it, with the id of its top row as both arguments. */
+    private static final String DELETE_ABOVE_SUBTREE = "DELETE FROM " + FolderTreeEntry.TABLE_NAME + " WHERE "
+            + FolderTreeEntry.COLUMN_DESCENDANT + " IN (" + SUBTREE_IDS + ") AND " + FolderTreeEntry.COLUMN_ANCESTOR + " NOT IN (" + SUBTREE_IDS + ")";
+
+    /** Attaches a subtree under a folder and every folder above it, with the ids of the folder and of the top row as arguments. */
+    private static final String INSERT_SUBTREE = INSERT_COLUMNS
+            + " SELECT above." + FolderTreeEntry.COLUMN_ANCESTOR + ", below." + FolderTreeEntry.COLUMN_DESCENDANT
+            + ", above." + FolderTreeEntry.COLUMN_DEPTH + " + below." + FolderTreeEntry.COLUMN_DEPTH + " + 1"
+            + " FROM " + FolderTreeEntry.TABLE_NAME + " AS above JOIN " + FolderTreeEntry.TABLE_NAME + " AS below"
+            + " WHERE above." + FolderTreeEntry.COLUMN_DESCENDANT + " = ? AND below." + FolderTreeEntry.COLUMN_ANCESTOR + " = ?";
+
+    /** Removes a row from the tree, with its id as the argument. */
+    private static final String DELETE_ROW = "DELETE FROM " + FolderTreeEntry.TABLE_NAME + " WHERE " + FolderTreeEntry.COLUMN_DESCENDANT + " = ?";
+
+    /** Joins the link table to the closure rows of its ancestors, for queries of the rows under a folder. */
+    static final String TABLES_SUBTREE = LinkEntry.TABLE_NAME + " JOIN " + FolderTreeEntry.TABLE_NAME + " ON "
+            + LinkEntry.TABLE_NAME + "." + LinkEntry._ID + " = " + FolderTreeEntry.TABLE_NAME + "." + FolderTreeEntry.COLUMN_DESCENDANT;
+
+    private FolderTree() {}
+
+    /**
+     * Creates the closure table. The primary key serves the lookups below a folder and the descendant index the lookups
+     * above a row. The table has no rowid, so each row is stored once, in the primary key.
+     * @param db
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + FolderTreeEntry.TABLE_NAME + " ("
+                + FolderTreeEntry.COLUMN_ANCESTOR + " INTEGER NOT NULL, "
+                + FolderTreeEntry.COLUMN_DESCENDANT + " INTEGER NOT NULL, "
+                + FolderTreeEntry.COLUMN_DEPTH + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + FolderTreeEntry.COLUMN_ANCESTOR + ", " + FolderTreeEntry.COLUMN_DESCENDANT + ")) WITHOUT ROWID;");
+        db.execSQL("CREATE INDEX " + FolderTreeEntry.INDEX_DESCENDANT + " ON " + FolderTreeEntry.TABLE_NAME + " ("
+                + FolderTreeEntry.COLUMN_DESCENDANT + ", " + FolderTreeEntry.COLUMN_DEPTH + ");");
+    }
+
+    /**
+     * Creates the triggers keeping the aggregate columns of the folders up to date.
+     * Every closure row added or removed adds or removes one row under one folder, so the counts only need the row at
+     * hand. The latest date only grows on the way in. On the way out it is read again from the subtree, only when the
+     * removed link held it.
+     * @param db
+     */
+    static void createAggregateTriggers(SQLiteDatabase db) {
+        String isLink = "coalesce((SELECT " + LinkEntry.COLUMN_LINK_DATA_TYPE + " = " + LinkEntry.TYPE_LINK + " FROM "
+                + LinkEntry.TABLE_NAME + " WHERE " + LinkEntry._ID + " = %1$s." + FolderTreeEntry.COLUMN_DESCENDANT + "), 0)";
+        String linkDate = "(SELECT " + LinkEntry.COLUMN_LINK_DATE + " FROM " + LinkEntry.TABLE_NAME + " WHERE " + LinkEntry._ID
+                + " = %1$s." + FolderTreeEntry.COLUMN_DESCENDANT + " AND " + LinkEntry.COLUMN_LINK_DATA_TYPE + " = " + LinkEntry.TYPE_LINK + ")";
+        String isChild = "(%1$s." + FolderTreeEntry.COLUMN_DEPTH + " = 1)";
+        String ofAncestor = " WHERE " + LinkEntry._ID + " = %1$s." + FolderTreeEntry.COLUMN_ANCESTOR + ";";
+
+        db.execSQL(String.format("CREATE TRIGGER folder_tree_after_insert AFTER INSERT ON " + FolderTreeEntry.TABLE_NAME
+                + " WHEN new." + FolderTreeEntry.COLUMN_DEPTH + " > 0 BEGIN UPDATE " + LinkEntry.TABLE_NAME + " SET "
+                + LinkEntry.COLUMN_LINK_CHILD_COUNT + " = " + LinkEntry.COLUMN_LINK_CHILD_COUNT + " + " + isChild + ", "
+                + LinkEntry.COLUMN_LINK_LINK_COUNT + " = " + LinkEntry.COLUMN_LINK_LINK_COUNT + " + " + isLink + ", "
+                + LinkEntry.COLUMN_LINK_LATEST_DATE + " = max(" + LinkEntry.COLUMN_LINK_LATEST_DATE + ", coalesce(" + linkDate + ", 0))"
+                + ofAncestor + " END;", "new"));
+        db.execSQL(String.format("CREATE TRIGGER folder_tree_after_delete AFTER DELETE ON " + FolderTreeEntry.TABLE_NAME
+                + " WHEN old." + FolderTreeEntry.COLUMN_DEPTH + " > 0 BEGIN UPDATE " + LinkEntry.TABLE_NAME + " SET "
+                + LinkEntry.COLUMN_LINK_CHILD_COUNT + " = " + LinkEntry.COLUMN_LINK_CHILD_COUNT + " - " + isChild + ", "
+                + LinkEntry.COLUMN_LINK_LINK_COUNT + " = " + LinkEntry.COLUMN_LINK_LINK_COUNT + " - " + isLink + ofAncestor
+                + " UPDATE " + LinkEntry.TABLE_NAME + " SET " + LinkEntry.COLUMN_LINK_LATEST_DATE + " = "
+                + latestDateUnder("old." + FolderTreeEntry.COLUMN_ANCESTOR) + " WHERE " + LinkEntry._ID + " = old."
+                + FolderTreeEntry.COLUMN_ANCESTOR + " AND " + LinkEntry.COLUMN_LINK_LATEST_DATE + " = " + linkDate + "; END;", "old"));
+
+        // A later date is carried up as is, an earlier one only matters to the folders whose latest date it was.
+        db.execSQL("CREATE TRIGGER link_date_after_update AFTER UPDATE OF " + LinkEntry.COLUMN_LINK_DATE + " ON " + LinkEntry.TABLE_NAME
+                + " WHEN new." + LinkEntry.COLUMN_LINK_DATA_TYPE + " = " + LinkEntry.TYPE_LINK + " BEGIN UPDATE " + LinkEntry.TABLE_NAME
+                + " SET " + LinkEntry.COLUMN_LINK_LATEST_DATE + " = CASE"
+                + " WHEN new." + LinkEntry.COLUMN_LINK_DATE + " >= " + LinkEntry.COLUMN_LINK_LATEST_DATE + " THEN new." + LinkEntry.COLUMN_LINK_DATE
+                + " WHEN " + LinkEntry.COLUMN_LINK_LATEST_DATE + " = old." + LinkEntry.COLUMN_LINK_DATE
+                + " THEN " + latestDateUnder(LinkEntry.TABLE_NAME + "." + LinkEntry._ID)
+                + " ELSE " + LinkEntry.COLUMN_LINK_LATEST_DATE + " END"
+                + " WHERE " + LinkEntry._ID + " IN (SELECT " + FolderTreeEntry.COLUMN_ANCESTOR + " FROM " + FolderTreeEntry.TABLE_NAME
+                + " WHERE " + FolderTreeEntry.COLUMN_DESCENDANT + " = new." + LinkEntry._ID + " AND " + FolderTreeEntry.COLUMN_DEPTH + " > 0); END;");
+    }
+
+    /**
+     * Fills the aggregate columns of the folders of a range of ids from the closure table, for databases from before the
+     * columns existed. The closure table must be complete.
+     * @param db
+     * @param fromId Id before the first folder of the range.
+     * @param toId Id of the last folder of the range.
+     */
+    static void computeAggregates(SQLiteDatabase db, long fromId, long toId) {
+        String folder = LinkEntry.TABLE_NAME + "." + LinkEntry._ID;
+        db.execSQL("UPDATE " + LinkEntry.TABLE_NAME + " SET "
+                + LinkEntry.COLUMN_LINK_CHILD_COUNT + " = (SELECT count(*) FROM " + LinkEntry.TABLE_NAME + " AS child WHERE child."
+                + LinkEntry.COLUMN_LINK_FOLDER_ID + " = " + folder + "), "
+                + LinkEntry.COLUMN_LINK_LINK_COUNT + " = (SELECT count(*)" + linksUnder(folder) + "), "
+                + LinkEntry.COLUMN_LINK_LATEST_DATE + " = " + latestDateUnder(folder)
+                + " WHERE " + LinkEntry.COLUMN_LINK_DATA_TYPE + " = " + LinkEntry.TYPE_FOLDER
+                + " AND " + LinkEntry._ID + " > ? AND " + LinkEntry._ID + " <= ?;", new Object[] {fromId, toId});
+    }
+
+    /** Returns the FROM and WHERE clauses of the links under a folder, aliased as below. */
+    private static String linksUnder(String folderId) {
+        return " FROM " + FolderTreeEntry.TABLE_NAME + " JOIN " + LinkEntry.TABLE_NAME + " AS below ON below." + LinkEntry._ID
+                + " = " + FolderTreeEntry.TABLE_NAME + "." + FolderTreeEntry.COLUMN_DESCENDANT
+                + " WHERE " + FolderTreeEntry.TABLE_NAME + "." + FolderTreeEntry.COLUMN_ANCESTOR + " = " + folderId
+                + " AND " + FolderTreeEntry.TABLE_NAME + "." + FolderTreeEntry.COLUMN_DEPTH + " > 0"
+                + " AND below." + LinkEntry.COLUMN_LINK_DATA_TYPE + " = " + LinkEntry.TYPE_LINK;
+    }
+
+    /** Returns the query of the latest date of the links under a folder, 0 when it holds none. */
+    private static String latestDateUnder(String folderId) {
+        return "(SELECT coalesce(max(below." + LinkEntry.COLUMN_LINK_DATE + "), 0)" + linksUnder(folderId) + ")";
+    }
+
+    /**
+     * Clears the folder ids of a range of rows that point to missing rows, so that every row ends up in the tree.
+     * For databases from before the closure table existed.
+     * @param db
+     * @param fromId Id before the first row of the range.
+     * @param toId Id of the last row of the range.
+     */
+    static void clearMissingFolders(SQLiteDatabase db, long fromId, long toId) {
+        db.execSQL("UPDATE " + LinkEntry.TABLE_NAME + " SET " + LinkEntry.COLUMN_LINK_FOLDER_ID + " = NULL WHERE "
+                + LinkEntry._ID + " > ? AND " + LinkEntry._ID + " <= ? AND "
+                + LinkEntry.COLUMN_LINK_FOLDER_ID + " NOT IN (SELECT " + LinkEntry._ID + " FROM " + LinkEntry.TABLE_NAME
+                + " WHERE " + LinkEntry.COLUMN_LINK_DATA_TYPE + " = " + LinkEntry.TYPE_FOLDER + ");", new Object[] {fromId, toId});
+    }
+
+    /**
+     * Adds the rows pairing the selected rows with themselves and every folder above them, walking up their folder ids,
+     * for databases from before the closure table existed. Rows already in the table are left as they are, so a row
+     * may be added ahead of the others and again with them.
+     * @param db
+     * @param selection Selection of the link table.
+     * @param selectionArgs
+     */
+    static void insertAncestors(SQLiteDatabase db, String selection, Object[] selectionArgs) {
+        db.execSQL("WITH RECURSIVE up(ancestor, descendant, depth) AS ("
+                + "SELECT " + LinkEntry._ID + ", " + LinkEntry._ID + ", 0 FROM " + LinkEntry.TABLE_NAME + " WHERE " + selection
+                + " UNION ALL SELECT parent." + LinkEntry._ID + ", up.descendant, up.depth + 1 FROM up"
+                + " JOIN " + LinkEntry.TABLE_NAME + " AS child ON child." + LinkEntry._ID + " = up.ancestor"
+                + " JOIN " + LinkEntry.TABLE_NAME + " AS parent ON parent." + LinkEntry._ID + " = child." + LinkEntry.COLUMN_LINK_FOLDER_ID
+                + " AND parent." + LinkEntry.COLUMN_LINK_DATA_TYPE + " = " + LinkEntry.TYPE_FOLDER
+                + " WHERE up.depth < " + MAX_DEPTH + ") "
+                + "INSERT OR IGNORE INTO " + FolderTreeEntry.TABLE_NAME + " (" + FolderTreeEntry.COLUMN_ANCESTOR + ", "
+                + FolderTreeEntry.COLUMN_DESCENDANT + ", " + FolderTreeEntry.COLUMN_DEPTH + ") SELECT ancestor, descendant, depth FROM up;",
+                selectionArgs);
+    }
+
+    /**
+     * Returns the query of the rows of the closure table under the selected rows, read from the folder ids instead,
+     * for the queries that cannot rely on the closure table while it is being built.
+     * @param selection Selection of the top rows in the link table.
+     * @return String - A query with the columns of the closure table.
+     */
+    private static String walkDown(String selection) {
+        return "WITH RECURSIVE below(ancestor, descendant, depth) AS ("
+                + "SELECT " + LinkEntry._ID + ", " + LinkEntry._ID + ", 0 FROM " + LinkEntry.TABLE_NAME + " WHERE " + selection
+                + " UNION ALL SELECT below.ancestor, " + LinkEntry.TABLE_NAME + "." + LinkEntry._ID + ", below.depth + 1 FROM below JOIN "
+                + LinkEntry.TABLE_NAME + " ON " + LinkEntry.TABLE_NAME + "." + LinkEntry.COLUMN_LINK_FOLDER_ID + " = below.descendant"
+                + " WHERE below.depth < " + MAX_DEPTH + ") SELECT ancestor AS " + FolderTreeEntry.COLUMN_ANCESTOR
+                + ", descendant AS " + FolderTreeEntry.COLUMN_DESCENDANT + ", depth AS " + FolderTreeEntry.COLUMN_DEPTH + " FROM below";
+    }
+
+    /**
+     * Same as {@link #TABLES_SUBTREE} for the rows under a single row, read from the folder ids.
+     * @param id Id of the top row.
+     * @return String
+     */
+    static String tablesSubtreeWalk(long id) {
+        return LinkEntry.TABLE_NAME + " JOIN (" + walkDown(LinkEntry._ID + " = " + id) + ") AS " + FolderTreeEntry.TABLE_NAME
+                + " ON " + LinkEntry.TABLE_NAME + "." + LinkEntry._ID + " = " + FolderTreeEntry.TABLE_NAME + "." + FolderTreeEntry.COLUMN_DESCENDANT;
+    }
+
+    /**
+     * Same as {@link #widenToSubtrees(String)}, read from the folder ids.
+     * @param selection Selection of the link table, or null for every row.
+     * @return String - The widened selection, taking the same arguments.
+     */
+    static String widenToSubtreesWalk(String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return LinkEntry._ID + " IN (SELECT " + FolderTreeEntry.COLUMN_DESCENDANT + " FROM (" + walkDown("(" + selection + ")") + "))";
+    }
+
+    /**
+     * Checks that a row can go in a folder.
+     * @param writer Held by the calling thread.
+     * @param folderId Id of the folder, or null for the top level.
+     * @throws IllegalArgumentException When the id is not the id of a folder.
+     */
+    static void checkFolder(LinkWriter writer, Long folderId) {
+        if (folderId == null) {
+            return;
+        }
+        SQLiteStatement type = writer.statement(SELECT_TYPE);
+        type.bindLong(1, folderId);
+        try {
+            if (type.simpleQueryForLong() == LinkEntry.TYPE_FOLDER) {
+                return;
+            }
+        } catch (SQLiteDoneException e) {
+            // No row has the id.
+        }
+        throw new IllegalArgumentException(folderId + " is not a folder.");
+    }
+
+    /**
+     * Adds a new row under its folder and every folder above it.
+     * @param writer Held by the calling thread.
+     * @param id Id of the new row.
+     * @param folderId Id of its folder, or null for the top level.
+     */
+    static void insert(LinkWriter writer, long id, Long folderId) {
+        SQLiteStatement self = writer.statement(INSERT_SELF);
+        self.bindLong(1, id);
+        self.bindLong(2, id);
+        self.execute();
+        if (folderId != null) {
+            SQLiteStatement under = writer.statement(INSERT_UNDER);
+            under.bindLong(1, id);
+            under.bindLong(2, folderId);
+            under.execute();
+        }
+    }
+
+    /**
+     * Moves a row and everything under it to another folder. The subtree keeps its inner rows and only the rows pairing it
+     * with the folders above are replaced.
+     * @param writer Held by the calling thread.
+     * @param id Id of the moved row.
+     * @param folderId Id of the new folder, or null for the top level.
+     * @throws IllegalArgumentException When the folder is the row itself or under it.
+     */
+    static void move(LinkWriter writer, long id, Long folderId) {
+        checkFolder(writer, folderId);
+        if (folderId != null) {
+            SQLiteStatement isUnder = writer.statement(SELECT_IS_UNDER);
+            isUnder.bindLong(1, id);
+            isUnder.bindLong(2, folderId);
+            if (isUnder.simpleQueryForLong() > 0) {
+                throw new IllegalArgumentException("Unable to move " + id + " into " + folderId + ", which is under it.");
+            }
+        }
+        SQLiteStatement detach = writer.statement(DELETE_ABOVE_SUBTREE);
+        detach.bindLong(1, id);
+        detach.bindLong(2, id);
+        detach.executeUpdateDelete();
+        if (folderId != null) {
+            SQLiteStatement attach = writer.statement(INSERT_SUBTREE);
+            attach.bindLong(1, folderId);
+            attach.bindLong(2, id);
+            attach.execute();
+        }
+    }
+
+    /**
+     * Removes rows about to be deleted from the tree. Their subtrees must be deleted along with them.
+     * The rows must still be in the link table, the triggers read their type and date to update the folders above.
+     * @param writer Held by the calling thread.
+     * @param ids Ids of the deleted rows.
+     */
+    static void remove(LinkWriter writer, Collection<Long> ids) {
+        SQLiteStatement delete = writer.statement(DELETE_ROW);
+        for (long id : ids) {
+            delete.bindLong(1, id);
+            delete.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Widens a selection of the link table to everything under the selected rows, so deleting a folder deletes its
+     * subtree with it.
+     * @param selection Selection of the link table, or null for every row.
+     * @return String - The widened selection, taking the same arguments.
+     */
+    static String widenToSubtrees(String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return LinkEntry._ID + " IN (SELECT " + FolderTreeEntry.COLUMN_DESCENDANT + " FROM " + FolderTreeEntry.TABLE_NAME
+                + " WHERE " + FolderTreeEntry.COLUMN_ANCESTOR + " IN (SELECT " + LinkEntry._ID + " FROM " + LinkEntry.TABLE_NAME
+                + " WHERE " + selection + "))";
+    }
+}
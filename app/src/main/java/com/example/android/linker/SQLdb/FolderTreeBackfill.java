@@ -0,0 +1,72 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+
+/**
+ * Fills the closure table of the {@link FolderTree} for links saved before version 8, in place of building it whole in
+ * the upgrade. Each chunk adds the rows pairing its links with every folder above them, so the aggregate triggers
+ * count them into those folders as they go.
+ * Until it is done, the queries of a subtree read the folder ids instead, and a write moving rows around or adding a
+ * row under a folder first adds the rows it depends on, see {@link LinkProvider}. The aggregate columns of the folders
+ * only count the rows added so far.
+ */
+final class FolderTreeBackfill implements Backfill {
+
+    /** Name of the backfill in the {@link LinkContract.MigrationEntry} table. */
+    static final String NAME = "folder_tree";
+
+    /** Links added per chunk. Each walks up its folders, a few rows for most links. */
+    private static final int CHUNK_SIZE = 200;
+
+    /** Selection of a range of ids, with the checkpoint and the end of the chunk as arguments. */
+    private static final String SELECTION_RANGE = LinkEntry._ID + " > ? AND " + LinkEntry._ID + " <= ?";
+
+    /** Set once the backfill is seen done, as it never starts again in the same process. Spares the writes a query. */
+    private volatile boolean done;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long runChunk(SQLiteDatabase db, long checkpoint, long target) {
+        long end = Migrations.chunkEnd(db, LinkEntry.TABLE_NAME, checkpoint, target, CHUNK_SIZE);
+        FolderTree.clearMissingFolders(db, checkpoint, end);
+        FolderTree.insertAncestors(db, SELECTION_RANGE, new Object[] {checkpoint, end});
+        return end;
+    }
+
+    /**
+     * Returns whether the closure table is still being built.
+     * @param db
+     * @return boolean
+     */
+    boolean isPending(SQLiteDatabase db) {
+        if (!done) {
+            done = !Migrations.isPending(db, NAME);
+        }
+        return !done;
+    }
+
+    /**
+     * Adds a row to the tree ahead of its chunk, for a write adding a row under it. Must be called inside a transaction.
+     * @param db
+     * @param id
+     */
+    void addRow(SQLiteDatabase db, long id) {
+        FolderTree.insertAncestors(db, LinkEntry._ID + " = ?", new Object[] {id});
+    }
+
+    /**
+     * Adds a row and every row under it to the tree ahead of their chunks, for a write moving the row.
+     * Must be called inside a transaction.
+     * @param db
+     * @param id
+     */
+    void addSubtree(SQLiteDatabase db, long id) {
+        FolderTree.insertAncestors(db, FolderTree.SELECTION_SUBTREE_WALK, new Object[] {id});
+    }
+}
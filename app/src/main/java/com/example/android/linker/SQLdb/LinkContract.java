@@ -5,6 +5,7 @@ package com.example.android.linker.SQLdb;
  */
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -38,6 +39,24 @@ public final class LinkContract {
         /** The content uri that provides access to the link database */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, APPEND_LINK_PATH);
 
+        /** The path appended to {@link #CONTENT_URI} to search the titles and urls, followed by the query. */
+        public static final String APPEND_SEARCH_PATH = "search";
+
+        /** The path appended to the uri of a row to read its thumbnail as a file. */
+        public static final String APPEND_THUMBNAIL_PATH = "thumbnail";
+
+        /** The path appended to the uri of a folder to query every row under it, at any depth. */
+        public static final String APPEND_SUBTREE_PATH = "subtree";
+
+        /**
+         * Query parameter limiting the number of rows returned by {@link #CONTENT_URI} and the search uri.
+         * The search uri defaults to {@link #DEFAULT_SEARCH_LIMIT}.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /** Number of search results returned when the uri does not set {@link #QUERY_PARAMETER_LIMIT}. */
+        public static final int DEFAULT_SEARCH_LIMIT = 100;
+
         /**
          * Custom MIME data type of the {@link #CONTENT_URI} used by content providers.
          * The constant defines a type that is a cursor with multiple data entries.
@@ -77,15 +96,142 @@ public final class LinkContract {
         /** Url obtained from the HTML scrapped data */
         public static final String COLUMN_LINK_URL = "url";
 
-        /** Image url obtained from scrapped data */
+        /**
+         * Thumbnail bytes obtained from scrapped data.
+         * Only used as a {@link android.content.ContentValues} key on insert and update. The provider moves
+         * the bytes into the {@link ThumbnailStore} and keeps {@link #COLUMN_LINK_IMAGE_HASH} in the table.
+         */
         public static final String COLUMN_LINK_IMAGE = "image";
 
-        /** Date of insertion into the database */
+        /**
+         * Content hash of the downloaded image the thumbnail bytes were encoded from, see {@link ThumbnailStore#hash(byte[])}.
+         * Only used as a {@link android.content.ContentValues} key alongside {@link #COLUMN_LINK_IMAGE}. The provider
+         * records it in the {@link ThumbnailSourceEntry} table, so the next link sharing the image skips its decode and encode.
+         */
+        public static final String COLUMN_LINK_IMAGE_SOURCE = "image_source";
+
+        /**
+         * Content hash of the thumbnail held by the {@link ThumbnailStore}.
+         * Type: TEXT
+         */
+        public static final String COLUMN_LINK_IMAGE_HASH = "image_hash";
+
+        /**
+         * Time the row was added, or last edited by the user, in milliseconds since the epoch. Set on insert when missing.
+         * Type: INTEGER
+         */
         public static final String COLUMN_LINK_DATE = "date";
 
-        /** Name of parent folder */
+        /**
+         * Number of rows directly in a folder, 0 for a link. Kept up to date by the database, never written by clients.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LINK_CHILD_COUNT = "child_count";
+
+        /**
+         * Number of links under a folder at any depth, 0 for a link. Kept up to date by the database, never written by clients.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LINK_LINK_COUNT = "link_count";
+
+        /**
+         * Latest {@link #COLUMN_LINK_DATE} of the links under a folder at any depth, 0 when it holds none.
+         * Kept up to date by the database, never written by clients.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LINK_LATEST_DATE = "latest_date";
+
+        /**
+         * Id of the parent folder, or null at the top level. Must be the id of a folder.
+         * Updating it moves the row along with everything under it.
+         */
         public static final String COLUMN_LINK_FOLDER_ID = "folder_id";
 
+        /**
+         * Title of the page when it was last fetched, which the refresh compares the title with to tell whether the user
+         * renamed the link. Null when unknown, for a link entered by hand or saved before the column existed.
+         * Type: TEXT
+         */
+        public static final String COLUMN_LINK_SCRAPED_TITLE = "scraped_title";
+
+        /**
+         * Time the title and thumbnail were last fetched, in milliseconds since the epoch. Set on insert when missing.
+         * Rows from before the column existed hold 0, so they are refreshed first.
+         */
+        public static final String COLUMN_LINK_REFRESHED = "refreshed";
+
+        /**
+         * Sort order of the link list. The id breaks ties between equal titles so the order is stable.
+         */
+        public static final String SORT_ORDER_TITLE = COLUMN_LINK_TITLE + ", " + _ID;
+
+        /**
+         * Selection of the rows following a row in {@link #SORT_ORDER_TITLE}, used to load the list a page at a time.
+         * Its arguments are the title of that row, the same title again, and its id.
+         * The first condition lets the title index seek straight to the page instead of skipping the rows before it.
+         */
+        public static final String SELECTION_AFTER_TITLE = COLUMN_LINK_TITLE + " >= ? AND (" + COLUMN_LINK_TITLE + " > ? OR " + _ID + " > ?)";
+
+        /** Index serving the title sorted list. */
+        public static final String INDEX_TITLE = "link_title_index";
+
+        /**
+         * Index serving the list of a single folder. It covers the list projection like {@link #INDEX_TITLE},
+         * the aggregate columns of the folders included.
+         */
+        public static final String INDEX_FOLDER = "link_folder_index";
+
+        /** Selection of the top level rows, which are in no folder. */
+        public static final String SELECTION_TOP_LEVEL = COLUMN_LINK_FOLDER_ID + " IS NULL";
+
+        /** Selection of the rows directly in a folder, with the id of the folder as its argument. */
+        public static final String SELECTION_IN_FOLDER = COLUMN_LINK_FOLDER_ID + " = ?";
+
+        /** Projection counting the rows of a query, such as everything under a folder. */
+        public static final String[] PROJECTION_COUNT = {"count(*)"};
+
+        /**
+         * Selection of the links last refreshed before a time, with that time in milliseconds as its argument.
+         * Folders have no page to refresh.
+         */
+        public static final String SELECTION_STALE = COLUMN_LINK_REFRESHED + " < ? AND " + COLUMN_LINK_DATA_TYPE + " = " + TYPE_LINK;
+
+        /** Sort order of the stale links, the least recently refreshed first. */
+        public static final String SORT_ORDER_REFRESHED = COLUMN_LINK_REFRESHED + ", " + _ID;
+
+        /** Index serving the least recently refreshed links. */
+        public static final String INDEX_REFRESHED = "link_refreshed_index";
+
+        /**
+         * Builds the uri searching the titles and urls of the links.
+         * Every word of the query matches as a prefix, and the results are ranked by the number of matches.
+         * @param query Words typed by the user.
+         * @return Uri
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(APPEND_SEARCH_PATH).appendPath(query).build();
+        }
+
+        /**
+         * Builds the uri querying every row under a folder, at any depth, without the folder itself.
+         * The query may select and sort on {@link FolderTreeEntry#COLUMN_DEPTH} as well, 1 for the rows directly in the folder.
+         * Supports {@link #QUERY_PARAMETER_LIMIT}.
+         * @param folderId Row id of the folder.
+         * @return Uri
+         */
+        public static Uri buildSubtreeUri(long folderId) {
+            return ContentUris.withAppendedId(CONTENT_URI, folderId).buildUpon().appendPath(APPEND_SUBTREE_PATH).build();
+        }
+
+        /**
+         * Builds the uri streaming the thumbnail of a link through {@link android.content.ContentResolver#openInputStream}.
+         * @param id Row id of the link.
+         * @return Uri
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(APPEND_THUMBNAIL_PATH).build();
+        }
+
         /**
          * Confirms whether the data is either a folder or a link
          * @param data
@@ -99,7 +245,375 @@ public final class LinkContract {
         }
     }
 
+    /**
+     * Inner class details constant values of the thumbnail table.
+     * Every thumbnail file on disk has one row counting how many links reference it.
+     */
+    public static final class ThumbnailEntry {
+
+        /** Database table name for the thumbnail reference counts. */
+        public static final String TABLE_NAME = "thumbnail";
+
+        /**
+         * Content hash of the thumbnail file. Also used as the file name.
+         * Type: TEXT
+         */
+        public static final String COLUMN_THUMBNAIL_HASH = "hash";
+
+        /**
+         * Number of links referencing the thumbnail.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_THUMBNAIL_REF_COUNT = "ref_count";
+
+        /**
+         * Size of the thumbnail file in bytes.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_THUMBNAIL_SIZE = "size";
+
+        /** The path of the thumbnails, followed by the hash of a thumbnail to read it as a file. */
+        public static final String APPEND_THUMBNAIL_PATH = LinkEntry.APPEND_THUMBNAIL_PATH;
+
+        /** The path appended to {@link #CONTENT_URI}, followed by the hash of a downloaded image, to read its thumbnail as a file. */
+        public static final String APPEND_SOURCE_PATH = "source";
+
+        /** The path appended to {@link #CONTENT_URI} to read how much space sharing the thumbnails saves. */
+        public static final String APPEND_STATS_PATH = "stats";
+
+        /** The content uri of the thumbnails. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, APPEND_THUMBNAIL_PATH);
+
+        /** The content uri of a single row holding the {@code STATS_} columns. */
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, APPEND_STATS_PATH);
+
+        /** The MIME type of the {@link #STATS_URI}, a cursor with a single entry. */
+        public static final String STATS_ENTRY = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                + APPEND_THUMBNAIL_PATH + "/" + APPEND_STATS_PATH;
+
+        /** Number of thumbnail files. */
+        public static final String STATS_THUMBNAILS = "thumbnails";
+
+        /** Number of references to them, from links and cached pages. */
+        public static final String STATS_REFERENCES = "refs";
+
+        /** Bytes taken by the thumbnail files. */
+        public static final String STATS_STORED_BYTES = "stored_bytes";
+
+        /** Bytes the thumbnails would take with a copy for every reference, as when each row held its own blob. */
+        public static final String STATS_REFERENCED_BYTES = "referenced_bytes";
+
+        /** Number of downloaded images known to be encoded to one of the thumbnails. */
+        public static final String STATS_SOURCES = "sources";
+
+        /**
+         * Builds the uri streaming a thumbnail by its hash. The thumbnail behind it never changes.
+         * Opening it throws a {@link java.io.FileNotFoundException} once no row references the thumbnail.
+         * @param hash Content hash of the thumbnail, as kept by a row.
+         * @return Uri
+         */
+        public static Uri buildThumbnailUri(String hash) {
+            return Uri.withAppendedPath(CONTENT_URI, hash);
+        }
+
+        /**
+         * Builds the uri streaming the thumbnail encoded from a downloaded image.
+         * Opening it throws a {@link java.io.FileNotFoundException} when no stored thumbnail was encoded from the image.
+         * @param sourceHash Hash of the downloaded image bytes.
+         * @return Uri
+         */
+        public static Uri buildSourceUri(String sourceHash) {
+            return CONTENT_URI.buildUpon().appendPath(APPEND_SOURCE_PATH).appendPath(sourceHash).build();
+        }
+    }
+
+    /**
+     * Inner class details constant values of the table mapping downloaded images to the thumbnails encoded from them.
+     * Many links share the same image, such as the logo of a site, which then only has to be decoded and encoded once.
+     * A row goes along with its thumbnail once the last reference to the thumbnail is released.
+     */
+    public static final class ThumbnailSourceEntry {
+
+        /** Database table name for the image sources. */
+        public static final String TABLE_NAME = "thumbnail_source";
+
+        /**
+         * Content hash of the downloaded image bytes.
+         * Type: TEXT
+         */
+        public static final String COLUMN_SOURCE_HASH = "source_hash";
+
+        /**
+         * Content hash of the thumbnail encoded from the image, a {@link ThumbnailEntry#COLUMN_THUMBNAIL_HASH}.
+         * Type: TEXT
+         */
+        public static final String COLUMN_THUMBNAIL_HASH = "hash";
+
+        /** Name of the index finding the sources of a thumbnail. */
+        public static final String INDEX_THUMBNAIL = "thumbnail_source_hash_index";
+    }
+
+    /**
+     * Inner class details constant values of the page metadata cache.
+     * Every fetched page has one row, keyed by its normalized url, holding what was scraped from it and the HTTP validators
+     * needed to ask the server whether it changed. A row holds its own reference to its thumbnail in the {@link ThumbnailStore}.
+     */
+    public static final class MetadataEntry implements BaseColumns {
+
+        /** The path of the table of the {@link MetadataEntry} class. */
+        public static final String APPEND_METADATA_PATH = "metadata";
+
+        /** The content uri that provides access to the metadata cache. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, APPEND_METADATA_PATH);
+
+        /** Custom MIME data type of the {@link #CONTENT_URI}, a cursor with multiple entries. */
+        public static final String ALL_METADATA_ENTRY = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + APPEND_METADATA_PATH;
+
+        /** Database table name for the metadata cache. */
+        public static final String TABLE_NAME = "metadata";
+
+        /** Unique ID used to identify the table rows. */
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Normalized url of the page. Unique, inserting a row for a cached url replaces it.
+         * Type: TEXT
+         */
+        public static final String COLUMN_METADATA_URL = "url";
+
+        /**
+         * Title scraped from the page.
+         * Type: TEXT
+         */
+        public static final String COLUMN_METADATA_TITLE = "title";
+
+        /**
+         * Url of the image the thumbnail was made from.
+         * Type: TEXT
+         */
+        public static final String COLUMN_METADATA_IMAGE_URL = "image_url";
+
+        /**
+         * Thumbnail bytes. Only used as a {@link android.content.ContentValues} key on insert, the provider keeps
+         * {@link #COLUMN_METADATA_IMAGE_HASH} in the table. Named like the link column so the provider stores both the same way.
+         */
+        public static final String COLUMN_METADATA_IMAGE = LinkEntry.COLUMN_LINK_IMAGE;
+
+        /**
+         * Content hash of the thumbnail held by the {@link ThumbnailStore}.
+         * Type: TEXT
+         */
+        public static final String COLUMN_METADATA_IMAGE_HASH = LinkEntry.COLUMN_LINK_IMAGE_HASH;
+
+        /**
+         * Content hash of the downloaded image the thumbnail was encoded from. Only used as a
+         * {@link android.content.ContentValues} key on insert, like {@link LinkEntry#COLUMN_LINK_IMAGE_SOURCE}.
+         */
+        public static final String COLUMN_METADATA_IMAGE_SOURCE = LinkEntry.COLUMN_LINK_IMAGE_SOURCE;
+
+        /**
+         * ETag header of the page, sent back as If-None-Match.
+         * Type: TEXT
+         */
+        public static final String COLUMN_METADATA_ETAG = "etag";
+
+        /**
+         * Last-Modified header of the page, sent back as If-Modified-Since.
+         * Type: TEXT
+         */
+        public static final String COLUMN_METADATA_LAST_MODIFIED = "last_modified";
+
+        /**
+         * Seconds the page stays fresh after {@link #COLUMN_METADATA_FETCHED}, from Cache-Control max-age. -1 when unknown.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_METADATA_MAX_AGE = "max_age";
+
+        /**
+         * Time the page was last fetched or revalidated, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_METADATA_FETCHED = "fetched";
+
+        /**
+         * Bytes downloaded to scrape the page and its image, saved whenever the row is reused.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_METADATA_BYTES = "bytes";
+
+        /** Rows kept in the cache. The least recently fetched rows are removed beyond it. */
+        public static final int MAX_ROWS = 1000;
+
+        /**
+         * Builds the uri streaming the thumbnail of a cached page.
+         * @param id Row id of the cached page.
+         * @return Uri
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(LinkEntry.APPEND_THUMBNAIL_PATH).build();
+        }
+    }
+
+    /**
+     * Inner class details constant values of the closure table of the folder hierarchy.
+     * Every row of the link table has a row pairing it with itself at depth 0, and a row pairing it with each folder above it
+     * at the distance to that folder. Whatever is under a folder is then a single indexed lookup, however deep the tree is.
+     * The provider keeps the table in sync with {@link LinkEntry#COLUMN_LINK_FOLDER_ID} in the transaction of every write.
+     */
+    public static final class FolderTreeEntry {
+
+        /** Database table name for the closure table. */
+        public static final String TABLE_NAME = "folder_tree";
 
+        /**
+         * Id of the folder above, or of the row itself at depth 0.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ANCESTOR = "ancestor";
 
+        /**
+         * Id of the row below.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DESCENDANT = "descendant";
 
+        /**
+         * Number of levels between the two, 1 for a row directly in the folder.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DEPTH = "depth";
+
+        /** Index finding the folders above a row, which a move or a delete rewrites. */
+        public static final String INDEX_DESCENDANT = "folder_tree_descendant_index";
+    }
+
+    /**
+     * Inner class details constant values of the change log of the link table.
+     * Triggers write the log in the transaction of every change. Each row of the link table has at most one entry, for
+     * its latest change, so the log never grows past the table plus the deleted rows. An observer remembers the highest
+     * sequence number it has seen and asks for the entries after it, then only reloads those rows.
+     */
+    public static final class ChangeEntry {
+
+        /** The path appended to {@link LinkEntry#CONTENT_URI} to read the change log. */
+        public static final String APPEND_CHANGES_PATH = "changes";
+
+        /** The content uri of the change log. Supports {@link #QUERY_PARAMETER_SINCE}. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(LinkEntry.CONTENT_URI, APPEND_CHANGES_PATH);
+
+        /** The MIME type of the change log. */
+        public static final String ALL_CHANGE_ENTRY = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                + LinkEntry.APPEND_LINK_PATH + "/" + APPEND_CHANGES_PATH;
+
+        /** Query parameter leaving out the entries up to a sequence number. Without it the whole log is returned. */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /** Database table name for the change log. */
+        public static final String TABLE_NAME = "link_changes";
+
+        /**
+         * Sequence number of the change, higher for every change. The entries are returned in its order.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SEQ = "seq";
+
+        /**
+         * Id of the changed row of the link table.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ROW_ID = "row_id";
+
+        /**
+         * 1 when the row was deleted, 0 when it was inserted or updated.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DELETED = "deleted";
+
+        /**
+         * Row id of the entry marking the compaction of the log. Its sequence number is the last one compacted away, so an
+         * observer receiving it may have missed deletions and reloads everything instead.
+         */
+        public static final long ROW_ID_COMPACTED = 0;
+
+        /** Deleted rows kept in the log. Older deletions are compacted away. */
+        public static final int MAX_DELETED = 1000;
+
+        /** Index of the deleted rows by sequence number, which the compaction reads. */
+        public static final String INDEX_DELETED = "link_changes_deleted_index";
+
+        /**
+         * Builds the uri of the entries after a sequence number.
+         * @param since The highest sequence number seen, or 0 for the whole log.
+         * @return Uri
+         */
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since)).build();
+        }
+    }
+
+    /**
+     * Inner class details constant values of the full-text index of the link table.
+     * The index only holds the tokens. Its rows are kept in sync with the link table by triggers
+     * and share the ids of the link rows.
+     */
+    public static final class SearchEntry {
+
+        /** Name of the FTS4 virtual table. */
+        public static final String TABLE_NAME = "link_fts";
+
+        /** Id of the indexed row, equal to the {@link LinkEntry#_ID} of the link. */
+        public static final String COLUMN_DOCID = "docid";
+
+        /** Indexed title of the link. */
+        public static final String COLUMN_TITLE = LinkEntry.COLUMN_LINK_TITLE;
+
+        /** Indexed url of the link. */
+        public static final String COLUMN_URL = LinkEntry.COLUMN_LINK_URL;
+    }
+
+
+
+
+
+    /**
+     * Inner class details constant values of the progress of the backfills left by schema upgrades.
+     * An upgrade only changes the schema. The data it has to rewrite is backfilled afterwards in chunks of rows, each
+     * committed along with its checkpoint, so a backfill resumes where it stopped when the process is restarted.
+     */
+    public static final class MigrationEntry {
+
+        /** The path of the backfill progress. */
+        public static final String APPEND_MIGRATION_PATH = "migrations";
+
+        /** The content uri of the backfill progress, notified after every chunk. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, APPEND_MIGRATION_PATH);
+
+        /** Custom MIME data type of the {@link #CONTENT_URI}, a cursor with multiple entries. */
+        public static final String ALL_MIGRATION_ENTRY = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + APPEND_MIGRATION_PATH;
+
+        /** Database table name for the backfill progress. */
+        public static final String TABLE_NAME = "migrations";
+
+        /**
+         * Name of the backfill.
+         * Type: TEXT
+         */
+        public static final String COLUMN_NAME = "name";
+
+        /**
+         * Id of the last row backfilled. Rows are backfilled in id order.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_CHECKPOINT = "checkpoint";
+
+        /**
+         * Id of the last row to backfill, the highest id when the upgrade ran. Later rows are written in the new format.
+         * The backfill is done once the checkpoint reaches it.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TARGET = "target";
+
+        /** Selection of the backfills still running. */
+        public static final String SELECTION_PENDING = COLUMN_CHECKPOINT + " < " + COLUMN_TARGET;
+    }
 }
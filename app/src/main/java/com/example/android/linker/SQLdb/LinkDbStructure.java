@@ -5,9 +5,18 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+import com.example.android.linker.SQLdb.LinkContract.MetadataEntry;
+import com.example.android.linker.SQLdb.LinkContract.SearchEntry;
+import com.example.android.linker.SQLdb.LinkContract.ThumbnailEntry;
+import com.example.android.linker.SQLdb.LinkContract.ThumbnailSourceEntry;
 
 /**
  * Lays the structure and creates a database for the scraped HTML data.
+ * The database runs with write-ahead logging, so the queries of the list read the last commit on connections of their
+ * own while a long write, such as an import, is still running.
+ * Upgrades only change the schema, in the single transaction of {@link #onUpgrade}. Rewriting or indexing the existing
+ * rows is left to a {@link Backfill}, which {@link Migrations} runs in chunks on a background thread once the database
+ * is open.
   */
 public class LinkDbStructure extends SQLiteOpenHelper {
 
@@ -15,11 +24,12 @@ public class LinkDbStructure extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "linker.db";
 
     /** Database version */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 13;
 
     /** Defines the database schema and creates and upgrades it.*/
     public LinkDbStructure(Context context){
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     /** Creates the database using the schema defined. */
@@ -29,17 +39,204 @@ public class LinkDbStructure extends SQLiteOpenHelper {
                 + LinkEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + LinkEntry.COLUMN_LINK_DATA_TYPE + " INTEGER NOT NULL DEFAULT(0), "
                 + LinkEntry.COLUMN_LINK_FOLDER_ID + " INTEGER, "
-                + LinkEntry.COLUMN_LINK_TITLE + " TEXT, "
+                + LinkEntry.COLUMN_LINK_TITLE + " TEXT NOT NULL DEFAULT(''), "
                 + LinkEntry.COLUMN_LINK_URL + " TEXT NOT NULL, "
-                + LinkEntry.COLUMN_LINK_IMAGE + " BLOB);";
+                + LinkEntry.COLUMN_LINK_IMAGE_HASH + " TEXT, "
+                + LinkEntry.COLUMN_LINK_SCRAPED_TITLE + " TEXT, "
+                + LinkEntry.COLUMN_LINK_REFRESHED + " INTEGER NOT NULL DEFAULT(0), "
+                + LinkEntry.COLUMN_LINK_DATE + " INTEGER NOT NULL DEFAULT(0), "
+                + LinkEntry.COLUMN_LINK_CHILD_COUNT + " INTEGER NOT NULL DEFAULT(0), "
+                + LinkEntry.COLUMN_LINK_LINK_COUNT + " INTEGER NOT NULL DEFAULT(0), "
+                + LinkEntry.COLUMN_LINK_LATEST_DATE + " INTEGER NOT NULL DEFAULT(0));";
 
         /* It executes a single SQL statement that is not a SELECT statement or any other SQL statement that returns data. */
         sqLiteDatabase.execSQL(LINK_DATABASE_SCHEMA);
+        createThumbnailTable(sqLiteDatabase);
+        createThumbnailSourceTable(sqLiteDatabase);
+        createLinkIndexes(sqLiteDatabase);
+        createFolderIndex(sqLiteDatabase);
+        createSearchTable(sqLiteDatabase, false);
+        createMetadataTable(sqLiteDatabase);
+        createRefreshedIndex(sqLiteDatabase);
+        FolderTree.createTable(sqLiteDatabase);
+        FolderTree.createAggregateTriggers(sqLiteDatabase);
+        ChangeLog.createTable(sqLiteDatabase);
+        Migrations.createTable(sqLiteDatabase);
     }
 
     /** Will update the database schema to the newer version in the constructor argument. */
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        //TO DO
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Created ahead of the other steps, which schedule their backfills in it.
+        if (oldVersion < 11) {
+            Migrations.createTable(sqLiteDatabase);
+        }
+        if (oldVersion < 2) {
+            upgradeToVersion2(sqLiteDatabase);
+        }
+        if (oldVersion < 3) {
+            Migrations.schedule(sqLiteDatabase, LinkIndexBackfill.NAME, LinkEntry.TABLE_NAME);
+        }
+        if (oldVersion < 4) {
+            createSearchTable(sqLiteDatabase, true);
+            Migrations.schedule(sqLiteDatabase, SearchBackfill.NAME, LinkEntry.TABLE_NAME);
+        }
+        if (oldVersion < 5) {
+            // The list pages on (title, _id), which needs every row to have a title. New databases declare it NOT NULL.
+            sqLiteDatabase.execSQL("UPDATE " + LinkEntry.TABLE_NAME + " SET " + LinkEntry.COLUMN_LINK_TITLE + " = ''"
+                    + " WHERE " + LinkEntry.COLUMN_LINK_TITLE + " IS NULL;");
+        }
+        if (oldVersion < 6) {
+            createMetadataTable(sqLiteDatabase);
+        }
+        if (oldVersion < 7) {
+            // Existing links count as never refreshed, so the background refresh picks them up first.
+            sqLiteDatabase.execSQL("ALTER TABLE " + LinkEntry.TABLE_NAME + " ADD COLUMN " + LinkEntry.COLUMN_LINK_REFRESHED
+                    + " INTEGER NOT NULL DEFAULT(0)");
+            createRefreshedIndex(sqLiteDatabase);
+        }
+        if (oldVersion < 8) {
+            FolderTree.createTable(sqLiteDatabase);
+            Migrations.schedule(sqLiteDatabase, FolderTreeBackfill.NAME, LinkEntry.TABLE_NAME);
+        }
+        if (oldVersion < 9) {
+            for (String column : new String[] {LinkEntry.COLUMN_LINK_DATE, LinkEntry.COLUMN_LINK_CHILD_COUNT,
+                    LinkEntry.COLUMN_LINK_LINK_COUNT, LinkEntry.COLUMN_LINK_LATEST_DATE}) {
+                sqLiteDatabase.execSQL("ALTER TABLE " + LinkEntry.TABLE_NAME + " ADD COLUMN " + column + " INTEGER NOT NULL DEFAULT(0)");
+            }
+            FolderTree.createAggregateTriggers(sqLiteDatabase);
+            Migrations.schedule(sqLiteDatabase, FolderAggregateBackfill.NAME, LinkEntry.TABLE_NAME);
+            // The folder index now covers the list projection, as the list shows a single folder at a time along with
+            // the aggregate columns of its folders. Databases from before version 3 have none yet.
+            sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + LinkEntry.INDEX_FOLDER + ";");
+            Migrations.schedule(sqLiteDatabase, LinkIndexBackfill.NAME, LinkEntry.TABLE_NAME);
+        }
+        if (oldVersion < 10) {
+            // The log starts empty. Observers take its current end as their start and load the list in full first.
+            ChangeLog.createTable(sqLiteDatabase);
+        }
+        if (oldVersion < 12) {
+            // Starts empty. The images of the links saved so far are not kept, so only new downloads are recorded.
+            createThumbnailSourceTable(sqLiteDatabase);
+        }
+        if (oldVersion < 13) {
+            // Unknown for the links saved so far. Their first refresh records it, see LinkRefresher.
+            sqLiteDatabase.execSQL("ALTER TABLE " + LinkEntry.TABLE_NAME + " ADD COLUMN " + LinkEntry.COLUMN_LINK_SCRAPED_TITLE + " TEXT");
+        }
+        if (oldVersion < 9 && !Migrations.isPending(sqLiteDatabase, LinkIndexBackfill.NAME)) {
+            // A backfill is only pending with rows to go through. Without any, the indexes are built at once.
+            LinkIndexBackfill.createIndexes(sqLiteDatabase);
+        }
+    }
+
+    /** Creates the table counting the references to each file of the {@link ThumbnailStore}. */
+    private void createThumbnailTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " + ThumbnailEntry.TABLE_NAME + " ("
+                + ThumbnailEntry.COLUMN_THUMBNAIL_HASH + " TEXT PRIMARY KEY, "
+                + ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT + " INTEGER NOT NULL DEFAULT(0), "
+                + ThumbnailEntry.COLUMN_THUMBNAIL_SIZE + " INTEGER NOT NULL DEFAULT(0));");
+    }
+
+    /** Creates the table mapping downloaded images to their thumbnail. The index removes the rows of a released thumbnail. */
+    private void createThumbnailSourceTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " + ThumbnailSourceEntry.TABLE_NAME + " ("
+                + ThumbnailSourceEntry.COLUMN_SOURCE_HASH + " TEXT PRIMARY KEY, "
+                + ThumbnailSourceEntry.COLUMN_THUMBNAIL_HASH + " TEXT NOT NULL);");
+        sqLiteDatabase.execSQL("CREATE INDEX " + ThumbnailSourceEntry.INDEX_THUMBNAIL + " ON "
+                + ThumbnailSourceEntry.TABLE_NAME + " (" + ThumbnailSourceEntry.COLUMN_THUMBNAIL_HASH + ");");
+    }
+
+    /** Creates the cache of scraped page metadata. The index on the fetch time finds the rows to evict. */
+    private void createMetadataTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " + MetadataEntry.TABLE_NAME + " ("
+                + MetadataEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + MetadataEntry.COLUMN_METADATA_URL + " TEXT NOT NULL UNIQUE, "
+                + MetadataEntry.COLUMN_METADATA_TITLE + " TEXT, "
+                + MetadataEntry.COLUMN_METADATA_IMAGE_URL + " TEXT, "
+                + MetadataEntry.COLUMN_METADATA_IMAGE_HASH + " TEXT, "
+                + MetadataEntry.COLUMN_METADATA_ETAG + " TEXT, "
+                + MetadataEntry.COLUMN_METADATA_LAST_MODIFIED + " TEXT, "
+                + MetadataEntry.COLUMN_METADATA_MAX_AGE + " INTEGER NOT NULL DEFAULT(-1), "
+                + MetadataEntry.COLUMN_METADATA_FETCHED + " INTEGER NOT NULL, "
+                + MetadataEntry.COLUMN_METADATA_BYTES + " INTEGER NOT NULL DEFAULT(0));");
+        sqLiteDatabase.execSQL("CREATE INDEX metadata_fetched_index ON " + MetadataEntry.TABLE_NAME
+                + " (" + MetadataEntry.COLUMN_METADATA_FETCHED + ");");
+    }
+
+    /**
+     * Creates the indexes behind the queries of the link table.
+     * The title index covers the list projection, so the title sorted search results are read from the index alone.
+     */
+    static void createLinkIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + LinkEntry.INDEX_TITLE + " ON " + LinkEntry.TABLE_NAME + " ("
+                + LinkEntry.COLUMN_LINK_TITLE + ", "
+                + LinkEntry._ID + ", "
+                + LinkEntry.COLUMN_LINK_URL + ", "
+                + LinkEntry.COLUMN_LINK_IMAGE_HASH + ", "
+                + LinkEntry.COLUMN_LINK_DATA_TYPE + ", "
+                + LinkEntry.COLUMN_LINK_FOLDER_ID + ");");
+    }
+
+    /**
+     * Creates the index serving the list of a single folder. It covers the list projection and seeks straight to the
+     * folder, so a page of a folder is read from the index alone without a temporary sort, the top level included.
+     * The aggregate columns are part of it, so the counts shown on the folders come from the same scan.
+     */
+    static void createFolderIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + LinkEntry.INDEX_FOLDER + " ON " + LinkEntry.TABLE_NAME + " ("
+                + LinkEntry.COLUMN_LINK_FOLDER_ID + ", "
+                + LinkEntry.COLUMN_LINK_TITLE + ", "
+                + LinkEntry._ID + ", "
+                + LinkEntry.COLUMN_LINK_URL + ", "
+                + LinkEntry.COLUMN_LINK_IMAGE_HASH + ", "
+                + LinkEntry.COLUMN_LINK_DATA_TYPE + ", "
+                + LinkEntry.COLUMN_LINK_CHILD_COUNT + ", "
+                + LinkEntry.COLUMN_LINK_LINK_COUNT + ", "
+                + LinkEntry.COLUMN_LINK_LATEST_DATE + ");");
+    }
+
+    /** Creates the index the background refresh reads the least recently refreshed links from. */
+    private void createRefreshedIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX " + LinkEntry.INDEX_REFRESHED + " ON " + LinkEntry.TABLE_NAME
+                + " (" + LinkEntry.COLUMN_LINK_REFRESHED + ");");
+    }
+
+    /**
+     * Creates the full-text index of the titles and urls.
+     * The FTS4 table uses the link table as external content, so the text is not stored twice. The triggers remove the
+     * old tokens before a row changes and index the new ones afterwards, as external content tables require.
+     * @param sqLiteDatabase
+     * @param backfilled Whether the rows already saved are indexed by the {@link SearchBackfill}, in which case the
+     *                   triggers leave the rows it has not reached alone.
+     */
+    private void createSearchTable(SQLiteDatabase sqLiteDatabase, boolean backfilled) {
+        String columns = SearchEntry.COLUMN_TITLE + ", " + SearchEntry.COLUMN_URL;
+        String deleteOld = "DELETE FROM " + SearchEntry.TABLE_NAME + " WHERE " + SearchEntry.COLUMN_DOCID + "=old." + LinkEntry._ID + ";";
+        String insertNew = "INSERT INTO " + SearchEntry.TABLE_NAME + "(" + SearchEntry.COLUMN_DOCID + ", " + columns + ") VALUES(new."
+                + LinkEntry._ID + ", new." + LinkEntry.COLUMN_LINK_TITLE + ", new." + LinkEntry.COLUMN_LINK_URL + ");";
+
+        String whenOld = backfilled ? " WHEN " + SearchBackfill.isIndexed("old") : "";
+        String whenNew = backfilled ? " WHEN " + SearchBackfill.isIndexed("new") : "";
+
+        sqLiteDatabase.execSQL("CREATE VIRTUAL TABLE " + SearchEntry.TABLE_NAME + " USING fts4(content=\"" + LinkEntry.TABLE_NAME + "\", " + columns + ");");
+        sqLiteDatabase.execSQL("CREATE TRIGGER link_fts_before_update BEFORE UPDATE OF " + columns + " ON " + LinkEntry.TABLE_NAME
+                + whenOld + " BEGIN " + deleteOld + " END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER link_fts_before_delete BEFORE DELETE ON " + LinkEntry.TABLE_NAME
+                + whenOld + " BEGIN " + deleteOld + " END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER link_fts_after_update AFTER UPDATE OF " + columns + " ON " + LinkEntry.TABLE_NAME
+                + whenNew + " BEGIN " + insertNew + " END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER link_fts_after_insert AFTER INSERT ON " + LinkEntry.TABLE_NAME
+                + whenNew + " BEGIN " + insertNew + " END;");
+    }
+
+    /**
+     * Version 2 moves the thumbnail blobs into the {@link ThumbnailStore}. Only the hash column is added here, the blobs
+     * are moved by the {@link ThumbnailBackfill} afterwards, as writing every file could take longer than the app may
+     * block on opening the database.
+     */
+    private void upgradeToVersion2(SQLiteDatabase sqLiteDatabase) {
+        createThumbnailTable(sqLiteDatabase);
+        sqLiteDatabase.execSQL("ALTER TABLE " + LinkEntry.TABLE_NAME + " ADD COLUMN " + LinkEntry.COLUMN_LINK_IMAGE_HASH + " TEXT");
+        Migrations.schedule(sqLiteDatabase, ThumbnailBackfill.NAME, LinkEntry.TABLE_NAME);
     }
 }
@@ -0,0 +1,34 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Builds the title and folder indexes of the link table for databases from before version 3 and 9, in place of the
+ * upgrade. An index is built by a single statement, so the backfill is a single chunk. It still holds the writer
+ * while it runs, but no longer the opening of the database. Until then, the lists scan and sort the table.
+ */
+final class LinkIndexBackfill implements Backfill {
+
+    /** Name of the backfill in the {@link LinkContract.MigrationEntry} table. */
+    static final String NAME = "link_indexes";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long runChunk(SQLiteDatabase db, long checkpoint, long target) {
+        createIndexes(db);
+        return target;
+    }
+
+    /**
+     * Builds the indexes that are missing.
+     * @param db
+     */
+    static void createIndexes(SQLiteDatabase db) {
+        LinkDbStructure.createLinkIndexes(db);
+        LinkDbStructure.createFolderIndex(db);
+    }
+}
@@ -1,16 +1,39 @@
 package com.example.android.linker.SQLdb;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
-import android.util.Patterns;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.android.linker.core.UrlValidator;
 
 /**
  * Extended {@link ContentProvider} for Linker.
@@ -28,11 +51,66 @@ public class LinkProvider extends ContentProvider {
     /** Constant value that represents a row of the database when implemented in the {@link UriMatcher}. */
     private static final int SINGLE_LINK_ROW = 2;
 
+    /** Constant value that represents a full-text search of the links when implemented in the {@link UriMatcher}. */
+    private static final int SEARCH_LINK_DB = 3;
+
+    /** Constant value that represents the thumbnail file of a row when implemented in the {@link UriMatcher}. */
+    private static final int LINK_THUMBNAIL = 4;
+
+    /** Constant value that represents the page metadata cache when implemented in the {@link UriMatcher}. */
+    private static final int METADATA_DB = 5;
+
+    /** Constant value that represents the thumbnail file of a cached page when implemented in the {@link UriMatcher}. */
+    private static final int METADATA_THUMBNAIL = 6;
+
+    /** Constant value that represents every row under a folder when implemented in the {@link UriMatcher}. */
+    private static final int LINK_SUBTREE = 7;
+
+    /** Constant value that represents the change log of the link table when implemented in the {@link UriMatcher}. */
+    private static final int LINK_CHANGES = 8;
+
+    /** Constant value that represents the progress of the backfills when implemented in the {@link UriMatcher}. */
+    private static final int MIGRATIONS = 9;
+
+    /** Constant value that represents the thumbnail encoded from a downloaded image when implemented in the {@link UriMatcher}. */
+    private static final int THUMBNAIL_SOURCE = 10;
+
+    /** Constant value that represents the space taken by the thumbnails when implemented in the {@link UriMatcher}. */
+    private static final int THUMBNAIL_STATS = 11;
+
+    /** Constant value that represents a thumbnail file by its hash when implemented in the {@link UriMatcher}. */
+    private static final int THUMBNAIL_FILE = 12;
+
+    /** Alias of the ids matching a full-text query, which a search joins the link table to. */
+    static final String SEARCH_MATCHES = "matches";
+
+    /** Deletes a row of the link table, with its id as the argument. */
+    private static final String DELETE_LINK = "DELETE FROM " + LinkContract.LinkEntry.TABLE_NAME
+            + " WHERE " + LinkContract.LinkEntry._ID + " = ?";
+
     /** Used to match URI in {@link ContentProvider} */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     /** Extended {@link android.database.sqlite.SQLiteOpenHelper} class. */
-    private static LinkDbStructure linkDb;
+    private LinkDbStructure linkDb;
+
+    /** Holds the thumbnail files referenced by the link table. */
+    private ThumbnailStore thumbnailStore;
+
+    /** Runs the writes one at a time. Created along with the writable database by the first write. */
+    private LinkWriter writer;
+
+    /** Moves the thumbnail blobs of links saved before version 2 of the database. */
+    private ThumbnailBackfill thumbnailBackfill;
+
+    /** Fills the closure table for links saved before version 8 of the database. */
+    private FolderTreeBackfill folderTreeBackfill;
+
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the calling thread. Collects the thumbnails released by the
+     * batch so their files are only deleted once the whole batch commits, and suppresses the per operation notifications.
+     */
+    private final ThreadLocal<List<String>> batchReleasedThumbnails = new ThreadLocal<>();
 
     /*
      * This is a static initializer.
@@ -41,6 +119,25 @@ public class LinkProvider extends ContentProvider {
     static {
         sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.LinkEntry.APPEND_LINK_PATH, ENTIRE_LINK_DB);
         sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.LinkEntry.APPEND_LINK_PATH + "/#", SINGLE_LINK_ROW);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.LinkEntry.APPEND_LINK_PATH + "/"
+                + LinkContract.LinkEntry.APPEND_SEARCH_PATH, SEARCH_LINK_DB);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.LinkEntry.APPEND_LINK_PATH + "/"
+                + LinkContract.LinkEntry.APPEND_SEARCH_PATH + "/*", SEARCH_LINK_DB);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.LinkEntry.APPEND_LINK_PATH + "/#/"
+                + LinkContract.LinkEntry.APPEND_THUMBNAIL_PATH, LINK_THUMBNAIL);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.LinkEntry.APPEND_LINK_PATH + "/#/"
+                + LinkContract.LinkEntry.APPEND_SUBTREE_PATH, LINK_SUBTREE);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.LinkEntry.APPEND_LINK_PATH + "/"
+                + LinkContract.ChangeEntry.APPEND_CHANGES_PATH, LINK_CHANGES);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.MetadataEntry.APPEND_METADATA_PATH, METADATA_DB);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.MetadataEntry.APPEND_METADATA_PATH + "/#/"
+                + LinkContract.LinkEntry.APPEND_THUMBNAIL_PATH, METADATA_THUMBNAIL);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.MigrationEntry.APPEND_MIGRATION_PATH, MIGRATIONS);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.ThumbnailEntry.APPEND_THUMBNAIL_PATH + "/"
+                + LinkContract.ThumbnailEntry.APPEND_SOURCE_PATH + "/*", THUMBNAIL_SOURCE);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.ThumbnailEntry.APPEND_THUMBNAIL_PATH + "/"
+                + LinkContract.ThumbnailEntry.APPEND_STATS_PATH, THUMBNAIL_STATS);
+        sUriMatcher.addURI(LinkContract.CONTENT_AUTHORITY, LinkContract.ThumbnailEntry.APPEND_THUMBNAIL_PATH + "/*", THUMBNAIL_FILE);
     }
 
     /**
@@ -50,9 +147,48 @@ public class LinkProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         linkDb = new LinkDbStructure(getContext());
+        thumbnailStore = new ThumbnailStore(getContext());
+        thumbnailBackfill = new ThumbnailBackfill(thumbnailStore);
+        folderTreeBackfill = new FolderTreeBackfill();
+        startMigrations();
         return true;
     }
 
+    /**
+     * Runs the backfills left by an upgrade on a background thread, resuming from their last checkpoint when an earlier
+     * process was stopped halfway. Does nothing more than open the database when none are left.
+     * Then deletes the thumbnail files left behind by writes that never committed, when the last process stopped
+     * before its thumbnail writes settled.
+     */
+    private void startMigrations() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LinkWriter writer = getWriter();
+                try {
+                    // The aggregates are counted from the closure table, so they go after it.
+                    Migrations.run(writer, getContext().getContentResolver(), new LinkIndexBackfill(), thumbnailBackfill,
+                            new SearchBackfill(), folderTreeBackfill, new FolderAggregateBackfill());
+                } catch (RuntimeException e) {
+                    // The chunk was rolled back, and the backfill resumes from its checkpoint in the next process.
+                    Log.e(LOG_TAG, "Backfill stopped.", e);
+                }
+                if (!thumbnailStore.needsSweep()) {
+                    return;
+                }
+                writer.lock();
+                try {
+                    int swept = thumbnailStore.sweep(writer.getDatabase());
+                    if (swept > 0) {
+                        Log.i(LOG_TAG, "Deleted " + swept + " unreferenced thumbnail files.");
+                    }
+                } finally {
+                    writer.unlock();
+                }
+            }
+        }, LOG_TAG + " migrations").start();
+    }
+
     /** Handles query results from the {@link android.content.ContentResolver}. */
     @Nullable
     @Override
@@ -69,13 +205,44 @@ public class LinkProvider extends ContentProvider {
         /* Depending on the URI, query will return an entire database in a cursor or just a single row */
         switch(match) {
             case ENTIRE_LINK_DB:
-                cursor = db.query(LinkContract.LinkEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                // Pages of the list pass their size as a query parameter, since a query has no limit argument.
+                String limit = uri.getQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT);
+                if (limit != null && Integer.parseInt(limit) < 0) {
+                    throw new IllegalArgumentException("Invalid limit: " + uri);
+                }
+                cursor = db.query(LinkContract.LinkEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder, limit);
                 break;
             case SINGLE_LINK_ROW:
                 selection = LinkContract.LinkEntry._ID + "=?"; // The ID parsed below is substituted into the question mark to identify the row ID.
                 selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))}; //Parses the URI for the ID.
                 cursor = db.query(LinkContract.LinkEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
                 break;
+            case METADATA_DB:
+                cursor = db.query(LinkContract.MetadataEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case MIGRATIONS:
+                cursor = db.query(LinkContract.MigrationEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case THUMBNAIL_STATS:
+                cursor = thumbnailStore.queryStats(db);
+                // Every write of a thumbnail goes along with a link or a cached page.
+                cursor.setNotificationUri(getContext().getContentResolver(), LinkContract.LinkEntry.CONTENT_URI);
+                return cursor;
+            case LINK_SUBTREE:
+                cursor = querySubtree(db, uri, projection, selection, selectionArgs, sortOrder);
+                // Moving or deleting any row can change the subtree.
+                cursor.setNotificationUri(getContext().getContentResolver(), LinkContract.LinkEntry.CONTENT_URI);
+                return cursor;
+            case LINK_CHANGES:
+                cursor = queryChanges(db, uri, projection, selection, selectionArgs, sortOrder);
+                // The log is written along with the link table, which is what observers register for.
+                cursor.setNotificationUri(getContext().getContentResolver(), LinkContract.LinkEntry.CONTENT_URI);
+                return cursor;
+            case SEARCH_LINK_DB:
+                cursor = search(db, uri, projection, selection, selectionArgs, sortOrder);
+                // Any change to the link table can change the results.
+                cursor.setNotificationUri(getContext().getContentResolver(), LinkContract.LinkEntry.CONTENT_URI);
+                return cursor;
             default:
                 throw new IllegalArgumentException("Unable to query URI: " + uri);
         }
@@ -96,22 +263,478 @@ public class LinkProvider extends ContentProvider {
                 return LinkContract.LinkEntry.ALL_LINK_ENTRY;
             case SINGLE_LINK_ROW:
                 return LinkContract.LinkEntry.SINGLE_LINK_ENTRY;
+            case SEARCH_LINK_DB:
+            case LINK_SUBTREE:
+                return LinkContract.LinkEntry.ALL_LINK_ENTRY;
+            case LINK_CHANGES:
+                return LinkContract.ChangeEntry.ALL_CHANGE_ENTRY;
+            case METADATA_DB:
+                return LinkContract.MetadataEntry.ALL_METADATA_ENTRY;
+            case MIGRATIONS:
+                return LinkContract.MigrationEntry.ALL_MIGRATION_ENTRY;
+            case THUMBNAIL_STATS:
+                return LinkContract.ThumbnailEntry.STATS_ENTRY;
+            case LINK_THUMBNAIL:
+            case METADATA_THUMBNAIL:
+            case THUMBNAIL_SOURCE:
+            case THUMBNAIL_FILE:
+                String hash = queryThumbnailHash(uri);
+                return hash != null ? thumbnailStore.getMimeType(hash) : null;
             default:
                 throw new IllegalArgumentException("getType - Incompatible URI: " + uri);
         }
     }
 
+    /**
+     * Returns the type of the thumbnail when it matches the filter.
+     * The inherited openTypedAssetFile relies on {@link #getType(Uri)} the same way, and opens the file through {@link #openFile(Uri, String)}.
+     */
+    @Nullable
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        int match = sUriMatcher.match(uri);
+        if (match != LINK_THUMBNAIL && match != METADATA_THUMBNAIL && match != THUMBNAIL_SOURCE
+                && match != THUMBNAIL_FILE) {
+            return null;
+        }
+        String type = getType(uri);
+        return type != null && ClipDescription.compareMimeTypes(type, mimeTypeFilter) ? new String[] {type} : null;
+    }
+
+    /**
+     * Opens the thumbnail file of a row for reading, so the bytes are streamed through a file descriptor
+     * instead of being copied through a cursor.
+     * An open descriptor stays readable even if the thumbnail is replaced and its file deleted meanwhile.
+     * @param uri The thumbnail uri of a row, of a downloaded image, or of a hash.
+     * @param mode Only "r" is supported.
+     * @return ParcelFileDescriptor
+     * @throws FileNotFoundException When the row has no thumbnail, or no thumbnail was encoded from the image.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match != LINK_THUMBNAIL && match != METADATA_THUMBNAIL && match != THUMBNAIL_SOURCE
+                && match != THUMBNAIL_FILE) {
+            throw new IllegalArgumentException("Unable to open file for URI: " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new IllegalArgumentException("Thumbnails are read only, unable to open " + uri + " in mode " + mode);
+        }
+
+        String hash = queryThumbnailHash(uri);
+        if (hash == null) {
+            throw new FileNotFoundException("No thumbnail for " + uri);
+        }
+        return ParcelFileDescriptor.open(thumbnailStore.getFile(hash), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns the thumbnail hash of the row of a thumbnail uri, of the downloaded image of a source uri, or of a file uri
+     * as long as a row references it.
+     * A link whose legacy blob the {@link ThumbnailBackfill} has not reached yet has its blob moved first.
+     * @param uri
+     * @return String - Null when the row is missing or has no thumbnail.
+     */
+    private String queryThumbnailHash(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        SQLiteDatabase db = linkDb.getReadableDatabase();
+        if (match == THUMBNAIL_SOURCE) {
+            return thumbnailStore.findBySource(db, uri.getLastPathSegment());
+        }
+        if (match == THUMBNAIL_FILE) {
+            // Checked against the table, which also keeps the segment from naming any other file.
+            String hash = uri.getLastPathSegment();
+            return thumbnailStore.isReferenced(db, hash) ? hash : null;
+        }
+        boolean link = match == LINK_THUMBNAIL;
+        String table = link ? LinkContract.LinkEntry.TABLE_NAME : LinkContract.MetadataEntry.TABLE_NAME;
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        String[] selectionArgs = new String[] {String.valueOf(id)};
+        String hash = queryThumbnails(db, table, BaseColumns._ID + "=?", selectionArgs).get(id);
+        if (hash == null && link && Migrations.isPending(db, ThumbnailBackfill.NAME)) {
+            LinkWriter writer = getWriter();
+            writer.begin();
+            try {
+                thumbnailBackfill.moveRow(writer.getDatabase(), id);
+                writer.getDatabase().setTransactionSuccessful();
+            } finally {
+                writer.end();
+            }
+            hash = queryThumbnails(db, table, BaseColumns._ID + "=?", selectionArgs).get(id);
+        }
+        return hash;
+    }
+
+    /**
+     * Queries every row under a folder through the closure table, a single range of its primary key however deep the
+     * folder goes. The folder itself is left out. Until the {@link FolderTreeBackfill} is done, the rows are found by
+     * walking down the folder ids instead.
+     * @param db
+     * @param uri The subtree uri of a folder.
+     * @param projection Columns of the link table, and {@link LinkContract.FolderTreeEntry#COLUMN_DEPTH}.
+     * @param selection Additional filter, such as the type of the rows.
+     * @param selectionArgs
+     * @param sortOrder
+     * @return Cursor
+     */
+    private Cursor querySubtree(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        String limit = uri.getQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && Integer.parseInt(limit) < 0) {
+            throw new IllegalArgumentException("Invalid limit: " + uri);
+        }
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(folderTreeBackfill.isPending(db) ? FolderTree.tablesSubtreeWalk(id) : FolderTree.TABLES_SUBTREE);
+        builder.appendWhere(LinkContract.FolderTreeEntry.COLUMN_ANCESTOR + " = " + id
+                + " AND " + LinkContract.FolderTreeEntry.COLUMN_DEPTH + " > 0");
+        return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
+    }
+
+    /**
+     * Queries the change log, a range of its primary key when a sequence number is given.
+     * @param db
+     * @param uri The change log uri, optionally with {@link LinkContract.ChangeEntry#QUERY_PARAMETER_SINCE}.
+     * @param projection Columns of the change log.
+     * @param selection Additional filter, such as the deleted rows only.
+     * @param selectionArgs
+     * @param sortOrder Null for the order of the sequence numbers.
+     * @return Cursor
+     */
+    private Cursor queryChanges(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(LinkContract.ChangeEntry.TABLE_NAME);
+        String since = uri.getQueryParameter(LinkContract.ChangeEntry.QUERY_PARAMETER_SINCE);
+        if (since != null) {
+            builder.appendWhere(LinkContract.ChangeEntry.COLUMN_SEQ + " > " + Long.parseLong(since));
+        }
+        if (sortOrder == null) {
+            sortOrder = LinkContract.ChangeEntry.COLUMN_SEQ;
+        }
+        return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Searches the titles and urls through the full-text index.
+     * Links matching every word in their title rank first, then links matching through their url. Each tier starts from
+     * the ids the full-text index matches, looks their links up by id and sorts only those, so the cost follows the
+     * number of matches rather than the size of the table.
+     * When a sort order is given, all matches are returned in that order instead.
+     * Until the {@link SearchBackfill} is done, the links it has not reached are matched with LIKE and added to the
+     * matches of the index.
+     * @param db
+     * @param uri The search uri, with the query as its last path segment.
+     * @param projection Columns of the link table.
+     * @param selection Additional filter on the link table.
+     * @param selectionArgs
+     * @param sortOrder
+     * @return Cursor - Empty when the query has no words.
+     */
+    private Cursor search(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        List<String> segments = uri.getPathSegments();
+        String query = segments.size() > 2 ? segments.get(2) : "";
+        if (buildMatchQuery(query, null) == null) {
+            return new MatrixCursor(projection != null ? projection : new String[] {LinkContract.LinkEntry._ID});
+        }
+
+        String limitParameter = uri.getQueryParameter(LinkContract.LinkEntry.QUERY_PARAMETER_LIMIT);
+        int limit = limitParameter != null ? Integer.parseInt(limitParameter) : LinkContract.LinkEntry.DEFAULT_SEARCH_LIMIT;
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid search limit: " + uri);
+        }
+
+        long[] unindexed = Migrations.readProgress(db, SearchBackfill.NAME);
+        if (sortOrder != null) {
+            return searchTier(db, projection, selection, selectionArgs, sortOrder, limit, query, null, false, unindexed);
+        }
+        String titleColumn = LinkContract.SearchEntry.COLUMN_TITLE;
+        Cursor titleMatches = searchTier(db, projection, selection, selectionArgs, null, limit, query, titleColumn, false, unindexed);
+        if (titleMatches.getCount() >= limit) {
+            return titleMatches;
+        }
+        Cursor urlMatches = searchTier(db, projection, selection, selectionArgs, null, limit - titleMatches.getCount(),
+                query, null, true, unindexed);
+        return new MergeCursor(new Cursor[] {titleMatches, urlMatches});
+    }
+
+    /**
+     * Queries the links whose ids match the full-text query.
+     * @param db
+     * @param projection
+     * @param selection
+     * @param selectionArgs
+     * @param sortOrder Null for title order.
+     * @param limit
+     * @param query The words typed by the user.
+     * @param column Column every word must match in, or null for any column.
+     * @param excludeTitles Whether the links matching every word in their title are left out.
+     * @param unindexed Checkpoint and target of the {@link SearchBackfill}, null once it is done.
+     * @return Cursor
+     */
+    private Cursor searchTier(SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                              String sortOrder, int limit, String query, String column, boolean excludeTitles, long[] unindexed) {
+        List<String> args = new ArrayList<>();
+        String unindexedMatch = addMatchArgs(args, query, column, unindexed);
+        String unindexedExclude = excludeTitles ? addMatchArgs(args, query, LinkContract.SearchEntry.COLUMN_TITLE, unindexed) : null;
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        String sql = buildSearchSql(projection, selection, sortOrder, limit, excludeTitles, unindexedMatch, unindexedExclude);
+        return db.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Adds the arguments of a MATCH expression, followed by those of the LIKE selection standing in for it on the links
+     * the full-text index has not reached yet.
+     * @return String - The LIKE selection, or null once the index is complete.
+     */
+    private static String addMatchArgs(List<String> args, String query, String column, long[] unindexed) {
+        args.add(buildMatchQuery(query, column));
+        if (unindexed == null) {
+            return null;
+        }
+        args.add(String.valueOf(unindexed[0]));
+        args.add(String.valueOf(unindexed[1]));
+        return buildLikeSelection(query, column, args);
+    }
+
+    /**
+     * Builds the query of a search tier. Its arguments are the MATCH expression, then the excluded MATCH expression
+     * when there is one, then the selection arguments.
+     * The matching ids drive the query: the cross join keeps them as the outer loop, each link is looked up by its id,
+     * and the limit bounds the sort of the matches.
+     * @param projection
+     * @param selection
+     * @param sortOrder Null for title order.
+     * @param limit
+     * @param exclude Whether links matching a second MATCH expression are left out.
+     * @return String
+     */
+    static String buildSearchSql(String[] projection, String selection, String sortOrder, int limit, boolean exclude) {
+        return buildSearchSql(projection, selection, sortOrder, limit, exclude, null, null);
+    }
+
+    /**
+     * Same as {@link #buildSearchSql(String[], String, String, int, boolean)}, while the full-text index has not reached
+     * every link. Every MATCH expression is then followed by the checkpoint and the target of the {@link SearchBackfill}
+     * and the arguments of the LIKE selection standing in for it, and the links it selects join the matching ids.
+     * @param projection
+     * @param selection
+     * @param sortOrder Null for title order.
+     * @param limit
+     * @param exclude Whether links matching a second MATCH expression are left out.
+     * @param unindexedMatch LIKE selection standing in for the MATCH expression, null once the index is complete.
+     * @param unindexedExclude LIKE selection standing in for the excluded MATCH expression, null once the index is complete.
+     * @return String
+     */
+    static String buildSearchSql(String[] projection, String selection, String sortOrder, int limit, boolean exclude,
+                                 String unindexedMatch, String unindexedExclude) {
+        // The ids go in a subquery so the columns the link table shares with the full-text table stay unambiguous.
+        String tables = "(" + buildMatchingIds(unindexedMatch) + ") AS " + SEARCH_MATCHES + " CROSS JOIN " + LinkContract.LinkEntry.TABLE_NAME
+                + " ON " + LinkContract.LinkEntry.TABLE_NAME + "." + LinkContract.LinkEntry._ID
+                + " = " + SEARCH_MATCHES + "." + LinkContract.SearchEntry.COLUMN_DOCID;
+        String where = null;
+        if (exclude) {
+            where = LinkContract.LinkEntry.TABLE_NAME + "." + LinkContract.LinkEntry._ID + " NOT IN (" + buildMatchingIds(unindexedExclude) + ")";
+        }
+        if (selection != null) {
+            where = (where != null ? where + " AND " : "") + "(" + selection + ")";
+        }
+        if (projection == null) {
+            projection = new String[] {LinkContract.LinkEntry.TABLE_NAME + ".*"};
+        }
+        if (sortOrder == null) {
+            sortOrder = LinkContract.LinkEntry.SORT_ORDER_TITLE;
+        }
+        return SQLiteQueryBuilder.buildQueryString(false, tables, projection, where, null, null, sortOrder, String.valueOf(limit));
+    }
+
+    /**
+     * Builds the query of the ids matching a MATCH expression, along with the ids of the links the full-text index has
+     * not reached yet that match a LIKE selection.
+     * @param unindexed The LIKE selection, or null once the index is complete.
+     * @return String
+     */
+    private static String buildMatchingIds(String unindexed) {
+        String ids = "SELECT " + LinkContract.SearchEntry.COLUMN_DOCID + " FROM " + LinkContract.SearchEntry.TABLE_NAME
+                + " WHERE " + LinkContract.SearchEntry.TABLE_NAME + " MATCH ?";
+        if (unindexed != null) {
+            ids += " UNION ALL SELECT " + LinkContract.LinkEntry._ID + " FROM " + LinkContract.LinkEntry.TABLE_NAME
+                    + " WHERE " + LinkContract.LinkEntry._ID + " > ? AND " + LinkContract.LinkEntry._ID + " <= ? AND (" + unindexed + ")";
+        }
+        return ids;
+    }
+
+    /**
+     * Splits the words typed by the user. Only letters and digits are kept, in lower case.
+     * @param query
+     * @return List
+     */
+    private static List<String> splitWords(String query) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Turns the words typed by the user into an FTS4 query matching every word as a prefix.
+     * Only letters and digits are kept, so the query can never contain FTS syntax.
+     * @param query
+     * @param column Column every word must match in, or null for any column.
+     * @return String - The MATCH expression, or null when the query has no words.
+     */
+    static String buildMatchQuery(String query, String column) {
+        StringBuilder match = new StringBuilder();
+        for (String word : splitWords(query)) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            if (column != null) {
+                match.append(column).append(':');
+            }
+            match.append(word).append('*');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Turns the words typed by the user into a selection of the link table finding every word anywhere in the text,
+     * for the links the full-text index has not reached yet. It matches somewhat more than the prefixes of the index.
+     * The words are only letters and digits, so they never hold a wildcard of LIKE.
+     * @param query
+     * @param column Column every word must be found in, or null for the title or the url.
+     * @param args The arguments of the selection are added to it.
+     * @return String - The selection, empty when the query has no words.
+     */
+    static String buildLikeSelection(String query, String column, List<String> args) {
+        StringBuilder like = new StringBuilder();
+        for (String word : splitWords(query)) {
+            if (like.length() > 0) {
+                like.append(" AND ");
+            }
+            if (column != null) {
+                like.append(column).append(" LIKE ?");
+                args.add("%" + word + "%");
+            } else {
+                like.append('(').append(LinkContract.LinkEntry.COLUMN_LINK_TITLE).append(" LIKE ? OR ")
+                        .append(LinkContract.LinkEntry.COLUMN_LINK_URL).append(" LIKE ?)");
+                args.add("%" + word + "%");
+                args.add("%" + word + "%");
+            }
+        }
+        return like.toString();
+    }
+
     /** Handles the request to a insert row from the {@link android.content.ContentResolver}. */
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
 
-        SQLiteDatabase db = linkDb.getWritableDatabase(); //Insert modifies the database data, therefore db needs to be a writable.
+        LinkWriter writer = getWriter(); //Insert modifies the database data, therefore it goes through the writer.
+        SQLiteDatabase db = writer.getDatabase();
 
-        /*
-         * Validates the url put into the ContentValues.
-         */
-        validUrl(contentValues);
+        int match = sUriMatcher.match(uri);
+        if (match == METADATA_DB) {
+            return insertMetadata(writer, uri, contentValues);
+        }
+        if (match != ENTIRE_LINK_DB) {
+            throw new IllegalArgumentException("Failed to insert row for " + uri);
+        }
+
+        long rowId;
+        writer.begin();
+        try {
+            rowId = insertRow(writer, contentValues);
+            db.setTransactionSuccessful();
+        } finally {
+            writer.end();
+        }
+
+        notifyChange(uri);
+
+        return ContentUris.withAppendedId(uri, rowId);
+    }
+
+    /**
+     * Inserts all rows in a single transaction and notifies observers once.
+     * Rows failing validation are skipped, so one bad row does not lose the rest of the batch.
+     * @return int - The number of rows inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        LinkWriter writer = getWriter();
+        SQLiteDatabase db = writer.getDatabase();
+
+        if (sUriMatcher.match(uri) != ENTIRE_LINK_DB) {
+            throw new IllegalArgumentException("Failed to insert rows for " + uri);
+        }
+
+        int rowsInserted = 0;
+        writer.begin();
+        try {
+            for (ContentValues contentValues : values) {
+                try {
+                    insertRow(writer, contentValues);
+                    rowsInserted++;
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    Log.w(LOG_TAG, "Skipping row: " + e.getMessage());
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.end();
+        }
+
+        if (rowsInserted > 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Runs all operations in a single transaction and notifies observers once.
+     * Thumbnails released by the operations are only deleted after the transaction commits.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        LinkWriter writer = getWriter();
+        SQLiteDatabase db = writer.getDatabase();
+        List<String> releasedThumbnails = new ArrayList<>();
+        ContentProviderResult[] results;
+
+        batchReleasedThumbnails.set(releasedThumbnails);
+        writer.begin();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            writer.end();
+            batchReleasedThumbnails.remove();
+        }
+        purgeThumbnails(writer, releasedThumbnails);
+
+        notifyChange(LinkContract.LinkEntry.CONTENT_URI);
+        return results;
+    }
+
+    /**
+     * Validates and inserts a single row, and adds it to the folder tree. Must be called inside a transaction.
+     * @param writer
+     * @param contentValues
+     * @return long - The row id.
+     */
+    private long insertRow(LinkWriter writer, ContentValues contentValues) {
+        SQLiteDatabase db = writer.getDatabase();
 
         /*
          * Checks whether the inserted database entry is a folder or a link.
@@ -121,39 +744,250 @@ public class LinkProvider extends ContentProvider {
             throw new IllegalArgumentException("Error registering data type");
         }
 
-        long rowId = db.insert(LinkContract.LinkEntry.TABLE_NAME, null, contentValues);
+        /*
+         * Validates the url put into the ContentValues. A folder has no url.
+         */
+        if (dataType == LinkContract.LinkEntry.TYPE_FOLDER) {
+            contentValues.put(LinkContract.LinkEntry.COLUMN_LINK_URL, "");
+        } else {
+            validUrl(contentValues);
+        }
+
+        Long folderId = contentValues.getAsLong(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID);
+        FolderTree.checkFolder(writer, folderId);
+
+        checkAggregates(contentValues);
+        normalizeTitle(contentValues, true);
+        long now = System.currentTimeMillis();
+        if (!contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_REFRESHED)) {
+            contentValues.put(LinkContract.LinkEntry.COLUMN_LINK_REFRESHED, now);
+        }
+        if (!contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_DATE)) {
+            contentValues.put(LinkContract.LinkEntry.COLUMN_LINK_DATE, now);
+        }
+        storeThumbnail(db, contentValues);
+        long rowId = insertLink(writer, contentValues);
 
         if(rowId == -1) {
-            throw new IllegalArgumentException("Failed to insert row for " + uri);
+            // A batch skipping the row commits the rest, so the reference taken for the row goes now. Should no row be
+            // left referencing it, the file is deleted along with the others of the transaction no row references.
+            String hash = contentValues.getAsString(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH);
+            if (hash != null) {
+                thumbnailStore.release(db, hash);
+            }
+            throw new IllegalArgumentException("Failed to insert row for " + contentValues.getAsString(LinkContract.LinkEntry.COLUMN_LINK_URL));
+        }
+        if (folderId != null && folderTreeBackfill.isPending(db)) {
+            // The new row copies the rows of its folder, which may not be in the tree yet.
+            folderTreeBackfill.addRow(db, folderId);
         }
+        FolderTree.insert(writer, rowId, folderId);
+        return rowId;
+    }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Inserts a row of the link table with the statement the writer compiled for its columns, rather than compiling one
+     * for every row as {@link SQLiteDatabase#insert} does. The app inserts with a handful of column sets, so only as
+     * many statements are ever compiled.
+     * @param writer Held by the calling thread.
+     * @param contentValues
+     * @return long - The row id, or -1 when the row breaks a constraint.
+     */
+    private static long insertLink(LinkWriter writer, ContentValues contentValues) {
+        List<String> columns = sortedColumns(contentValues);
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(LinkContract.LinkEntry.TABLE_NAME).append(" (");
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? "," : "").append(columns.get(i));
+            params.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(") VALUES (").append(params).append(')');
+        try {
+            SQLiteStatement insert = writer.statement(sql.toString());
+            bindColumns(insert, columns, contentValues);
+            return insert.executeInsert();
+        } catch (SQLException e) {
+            Log.w(LOG_TAG, "Error inserting " + contentValues, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Updates a single row of the link table with the statement the writer compiled for the updated columns.
+     * @param writer Held by the calling thread.
+     * @param id
+     * @param contentValues Must not be empty.
+     * @return int - The number of rows updated.
+     */
+    private static int updateLink(LinkWriter writer, long id, ContentValues contentValues) {
+        if (contentValues.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+        List<String> columns = sortedColumns(contentValues);
+        StringBuilder sql = new StringBuilder("UPDATE ").append(LinkContract.LinkEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? "," : "").append(columns.get(i)).append("=?");
+        }
+        sql.append(" WHERE ").append(LinkContract.LinkEntry._ID).append("=?");
+        SQLiteStatement update = writer.statement(sql.toString());
+        bindColumns(update, columns, contentValues);
+        update.bindLong(columns.size() + 1, id);
+        return update.executeUpdateDelete();
+    }
+
+    /**
+     * Deletes rows of the link table by id with a single compiled statement.
+     * @param writer Held by the calling thread.
+     * @param ids
+     * @return int - The number of rows deleted.
+     */
+    private static int deleteLinks(LinkWriter writer, Collection<Long> ids) {
+        SQLiteStatement delete = writer.statement(DELETE_LINK);
+        int rowsDeleted = 0;
+        for (long id : ids) {
+            delete.bindLong(1, id);
+            rowsDeleted += delete.executeUpdateDelete();
+        }
+        return rowsDeleted;
+    }
+
+    /** Returns the columns of the values in a stable order, so the same columns always make the same statement. */
+    private static List<String> sortedColumns(ContentValues contentValues) {
+        List<String> columns = new ArrayList<>(contentValues.keySet());
+        Collections.sort(columns);
+        return columns;
+    }
 
+    /** Binds the values of the columns to the first parameters of the statement, in the order of the columns. */
+    private static void bindColumns(SQLiteStatement statement, List<String> columns, ContentValues contentValues) {
+        for (int i = 0; i < columns.size(); i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, contentValues.get(columns.get(i)));
+        }
+    }
+
+    /**
+     * Caches the metadata of a page, replacing the row of the same url along with its thumbnail reference.
+     * The least recently fetched rows beyond {@link LinkContract.MetadataEntry#MAX_ROWS} are evicted.
+     * @param writer
+     * @param uri
+     * @param contentValues
+     * @return Uri - The uri of the new row.
+     */
+    private Uri insertMetadata(LinkWriter writer, Uri uri, ContentValues contentValues) {
+        SQLiteDatabase db = writer.getDatabase();
+        String url = contentValues.getAsString(LinkContract.MetadataEntry.COLUMN_METADATA_URL);
+        if (url == null || contentValues.getAsLong(LinkContract.MetadataEntry.COLUMN_METADATA_FETCHED) == null) {
+            throw new IllegalArgumentException("Metadata needs a url and a fetch time.");
+        }
+
+        long rowId;
+        List<String> releasedThumbnails = new ArrayList<>();
+        writer.begin();
+        try {
+            String staleRows = LinkContract.MetadataEntry.COLUMN_METADATA_URL + "=? OR " + BaseColumns._ID + " IN (SELECT "
+                    + BaseColumns._ID + " FROM " + LinkContract.MetadataEntry.TABLE_NAME + " ORDER BY "
+                    + LinkContract.MetadataEntry.COLUMN_METADATA_FETCHED + " DESC LIMIT -1 OFFSET "
+                    + (LinkContract.MetadataEntry.MAX_ROWS - 1) + ")";
+            releasedThumbnails.addAll(deleteMetadata(db, staleRows, new String[] {url}));
+
+            storeThumbnail(db, contentValues);
+            rowId = db.insert(LinkContract.MetadataEntry.TABLE_NAME, null, contentValues);
+            if (rowId == -1) {
+                throw new IllegalArgumentException("Failed to cache metadata for " + url);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.end();
+        }
+        purgeThumbnails(writer, releasedThumbnails);
         return ContentUris.withAppendedId(uri, rowId);
     }
 
+    /**
+     * Deletes cached pages and releases their thumbnails. Must be called inside a transaction.
+     * @param db
+     * @param selection
+     * @param selectionArgs
+     * @return List - The thumbnails no row references anymore, to purge once the transaction commits.
+     */
+    private List<String> deleteMetadata(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        List<String> releasedThumbnails = new ArrayList<>();
+        Map<Long, String> rows = queryThumbnails(db, LinkContract.MetadataEntry.TABLE_NAME, selection, selectionArgs);
+        if (rows.isEmpty()) {
+            return releasedThumbnails;
+        }
+        db.delete(LinkContract.MetadataEntry.TABLE_NAME, selection, selectionArgs);
+        for (String hash : rows.values()) {
+            if (hash != null && thumbnailStore.release(db, hash)) {
+                releasedThumbnails.add(hash);
+            }
+        }
+        return releasedThumbnails;
+    }
+
     /** Handles the delete request(s) of the {@link android.content.ContentResolver}. */
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
 
-        SQLiteDatabase db = linkDb.getWritableDatabase(); //Delete modifies the database data, therefore db needs to be a writable.
+        LinkWriter writer = getWriter(); //Delete modifies the database data, therefore it goes through the writer.
+        SQLiteDatabase db = writer.getDatabase();
         int rowsDeleted;
         int match = sUriMatcher.match(uri);
 
+        // Deleting a folder deletes everything under it, found through the folder ids until the tree is complete.
+        boolean treePending = folderTreeBackfill.isPending(db);
         switch(match){
             case ENTIRE_LINK_DB:
-                rowsDeleted = db.delete(LinkContract.LinkEntry.TABLE_NAME, selection, selectionArgs);
+                selection = treePending ? FolderTree.widenToSubtreesWalk(selection) : FolderTree.widenToSubtrees(selection);
                 break;
             case SINGLE_LINK_ROW:
-                selection = LinkContract.LinkEntry._ID + "=?";
+                selection = treePending ? FolderTree.SELECTION_SUBTREE_WALK : FolderTree.SELECTION_SUBTREE;
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = db.delete(LinkContract.LinkEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case METADATA_DB:
+                List<String> releasedMetadataThumbnails;
+                writer.begin();
+                try {
+                    rowsDeleted = (int) DatabaseUtils.queryNumEntries(db, LinkContract.MetadataEntry.TABLE_NAME, selection, selectionArgs);
+                    releasedMetadataThumbnails = deleteMetadata(db, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    writer.end();
+                }
+                purgeThumbnails(writer, releasedMetadataThumbnails);
+                return rowsDeleted;
             default:
                 throw new IllegalArgumentException("No rows were deleted due to incorrect " + uri);
         }
+
+        Map<Long, String> rows;
+        List<String> releasedThumbnails = new ArrayList<>();
+        writer.begin();
+        try {
+            rows = queryThumbnails(db, LinkContract.LinkEntry.TABLE_NAME, selection, selectionArgs);
+            if (selection != null) {
+                // The rows leave the tree first, while the triggers can still read them to update the folders above.
+                // The selection reads the tree, so the rows are deleted by the ids it matched beforehand.
+                FolderTree.remove(writer, rows.keySet());
+                rowsDeleted = deleteLinks(writer, rows.keySet());
+            } else {
+                rowsDeleted = db.delete(LinkContract.LinkEntry.TABLE_NAME, null, null);
+                db.delete(LinkContract.FolderTreeEntry.TABLE_NAME, null, null);
+            }
+            ChangeLog.compact(writer);
+            for (String hash : rows.values()) {
+                if (hash != null && thumbnailStore.release(db, hash)) {
+                    releasedThumbnails.add(hash);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.end();
+        }
+        purgeThumbnails(writer, releasedThumbnails);
+
         if (rowsDeleted > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -162,23 +996,182 @@ public class LinkProvider extends ContentProvider {
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues, @Nullable String selection, @Nullable String[] selectionArgs) {
         int rowNumbersUpdated;
-        SQLiteDatabase db = linkDb.getWritableDatabase(); //Update modifies the database data, therefore db needs to be a writable.
-
-        validUrl(contentValues);
+        LinkWriter writer = getWriter(); //Update modifies the database data, therefore it goes through the writer.
+        SQLiteDatabase db = writer.getDatabase();
 
         final int match = sUriMatcher.match(uri);
         switch(match) {
+            case METADATA_DB:
+                // Revalidating a page only refreshes its validators and fetch time. A new thumbnail means a new row.
+                if (contentValues.containsKey(LinkContract.MetadataEntry.COLUMN_METADATA_IMAGE)
+                        || contentValues.containsKey(LinkContract.MetadataEntry.COLUMN_METADATA_IMAGE_HASH)) {
+                    throw new IllegalArgumentException("Cached thumbnails are replaced by inserting the page again.");
+                }
+                writer.lock();
+                try {
+                    return db.update(LinkContract.MetadataEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+                } finally {
+                    writer.unlock();
+                }
             case SINGLE_LINK_ROW:
+                // An update may leave the url out, as the background refresh does.
+                if (contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_URL)) {
+                    validUrl(contentValues);
+                }
                 selection = LinkContract.LinkEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf((ContentUris.parseId(uri)))};
-                rowNumbersUpdated = db.update(LinkContract.LinkEntry.TABLE_NAME, contentValues, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                normalizeTitle(contentValues, false);
+                if (contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_DATA_TYPE)) {
+                    throw new IllegalArgumentException("A link cannot become a folder, nor a folder a link.");
+                }
+                checkAggregates(contentValues);
+
+                List<String> releasedThumbnails = new ArrayList<>();
+                writer.begin();
+                try {
+                    // A new folder moves the row along with everything under it.
+                    if (contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID)) {
+                        Long folderId = contentValues.getAsLong(LinkContract.LinkEntry.COLUMN_LINK_FOLDER_ID);
+                        if (folderTreeBackfill.isPending(db)) {
+                            // The move rewrites the rows of the subtree and copies those of the folder, so they go in first.
+                            folderTreeBackfill.addSubtree(db, ContentUris.parseId(uri));
+                            if (folderId != null) {
+                                folderTreeBackfill.addRow(db, folderId);
+                            }
+                        }
+                        FolderTree.move(writer, ContentUris.parseId(uri), folderId);
+                    }
+                    // A new thumbnail replaces the one currently referenced by the row.
+                    if (contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_IMAGE)) {
+                        for (String hash : queryThumbnails(db, LinkContract.LinkEntry.TABLE_NAME, selection, selectionArgs).values()) {
+                            if (hash != null && thumbnailStore.release(db, hash)) {
+                                releasedThumbnails.add(hash);
+                            }
+                        }
+                        storeThumbnail(db, contentValues);
+                    }
+                    rowNumbersUpdated = updateLink(writer, ContentUris.parseId(uri), contentValues);
+                    db.setTransactionSuccessful();
+                } finally {
+                    writer.end();
+                }
+                purgeThumbnails(writer, releasedThumbnails);
+
+                notifyChange(uri);
                 return rowNumbersUpdated;
             default:
                 throw new IllegalArgumentException("Updating rows failed.");
         }
     }
 
+    /** Notifies observers of the change, unless it is part of a batch that notifies once at the end. */
+    private void notifyChange(Uri uri) {
+        if (batchReleasedThumbnails.get() == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Deletes the files of released thumbnails, or defers it to the end of the batch running on this thread.
+     * The batch purges them itself once it has committed, no longer marked as running.
+     */
+    private void purgeThumbnails(LinkWriter writer, List<String> releasedThumbnails) {
+        List<String> pending = batchReleasedThumbnails.get();
+        if (pending != null) {
+            pending.addAll(releasedThumbnails);
+        } else if (!releasedThumbnails.isEmpty()) {
+            writer.lock();
+            try {
+                thumbnailStore.purge(writer.getDatabase(), releasedThumbnails);
+            } finally {
+                writer.unlock();
+            }
+        }
+    }
+
+    /** Returns the writer, opening the writable database on first use. */
+    private synchronized LinkWriter getWriter() {
+        if (writer == null) {
+            writer = new LinkWriter(linkDb.getWritableDatabase(), thumbnailStore);
+        }
+        return writer;
+    }
+
+    /**
+     * Replaces the thumbnail bytes in the ContentValues with the hash of the file written to the {@link ThumbnailStore},
+     * recording the downloaded image they were encoded from when the ContentValues name it.
+     * Must be called inside a transaction. A thumbnail that cannot be written is dropped rather than failing the whole row.
+     * @param db
+     * @param contentValues
+     */
+    private void storeThumbnail(SQLiteDatabase db, ContentValues contentValues) {
+        String source = contentValues.getAsString(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_SOURCE);
+        contentValues.remove(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_SOURCE);
+        if (!contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_IMAGE)) {
+            return;
+        }
+        byte[] image = contentValues.getAsByteArray(LinkContract.LinkEntry.COLUMN_LINK_IMAGE);
+        contentValues.remove(LinkContract.LinkEntry.COLUMN_LINK_IMAGE);
+        contentValues.putNull(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH);
+
+        if (image != null) {
+            try {
+                contentValues.put(LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH, thumbnailStore.acquire(db, image, source));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to store thumbnail.", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the thumbnail hashes referenced by the rows matching the selection.
+     * @param db
+     * @param table The link table or the metadata table, which name their thumbnail columns alike.
+     * @param selection
+     * @param selectionArgs
+     * @return Map - Row id to thumbnail hash, or to null when the row has no thumbnail.
+     */
+    private Map<Long, String> queryThumbnails(SQLiteDatabase db, String table, String selection, String[] selectionArgs) {
+        Map<Long, String> rows = new LinkedHashMap<>();
+        Cursor cursor = db.query(table,
+                new String[] {LinkContract.LinkEntry._ID, LinkContract.LinkEntry.COLUMN_LINK_IMAGE_HASH},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getLong(0), cursor.isNull(1) ? null : cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Stores a missing title as an empty string. The list pages on (title, _id), and a null title would never compare
+     * greater than the last title of a page.
+     * @param contentValues
+     * @param required Whether a title must be present, as on insert.
+     */
+    private void normalizeTitle(ContentValues contentValues, boolean required) {
+        boolean present = contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_TITLE);
+        if ((required && !present) || (present && contentValues.getAsString(LinkContract.LinkEntry.COLUMN_LINK_TITLE) == null)) {
+            contentValues.put(LinkContract.LinkEntry.COLUMN_LINK_TITLE, "");
+        }
+    }
+
+    /**
+     * Rejects values of the aggregate columns, which only the triggers of the folder tree write.
+     * @param contentValues
+     */
+    private void checkAggregates(ContentValues contentValues) {
+        for (String column : new String[] {LinkContract.LinkEntry.COLUMN_LINK_CHILD_COUNT,
+                LinkContract.LinkEntry.COLUMN_LINK_LINK_COUNT, LinkContract.LinkEntry.COLUMN_LINK_LATEST_DATE}) {
+            if (contentValues.containsKey(column)) {
+                throw new IllegalArgumentException(column + " is kept up to date by the database.");
+            }
+        }
+    }
+
     /**
      * Validates whether the URL provided follows the correct syntax.
      * @param contentValues
@@ -186,7 +1179,7 @@ public class LinkProvider extends ContentProvider {
     private void validUrl(ContentValues contentValues) {
         if(contentValues.containsKey(LinkContract.LinkEntry.COLUMN_LINK_URL)) {
             String validUrl = contentValues.getAsString(LinkContract.LinkEntry.COLUMN_LINK_URL);
-            if (!(Patterns.WEB_URL.matcher(validUrl).matches()))
+            if (!UrlValidator.isValid(validUrl))
                 throw new IllegalArgumentException(validUrl + " is an invalid URL.");
         } else {
             throw new NullPointerException("Url key is missing.");
@@ -0,0 +1,108 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The single writer of the link database.
+ * Writes queue on a fair lock and hold it for their whole transaction, so they run one at a time in the order they
+ * arrived. The database runs with write-ahead logging, so queries keep reading the last commit on their own connections
+ * and never wait for a write, however long it runs.
+ * The statements of the write hot paths are compiled once and reused. Only the thread holding the lock uses them, which
+ * is what makes sharing them safe, as a statement holds its bound arguments.
+ */
+final class LinkWriter {
+
+    private final SQLiteDatabase db;
+
+    /** Told when a transaction ends, to delete the thumbnails written by one that rolled back. May be null. */
+    private final ThumbnailStore thumbnailStore;
+
+    /** The writer queue. Reentrant, since a batch runs single writes inside its own transaction. */
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /** Compiled statements by their SQL, guarded by {@link #lock}. */
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+    /**
+     * @param db The writable database, opened with write-ahead logging.
+     */
+    LinkWriter(SQLiteDatabase db) {
+        this(db, null);
+    }
+
+    /**
+     * @param db The writable database, opened with write-ahead logging.
+     * @param thumbnailStore Store the transactions write thumbnails to, may be null.
+     */
+    LinkWriter(SQLiteDatabase db, ThumbnailStore thumbnailStore) {
+        this.db = db;
+        this.thumbnailStore = thumbnailStore;
+    }
+
+    SQLiteDatabase getDatabase() {
+        return db;
+    }
+
+    /** Waits for the turn of the calling thread, then holds the writer until {@link #unlock()}. */
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Waits for the turn of the calling thread and starts a transaction. Must be paired with {@link #end()} in a finally block.
+     * The transaction is immediate rather than exclusive, which with write-ahead logging lets the readers carry on.
+     */
+    void begin() {
+        lock.lock();
+        try {
+            db.beginTransactionNonExclusive();
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Ends the transaction started by {@link #begin()} and hands the writer to the next thread in line.
+     * Once the outermost transaction is over, the thumbnails it wrote are deleted again if it rolled back.
+     */
+    void end() {
+        try {
+            db.endTransaction();
+            if (thumbnailStore != null && !db.inTransaction()) {
+                thumbnailStore.settle(db);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the compiled statement of the SQL, compiling it on first use. Its arguments are cleared.
+     * @param sql A constant, or built from one of the few column sets the app writes, so the cache stays small.
+     * @return SQLiteStatement - Only valid while the calling thread holds the writer.
+     * @throws IllegalStateException When the calling thread does not hold the writer.
+     */
+    SQLiteStatement statement(String sql) {
+        if (!lock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("Cached statements are only used while holding the writer.");
+        }
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+import com.example.android.linker.SQLdb.LinkContract.MigrationEntry;
+
+/**
+ * Runs the backfills left by schema upgrades.
+ * Each chunk of a backfill is its own transaction through the {@link LinkWriter}, so other writes take turns with it
+ * and readers keep reading the last commit. Every chunk rewrites whole rows, so a row is read either as it was or as it
+ * is meant to be, never halfway.
+ */
+final class Migrations {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = Migrations.class.getSimpleName();
+
+    private Migrations() {}
+
+    /** Creates the table keeping the progress of the backfills. */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + MigrationEntry.TABLE_NAME + " ("
+                + MigrationEntry.COLUMN_NAME + " TEXT PRIMARY KEY, "
+                + MigrationEntry.COLUMN_CHECKPOINT + " INTEGER NOT NULL DEFAULT(0), "
+                + MigrationEntry.COLUMN_TARGET + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Schedules a backfill of every row of a table up to its current highest id. Called from the upgrade step that
+     * changes the schema, so the backfill starts once the upgrade commits.
+     * @param db
+     * @param name
+     * @param table Table whose rows are backfilled.
+     */
+    static void schedule(SQLiteDatabase db, String name, String table) {
+        ContentValues values = new ContentValues();
+        values.put(MigrationEntry.COLUMN_NAME, name);
+        values.put(MigrationEntry.COLUMN_CHECKPOINT, 0);
+        values.put(MigrationEntry.COLUMN_TARGET, maxId(db, table));
+        db.insertWithOnConflict(MigrationEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /** Returns the highest id of a table, 0 when it is empty. */
+    private static long maxId(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT MAX(" + LinkEntry._ID + ") FROM " + table, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the id of the last row of the next chunk, so a backfill rewrites the rows of a chunk with set based
+     * statements over a range of the primary key.
+     * @param db
+     * @param table
+     * @param checkpoint Id of the last row done.
+     * @param target Id of the last row to do.
+     * @param size Rows per chunk.
+     * @return long - The id of the last row of the chunk, the target when fewer rows are left.
+     */
+    static long chunkEnd(SQLiteDatabase db, String table, long checkpoint, long target, int size) {
+        Cursor cursor = db.rawQuery("SELECT " + LinkEntry._ID + " FROM " + table + " WHERE " + LinkEntry._ID + " > ? AND "
+                + LinkEntry._ID + " <= ? ORDER BY " + LinkEntry._ID + " LIMIT 1 OFFSET " + (size - 1),
+                new String[] {String.valueOf(checkpoint), String.valueOf(target)});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : target;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns whether a backfill has rows left.
+     * @param db
+     * @param name
+     * @return boolean - False once it is done, or when it was never scheduled.
+     */
+    static boolean isPending(SQLiteDatabase db, String name) {
+        return readProgress(db, name) != null;
+    }
+
+    /**
+     * Reads the progress of a backfill with rows left, for the queries falling back on the rows it has not reached.
+     * @return long[] - The checkpoint and the target, or null when the backfill has no rows left.
+     */
+    static long[] readProgress(SQLiteDatabase db, String name) {
+        Cursor cursor = db.query(MigrationEntry.TABLE_NAME,
+                new String[] {MigrationEntry.COLUMN_CHECKPOINT, MigrationEntry.COLUMN_TARGET},
+                MigrationEntry.COLUMN_NAME + "=? AND " + MigrationEntry.SELECTION_PENDING, new String[] {name},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? new long[] {cursor.getLong(0), cursor.getLong(1)} : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs the backfills with rows left, one chunk per transaction, until they are all done. Resumes from the last
+     * checkpoint committed, by this process or an earlier one. Observers of the link table and of the progress are
+     * notified after every chunk.
+     * Must not be called on the main thread.
+     * @param writer
+     * @param resolver
+     * @param backfills Every backfill an upgrade may schedule, in the order they run.
+     */
+    static void run(LinkWriter writer, ContentResolver resolver, Backfill... backfills) {
+        SQLiteDatabase db = writer.getDatabase();
+        for (Backfill backfill : backfills) {
+            boolean pending = true;
+            int chunks = 0;
+            while (pending) {
+                long[] progress;
+                writer.begin();
+                try {
+                    progress = readProgress(db, backfill.getName());
+                    if (progress != null) {
+                        long checkpoint = backfill.runChunk(db, progress[0], progress[1]);
+                        ContentValues values = new ContentValues();
+                        values.put(MigrationEntry.COLUMN_CHECKPOINT, Math.min(checkpoint, progress[1]));
+                        db.update(MigrationEntry.TABLE_NAME, values, MigrationEntry.COLUMN_NAME + "=?", new String[] {backfill.getName()});
+                        pending = checkpoint < progress[1];
+                        chunks++;
+                    } else {
+                        pending = false;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    writer.end();
+                }
+                if (progress != null) {
+                    resolver.notifyChange(MigrationEntry.CONTENT_URI, null);
+                    resolver.notifyChange(LinkEntry.CONTENT_URI, null);
+                }
+            }
+            if (chunks > 0) {
+                Log.i(LOG_TAG, "Backfilled " + backfill.getName() + " in " + chunks + " chunks.");
+            }
+        }
+    }
+}
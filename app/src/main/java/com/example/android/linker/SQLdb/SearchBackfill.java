@@ -0,0 +1,51 @@
+package com.example.android.linker.SQLdb;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+import com.example.android.linker.SQLdb.LinkContract.MigrationEntry;
+import com.example.android.linker.SQLdb.LinkContract.SearchEntry;
+
+/**
+ * Indexes the titles and urls of links saved before version 4, in place of a single 'rebuild' of the full-text table.
+ * The triggers of an upgraded database leave the rows it has not reached alone, so each row is indexed once, with the
+ * text it has when its chunk runs. Until then, searches match those rows with LIKE, see {@link LinkProvider}.
+ */
+final class SearchBackfill implements Backfill {
+
+    /** Name of the backfill in the {@link MigrationEntry} table. */
+    static final String NAME = "search_index";
+
+    /** Rows indexed per chunk. Only the title and url are read, so a chunk can be larger than a thumbnail chunk. */
+    private static final int CHUNK_SIZE = 200;
+
+    /** Indexes the links of a range of ids, with the checkpoint and the end of the chunk as arguments. */
+    private static final String INDEX_RANGE = "INSERT INTO " + SearchEntry.TABLE_NAME + " (" + SearchEntry.COLUMN_DOCID
+            + ", " + SearchEntry.COLUMN_TITLE + ", " + SearchEntry.COLUMN_URL + ") SELECT " + LinkEntry._ID + ", "
+            + LinkEntry.COLUMN_LINK_TITLE + ", " + LinkEntry.COLUMN_LINK_URL + " FROM " + LinkEntry.TABLE_NAME
+            + " WHERE " + LinkEntry._ID + " > ? AND " + LinkEntry._ID + " <= ?";
+
+    /**
+     * Returns the condition the triggers of an upgraded database index a row on: the backfill has reached it, or it was
+     * saved after the upgrade.
+     * @param row Alias of the row in the trigger, new or old.
+     * @return String
+     */
+    static String isIndexed(String row) {
+        return "NOT EXISTS (SELECT 1 FROM " + MigrationEntry.TABLE_NAME + " WHERE " + MigrationEntry.COLUMN_NAME + " = '"
+                + NAME + "' AND " + row + "." + LinkEntry._ID + " > " + MigrationEntry.COLUMN_CHECKPOINT + " AND "
+                + row + "." + LinkEntry._ID + " <= " + MigrationEntry.COLUMN_TARGET + ")";
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long runChunk(SQLiteDatabase db, long checkpoint, long target) {
+        long end = Migrations.chunkEnd(db, LinkEntry.TABLE_NAME, checkpoint, target, CHUNK_SIZE);
+        db.execSQL(INDEX_RANGE, new Object[] {checkpoint, end});
+        return end;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract.LinkEntry;
+
+import java.io.IOException;
+
+/**
+ * Moves the thumbnail blobs of links saved before version 2 into the {@link ThumbnailStore}.
+ * SQLite cannot drop a column, so the legacy image column stays behind with every value set to null.
+ * Until its row is reached, a link reads as having no thumbnail, unless its thumbnail is opened, which moves it first.
+ */
+final class ThumbnailBackfill implements Backfill {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = ThumbnailBackfill.class.getSimpleName();
+
+    /** Name of the backfill in the {@link LinkContract.MigrationEntry} table. */
+    static final String NAME = "thumbnail_blobs";
+
+    /** Rows moved per chunk. Kept small, as the blobs of a chunk are read in a single cursor window. */
+    private static final int CHUNK_SIZE = 20;
+
+    /** Holds the files the blobs are moved to. */
+    private final ThumbnailStore store;
+
+    ThumbnailBackfill(ThumbnailStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long runChunk(SQLiteDatabase db, long checkpoint, long target) {
+        Cursor cursor = db.query(LinkEntry.TABLE_NAME, new String[] {LinkEntry._ID, LinkEntry.COLUMN_LINK_IMAGE},
+                LinkEntry._ID + " > ? AND " + LinkEntry._ID + " <= ? AND " + LinkEntry.COLUMN_LINK_IMAGE + " IS NOT NULL",
+                new String[] {String.valueOf(checkpoint), String.valueOf(target)}, null, null, LinkEntry._ID, String.valueOf(CHUNK_SIZE));
+        try {
+            long lastId = target;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                move(db, lastId, cursor.getBlob(1));
+            }
+            return cursor.getCount() < CHUNK_SIZE ? target : lastId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Moves the blob of a single row ahead of its chunk, for a read that needs the thumbnail now.
+     * Must be called inside a transaction.
+     * @param db
+     * @param id
+     */
+    void moveRow(SQLiteDatabase db, long id) {
+        Cursor cursor = db.query(LinkEntry.TABLE_NAME, new String[] {LinkEntry.COLUMN_LINK_IMAGE},
+                LinkEntry._ID + "=? AND " + LinkEntry.COLUMN_LINK_IMAGE + " IS NOT NULL", new String[] {String.valueOf(id)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                move(db, id, cursor.getBlob(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Writes the blob to the store and swaps it for its hash. A blob that cannot be written is dropped. */
+    private void move(SQLiteDatabase db, long id, byte[] blob) {
+        ContentValues values = new ContentValues();
+        values.putNull(LinkEntry.COLUMN_LINK_IMAGE);
+        try {
+            values.put(LinkEntry.COLUMN_LINK_IMAGE_HASH, store.acquire(db, blob));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Dropping thumbnail of row " + id, e);
+        }
+        db.update(LinkEntry.TABLE_NAME, values, LinkEntry._ID + "=?", new String[] {String.valueOf(id)});
+    }
+}
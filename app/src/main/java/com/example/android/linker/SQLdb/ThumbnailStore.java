@@ -0,0 +1,408 @@
+package com.example.android.linker.SQLdb;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.linker.SQLdb.LinkContract.ThumbnailEntry;
+import com.example.android.linker.SQLdb.LinkContract.ThumbnailSourceEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Content addressed store for thumbnails under the app's files directory.
+ * Each thumbnail is written once, named after the hash of its bytes, and shared by every link and cached page that references it.
+ * The thumbnail table counts those references so a file is only removed once nothing points to it.
+ * The thumbnail source table remembers which downloaded image each thumbnail was encoded from, so an image shared by
+ * many links, such as the logo of a site, is decoded and encoded once and then found by the hash of its bytes.
+ */
+public class ThumbnailStore {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = ThumbnailStore.class.getSimpleName();
+
+    /** Name of the directory holding the thumbnail files. */
+    private static final String DIRECTORY_NAME = "thumbnails";
+
+    /** Suffix of files that are still being written. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Name of the file marking the directory as settled. Deleted while files are written or deleted, and created again
+     * once every file matches a row, so its absence at startup means the last process stopped halfway.
+     */
+    static final String SETTLED_MARKER_NAME = ".settled";
+
+    /** Digits used to turn the hash into a file name. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Directory holding the thumbnail files. */
+    private final File directory;
+
+    /** Present while no file is left behind by a write or a purge, see {@link #SETTLED_MARKER_NAME}. */
+    private final File settledMarker;
+
+    /**
+     * Hashes of the files written by the transaction running on the {@link LinkWriter}, deleted by
+     * {@link #settle(SQLiteDatabase)} when it rolls back. Only used by the thread holding the writer.
+     */
+    private final Set<String> written = new HashSet<>();
+
+    public ThumbnailStore(Context context) {
+        directory = new File(context.getFilesDir(), DIRECTORY_NAME);
+        settledMarker = new File(directory, SETTLED_MARKER_NAME);
+    }
+
+    /**
+     * Hashes the thumbnail bytes.
+     * @param bytes
+     * @return String - The SHA-1 of the bytes as lowercase hex.
+     */
+    public static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is unavailable", e);
+        }
+    }
+
+    /** Returns the file of the thumbnail. The file may not exist. */
+    public File getFile(String hash) {
+        return new File(directory, hash);
+    }
+
+    /**
+     * Finds the image format of the thumbnail from the first bytes of its file.
+     * Thumbnails are WebP since they are encoded at ingest, but older ones were stored as PNG.
+     * @param hash
+     * @return String - The MIME type, or null if the file is missing or not a known format.
+     */
+    public String getMimeType(String hash) {
+        byte[] header = new byte[12];
+        try (FileInputStream input = new FileInputStream(getFile(hash))) {
+            if (input.read(header) < header.length) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "image/webp";
+        }
+        if ((header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+            return "image/png";
+        }
+        if ((header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8) {
+            return "image/jpeg";
+        }
+        return null;
+    }
+
+    /**
+     * Reads the thumbnail back from disk.
+     * @param hash
+     * @return byte[] - The thumbnail bytes, or null if the file is missing.
+     */
+    public byte[] read(String hash) {
+        File file = getFile(hash);
+        if (!file.exists()) {
+            return null;
+        }
+
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream input = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = input.read(bytes, offset, bytes.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+            return bytes;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to read thumbnail " + hash, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the thumbnail to disk unless a file with the same hash already exists.
+     * The bytes go to a temporary file first and are renamed into place, so a crash never leaves a partial thumbnail.
+     * @param hash
+     * @param bytes
+     * @return boolean - True when the file was written, false when it already existed.
+     */
+    private boolean write(String hash, byte[] bytes) throws IOException {
+        File file = getFile(hash);
+        if (file.exists()) {
+            return false;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        if (written.isEmpty()) {
+            unsettle();
+        }
+
+        File temp = new File(directory, hash + TEMP_SUFFIX);
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(bytes);
+            output.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to move thumbnail into " + file);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the thumbnail and adds a reference to it. Must be called inside a transaction on the database.
+     * The file is written ahead of the reference, so a file that cannot be written leaves no row behind. Should the
+     * transaction roll back instead, {@link #settle(SQLiteDatabase)} deletes the file again.
+     * @param db
+     * @param bytes
+     * @return String - The hash to keep in the link table.
+     */
+    public String acquire(SQLiteDatabase db, byte[] bytes) throws IOException {
+        return acquire(db, bytes, null);
+    }
+
+    /**
+     * Same as {@link #acquire(SQLiteDatabase, byte[])}, and records the image the thumbnail was encoded from so
+     * {@link #findBySource(SQLiteDatabase, String)} finds it for as long as the thumbnail is referenced.
+     * @param db
+     * @param bytes
+     * @param sourceHash Hash of the downloaded image bytes, may be null when unknown.
+     * @return String - The hash to keep in the link table.
+     */
+    public String acquire(SQLiteDatabase db, byte[] bytes, String sourceHash) throws IOException {
+        String hash = hash(bytes);
+        if (write(hash, bytes)) {
+            written.add(hash);
+        }
+
+        db.execSQL("UPDATE " + ThumbnailEntry.TABLE_NAME
+                + " SET " + ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT + " = " + ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT + " + 1"
+                + " WHERE " + ThumbnailEntry.COLUMN_THUMBNAIL_HASH + " = ?", new Object[] {hash});
+
+        if (refCount(db, hash) == 0) {
+            ContentValues values = new ContentValues();
+            values.put(ThumbnailEntry.COLUMN_THUMBNAIL_HASH, hash);
+            values.put(ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT, 1);
+            values.put(ThumbnailEntry.COLUMN_THUMBNAIL_SIZE, bytes.length);
+            db.insertOrThrow(ThumbnailEntry.TABLE_NAME, null, values);
+        }
+
+        if (sourceHash != null) {
+            // Replaces the thumbnail of an image encoded before with other settings.
+            ContentValues source = new ContentValues();
+            source.put(ThumbnailSourceEntry.COLUMN_SOURCE_HASH, sourceHash);
+            source.put(ThumbnailSourceEntry.COLUMN_THUMBNAIL_HASH, hash);
+            db.insertWithOnConflict(ThumbnailSourceEntry.TABLE_NAME, null, source, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        return hash;
+    }
+
+    /**
+     * Finds the thumbnail encoded from a downloaded image.
+     * The thumbnail is not referenced on behalf of the caller, so its file may be purged before it is read.
+     * @param db
+     * @param sourceHash Hash of the downloaded image bytes.
+     * @return String - The thumbnail hash, or null when no referenced thumbnail was encoded from the image.
+     */
+    public String findBySource(SQLiteDatabase db, String sourceHash) {
+        Cursor cursor = db.query(ThumbnailSourceEntry.TABLE_NAME,
+                new String[] {ThumbnailSourceEntry.COLUMN_THUMBNAIL_HASH},
+                ThumbnailSourceEntry.COLUMN_SOURCE_HASH + "=?", new String[] {sourceHash},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Removes a reference to the thumbnail. Must be called inside a transaction on the database.
+     * The file itself is left on disk until {@link #purge(SQLiteDatabase, Collection)} runs after the transaction commits.
+     * @param db
+     * @param hash
+     * @return boolean - True when no link references the thumbnail anymore.
+     */
+    public boolean release(SQLiteDatabase db, String hash) {
+        db.execSQL("UPDATE " + ThumbnailEntry.TABLE_NAME
+                + " SET " + ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT + " = " + ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT + " - 1"
+                + " WHERE " + ThumbnailEntry.COLUMN_THUMBNAIL_HASH + " = ?", new Object[] {hash});
+
+        if (refCount(db, hash) > 0) {
+            return false;
+        }
+        db.delete(ThumbnailEntry.TABLE_NAME, ThumbnailEntry.COLUMN_THUMBNAIL_HASH + "=?", new String[] {hash});
+        db.delete(ThumbnailSourceEntry.TABLE_NAME, ThumbnailSourceEntry.COLUMN_THUMBNAIL_HASH + "=?", new String[] {hash});
+        return true;
+    }
+
+    /**
+     * Deletes the files of released thumbnails.
+     * Runs in its own transaction so a concurrent {@link #acquire(SQLiteDatabase, byte[])} of the same bytes either
+     * commits first and keeps the file, or runs afterwards and writes the file again.
+     * @param db
+     * @param hashes Hashes for which {@link #release(SQLiteDatabase, String)} returned true.
+     */
+    public void purge(SQLiteDatabase db, Collection<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+
+        unsettle();
+        db.beginTransaction();
+        try {
+            for (String hash : hashes) {
+                if (refCount(db, hash) == 0 && !getFile(hash).delete()) {
+                    Log.w(LOG_TAG, "Unable to delete thumbnail " + hash);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        markSettled();
+    }
+
+    /**
+     * Returns whether the last process stopped while files were being written or purged, or whether the directory
+     * predates the marker, so that {@link #sweep(SQLiteDatabase)} has files to look for.
+     */
+    public boolean needsSweep() {
+        return directory.exists() && !settledMarker.exists();
+    }
+
+    /**
+     * Deletes the files no row references, left behind when a transaction that wrote a thumbnail was rolled back or the
+     * process stopped before it committed, along with any file that was still being written.
+     * Lists the whole directory and reads the whole thumbnail table, so it only runs when {@link #needsSweep()}.
+     * Must be called while holding the {@link LinkWriter} lock outside of a transaction, so that no thumbnail written
+     * by a transaction still running is mistaken for one left behind.
+     * @param db
+     * @return int - The number of files deleted.
+     */
+    public int sweep(SQLiteDatabase db) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        Set<String> referenced = new HashSet<>();
+        Cursor cursor = db.query(ThumbnailEntry.TABLE_NAME, new String[] {ThumbnailEntry.COLUMN_THUMBNAIL_HASH},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                referenced.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int deleted = 0;
+        for (File file : files) {
+            if (!file.equals(settledMarker) && !referenced.contains(file.getName())) {
+                if (file.delete()) {
+                    deleted++;
+                } else {
+                    Log.w(LOG_TAG, "Unable to delete unreferenced thumbnail " + file.getName());
+                }
+            }
+        }
+        markSettled();
+        return deleted;
+    }
+
+    /**
+     * Reports how much space sharing the thumbnails saves, against a copy of the thumbnail in every row referencing it.
+     * @param db
+     * @return Cursor - A single row with the {@code STATS_} columns of {@link ThumbnailEntry}.
+     */
+    public Cursor queryStats(SQLiteDatabase db) {
+        return db.rawQuery("SELECT COUNT(*) AS " + ThumbnailEntry.STATS_THUMBNAILS
+                + ", IFNULL(SUM(" + ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT + "), 0) AS " + ThumbnailEntry.STATS_REFERENCES
+                + ", IFNULL(SUM(" + ThumbnailEntry.COLUMN_THUMBNAIL_SIZE + "), 0) AS " + ThumbnailEntry.STATS_STORED_BYTES
+                + ", IFNULL(SUM(" + ThumbnailEntry.COLUMN_THUMBNAIL_SIZE + " * " + ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT + "), 0) AS "
+                + ThumbnailEntry.STATS_REFERENCED_BYTES
+                + ", (SELECT COUNT(*) FROM " + ThumbnailSourceEntry.TABLE_NAME + ") AS " + ThumbnailEntry.STATS_SOURCES
+                + " FROM " + ThumbnailEntry.TABLE_NAME, null);
+    }
+
+    /**
+     * Deletes the files written by a transaction that rolled back, as no row references them.
+     * Called by the {@link LinkWriter} once its outermost transaction ends, before it hands the writer to the next thread.
+     * @param db
+     */
+    void settle(SQLiteDatabase db) {
+        if (written.isEmpty()) {
+            return;
+        }
+        for (String hash : written) {
+            if (refCount(db, hash) == 0 && !getFile(hash).delete()) {
+                Log.w(LOG_TAG, "Unable to delete thumbnail " + hash + " of a rolled back transaction");
+            }
+        }
+        written.clear();
+        markSettled();
+    }
+
+    /** Deletes the marker before files are written or deleted, so that a process stopped halfway is swept next time. */
+    private void unsettle() {
+        if (settledMarker.exists() && !settledMarker.delete()) {
+            Log.w(LOG_TAG, "Unable to delete " + settledMarker);
+        }
+    }
+
+    /** Creates the marker once every file matches a row again. */
+    private void markSettled() {
+        try {
+            if (directory.exists()) {
+                settledMarker.createNewFile();
+            }
+        } catch (IOException e) {
+            // The next process sweeps once more, which is only slower.
+            Log.w(LOG_TAG, "Unable to create " + settledMarker, e);
+        }
+    }
+
+    /** Returns whether any row references the thumbnail. */
+    boolean isReferenced(SQLiteDatabase db, String hash) {
+        return refCount(db, hash) > 0;
+    }
+
+    /** Returns the number of links referencing the thumbnail, or 0 when it has no row. */
+    private int refCount(SQLiteDatabase db, String hash) {
+        Cursor cursor = db.query(ThumbnailEntry.TABLE_NAME,
+                new String[] {ThumbnailEntry.COLUMN_THUMBNAIL_REF_COUNT},
+                ThumbnailEntry.COLUMN_THUMBNAIL_HASH + "=?", new String[] {hash},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
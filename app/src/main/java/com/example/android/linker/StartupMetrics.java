@@ -0,0 +1,69 @@
+package com.example.android.linker;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+
+/**
+ * Times the cold start of the process up to the list, written to logcat under the class name.
+ * Two points are logged, both from the start of the process. The first meaningful frame is the first one with rows on
+ * screen, from the {@link ListSnapshot} when there is one. The fully drawn frame is the first one with the live rows,
+ * which is also reported to the system through {@link Activity#reportFullyDrawn()} so it shows up as "Fully drawn" in
+ * the ActivityManager output.
+ * Only the first list of the process is timed.
+ */
+public final class StartupMetrics {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = StartupMetrics.class.getSimpleName();
+
+    /** Stands in for the start of the process before Android N. Loaded with the first activity, so it undercounts. */
+    private static final long CLASS_LOADED = SystemClock.elapsedRealtime();
+
+    /** Whether a list has been timed in this process. */
+    private static boolean watched;
+
+    private StartupMetrics() {}
+
+    /** Returns the milliseconds since the process started. */
+    public static long sinceProcessStart() {
+        long start = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartElapsedRealtime() : CLASS_LOADED;
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * Times the first frames of the list, unless a list was timed before in this process. Must be called on the main
+     * thread, before the list is first drawn.
+     * @param activity Reported fully drawn once the live rows are drawn.
+     * @param list
+     * @param pager Source of the rows of the list.
+     */
+    public static void watch(final Activity activity, final RecyclerView list, final LinkPager pager) {
+        if (watched) {
+            return;
+        }
+        watched = true;
+        list.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            private boolean meaningful;
+
+            @Override
+            public boolean onPreDraw() {
+                if (!meaningful && (list.getChildCount() > 0 || pager.isLive())) {
+                    meaningful = true;
+                    Log.i(LOG_TAG, "First meaningful frame after " + sinceProcessStart() + " ms, from the "
+                            + (pager.isLive() ? "database" : "snapshot") + ".");
+                }
+                if (pager.isLive()) {
+                    Log.i(LOG_TAG, "Fully drawn after " + sinceProcessStart() + " ms.");
+                    activity.reportFullyDrawn();
+                    list.getViewTreeObserver().removeOnPreDrawListener(this);
+                }
+                return true;
+            }
+        });
+    }
+}
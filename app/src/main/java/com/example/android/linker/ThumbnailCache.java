@@ -0,0 +1,292 @@
+package com.example.android.linker;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.linker.SQLdb.LinkContract;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two tier cache of decoded list thumbnails.
+ * A size bounded {@link LruCache} of bitmaps sits in front of a disk cache of thumbnails already scaled to the list item size.
+ * Entries are keyed by the content hash of the thumbnail, so they never go stale: a row that gets a new thumbnail gets a
+ * new hash, and the entries of thumbnails nothing references anymore age out like any other. Rows sharing a thumbnail
+ * share its entry as well.
+ */
+public class ThumbnailCache {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = ThumbnailCache.class.getSimpleName();
+
+    /** Name of the directory holding the scaled thumbnails. */
+    private static final String DIRECTORY_NAME = "thumbnail_cache";
+
+    /** Fraction of the heap the decoded bitmaps may use. */
+    private static final int MEMORY_FRACTION = 8;
+
+    /** Upper bound of the disk cache in bytes. */
+    private static final long MAX_DISK_BYTES = 10 * 1024 * 1024;
+
+    /** Quality of the scaled thumbnails written to disk. */
+    private static final int DISK_QUALITY = 80;
+
+    /** Single instance shared by the list and the {@link ListSnapshot}. */
+    private static ThumbnailCache instance;
+
+    /** Decoded bitmaps keyed by thumbnail hash. */
+    private final LruCache<String, Bitmap> memoryCache;
+
+    /** Directory holding the scaled thumbnails. */
+    private final File diskDirectory;
+
+    /** Streams the full size thumbnails from the {@link com.example.android.linker.SQLdb.LinkProvider}. */
+    private final ContentResolver resolver;
+
+    /** Width and height of the list item thumbnail in pixels. */
+    private final int thumbnailSize;
+
+    /** Bytes currently held by the disk cache. Negative until the directory has been measured. */
+    private long diskBytes = -1;
+
+    /** Counters of both tiers. Memory lookups are counted by {@link #peek(String)}, which every bind goes through. */
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong memoryMisses = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong diskMisses = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    private ThumbnailCache(Context context) {
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / MEMORY_FRACTION);
+        memoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+        diskDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        resolver = context.getContentResolver();
+        thumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+    }
+
+    /** Returns the shared cache. */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the scaled thumbnail, decoding it from disk only when it is not held in memory.
+     * Reads and decodes files, so it must not run on the main thread.
+     * @param hash Thumbnail hash of the link.
+     * @return Bitmap - Null when the thumbnail cannot be read.
+     */
+    public Bitmap get(String hash) {
+        Bitmap bitmap = memoryCache.get(hash);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        File scaled = new File(diskDirectory, hash);
+        if (scaled.exists()) {
+            bitmap = BitmapFactory.decodeFile(scaled.getPath());
+        }
+        if (bitmap != null) {
+            diskHits.incrementAndGet();
+            scaled.setLastModified(System.currentTimeMillis());
+        } else {
+            diskMisses.incrementAndGet();
+            bitmap = scale(hash);
+            if (bitmap == null) {
+                return null;
+            }
+            writeToDisk(scaled, bitmap);
+        }
+
+        memoryCache.put(hash, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Returns the thumbnail only when it is already decoded in memory. Safe to call on the main thread.
+     * @param hash Thumbnail hash of the link.
+     * @return Bitmap - Null on a memory miss.
+     */
+    public Bitmap peek(String hash) {
+        Bitmap bitmap = memoryCache.get(hash);
+        (bitmap != null ? memoryHits : memoryMisses).incrementAndGet();
+        return bitmap;
+    }
+
+    /** Returns the hit, miss, and eviction counters of both tiers. */
+    public Stats getStats() {
+        return new Stats(memoryHits.get(), memoryMisses.get(), memoryCache.evictionCount(),
+                diskHits.get(), diskMisses.get(), diskEvictions.get(), memoryCache.size(), memoryCache.maxSize());
+    }
+
+    /**
+     * Decodes the thumbnail and center crops it to the list item size, matching the centerCrop scale type of the row.
+     * The file is read through its uri, by hash rather than by row so a row that gets a new thumbnail meanwhile cannot
+     * leave the new one cached under the old hash. Only the descriptor crosses the process boundary.
+     * @param hash Thumbnail hash of the link.
+     * @return Bitmap - Null when no row references the thumbnail anymore or it cannot be decoded.
+     */
+    private Bitmap scale(String hash) {
+        ParcelFileDescriptor file;
+        try {
+            file = resolver.openFileDescriptor(LinkContract.ThumbnailEntry.buildThumbnailUri(hash), "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        if (file == null) {
+            return null;
+        }
+
+        Bitmap source;
+        try (ParcelFileDescriptor closing = file) {
+            // Decoding from the descriptor leaves its position untouched, so it can be read twice.
+            FileDescriptor descriptor = closing.getFileDescriptor();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            options.inSampleSize = ThumbnailEncoder.calculateInSampleSize(options.outWidth, options.outHeight, thumbnailSize);
+            options.inJustDecodeBounds = false;
+            source = BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read thumbnail " + hash, e);
+            return null;
+        }
+        if (source == null) {
+            return null;
+        }
+
+        float scale = Math.max((float) thumbnailSize / source.getWidth(), (float) thumbnailSize / source.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((thumbnailSize - source.getWidth() * scale) / 2, (thumbnailSize - source.getHeight() * scale) / 2);
+
+        Bitmap scaled = Bitmap.createBitmap(thumbnailSize, thumbnailSize, Bitmap.Config.ARGB_8888);
+        new Canvas(scaled).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        source.recycle();
+        return scaled;
+    }
+
+    /** Writes the scaled thumbnail to the disk cache, evicting the least recently used files when it grows too large. */
+    private synchronized void writeToDisk(File file, Bitmap bitmap) {
+        if (!diskDirectory.exists() && !diskDirectory.mkdirs()) {
+            return;
+        }
+
+        File temp = new File(diskDirectory, file.getName() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.WEBP, DISK_QUALITY, output);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to cache thumbnail " + file.getName(), e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            File[] files = diskDirectory.listFiles();
+            for (File cached : files) {
+                diskBytes += cached.length();
+            }
+        } else {
+            diskBytes += file.length();
+        }
+        trimDisk();
+    }
+
+    /** Deletes the least recently used files until the disk cache fits {@link #MAX_DISK_BYTES}. */
+    private void trimDisk() {
+        if (diskBytes <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        File[] files = diskDirectory.listFiles();
+        final Map<File, Long> lastModified = new HashMap<>();
+        for (File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(lastModified.get(a), lastModified.get(b));
+            }
+        });
+
+        for (File file : files) {
+            if (diskBytes <= MAX_DISK_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+                diskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Snapshot of the cache counters, used to size the cache against real libraries. */
+    public static class Stats {
+        public final long memoryHits;
+        public final long memoryMisses;
+        public final long memoryEvictions;
+        public final long diskHits;
+        public final long diskMisses;
+        public final long diskEvictions;
+
+        /** Kilobytes held by the memory tier. */
+        public final int memoryKilobytes;
+
+        /** Kilobytes the memory tier may hold. */
+        public final int memoryMaxKilobytes;
+
+        Stats(long memoryHits, long memoryMisses, long memoryEvictions, long diskHits, long diskMisses,
+              long diskEvictions, int memoryKilobytes, int memoryMaxKilobytes) {
+            this.memoryHits = memoryHits;
+            this.memoryMisses = memoryMisses;
+            this.memoryEvictions = memoryEvictions;
+            this.diskHits = diskHits;
+            this.diskMisses = diskMisses;
+            this.diskEvictions = diskEvictions;
+            this.memoryKilobytes = memoryKilobytes;
+            this.memoryMaxKilobytes = memoryMaxKilobytes;
+        }
+
+        @Override
+        public String toString() {
+            return "memory " + memoryHits + " hits, " + memoryMisses + " misses, " + memoryEvictions + " evictions, "
+                    + memoryKilobytes + "/" + memoryMaxKilobytes + " KB; disk "
+                    + diskHits + " hits, " + diskMisses + " misses, " + diskEvictions + " evictions";
+        }
+    }
+}
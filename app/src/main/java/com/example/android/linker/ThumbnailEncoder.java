@@ -0,0 +1,115 @@
+package com.example.android.linker;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Turns a downloaded image into the compact thumbnail that gets stored with a link.
+ * The image bounds are read first so only a subsampled copy close to the list thumbnail size is ever decoded,
+ * and the result is encoded as lossy WebP, lowering the quality until it fits the size target.
+ */
+public class ThumbnailEncoder {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = ThumbnailEncoder.class.getSimpleName();
+
+    /** Quality the thumbnail is first encoded with. */
+    public static final int DEFAULT_QUALITY = 80;
+
+    /** Size target of an encoded thumbnail in bytes. */
+    public static final int DEFAULT_MAX_BYTES = 24 * 1024;
+
+    /** Quality is never lowered below this value, even if the size target is missed. */
+    private static final int MIN_QUALITY = 40;
+
+    /** Amount the quality is lowered by on each attempt to fit the size target. */
+    private static final int QUALITY_STEP = 10;
+
+    /** Length in pixels the shorter edge of the thumbnail is scaled to. */
+    private final int targetSize;
+
+    /** Quality the thumbnail is first encoded with. */
+    private final int quality;
+
+    /** Size target of an encoded thumbnail in bytes. */
+    private final int maxBytes;
+
+    public ThumbnailEncoder(int targetSize) {
+        this(targetSize, DEFAULT_QUALITY, DEFAULT_MAX_BYTES);
+    }
+
+    public ThumbnailEncoder(int targetSize, int quality, int maxBytes) {
+        this.targetSize = targetSize;
+        this.quality = quality;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Finds the largest power of two the image can be subsampled by while its shorter edge still covers the target.
+     * @param width Width of the source image.
+     * @param height Height of the source image.
+     * @param targetSize Length in pixels the shorter edge needs to cover.
+     * @return int - Value for {@link BitmapFactory.Options#inSampleSize}.
+     */
+    public static int calculateInSampleSize(int width, int height, int targetSize) {
+        int inSampleSize = 1;
+        while (Math.min(width, height) / (inSampleSize * 2) >= targetSize) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Decodes the image at the thumbnail size. Only the bounds are decoded at full resolution.
+     * @param source The downloaded image bytes.
+     * @return Bitmap - Null when the bytes are not a supported image.
+     */
+    public Bitmap decode(byte[] source) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inJustDecodeBounds = false;
+        Bitmap sampled = BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        // inSampleSize only divides by powers of two, so finish with an exact scale of the shorter edge.
+        float scale = (float) targetSize / Math.min(sampled.getWidth(), sampled.getHeight());
+        if (scale >= 1) {
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled,
+                Math.max(1, Math.round(sampled.getWidth() * scale)),
+                Math.max(1, Math.round(sampled.getHeight() * scale)), true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Encodes the thumbnail as WebP, lowering the quality until it fits the size target.
+     * @param bitmap A bitmap returned by {@link #decode(byte[])}.
+     * @return byte[] - The encoded thumbnail.
+     */
+    public byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int attempt = quality;
+        while (true) {
+            stream.reset();
+            bitmap.compress(Bitmap.CompressFormat.WEBP, attempt, stream);
+            if (stream.size() <= maxBytes || attempt - QUALITY_STEP < MIN_QUALITY) {
+                return stream.toByteArray();
+            }
+            attempt -= QUALITY_STEP;
+        }
+    }
+}
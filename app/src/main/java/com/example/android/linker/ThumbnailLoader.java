@@ -0,0 +1,135 @@
+package com.example.android.linker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes list thumbnails on background threads and binds them back to their row.
+ * Each {@link ImageView} remembers its pending request as a tag. Binding the view to another row, or recycling it,
+ * cancels that request, and a decode that lands late is dropped unless the view still shows the same row id.
+ */
+public class ThumbnailLoader {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** Number of threads decoding thumbnails. */
+    private static final int THREAD_COUNT = 2;
+
+    /** Shared by every list so scrolling never starts more than {@link #THREAD_COUNT} decodes at a time. */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ThumbnailLoader #" + count.incrementAndGet());
+        }
+    });
+
+    /** Posts decoded thumbnails back to the main thread. */
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Decoded thumbnails. */
+    private final ThumbnailCache thumbnailCache;
+
+    public ThumbnailLoader(Context context) {
+        thumbnailCache = ThumbnailCache.getInstance(context);
+    }
+
+    /**
+     * Shows the thumbnail of the row in the view. Must be called on the main thread.
+     * The placeholder is shown right away unless the thumbnail is already decoded in memory.
+     * @param view
+     * @param hash Thumbnail hash of the link, or null when the link has none.
+     * @param placeholder Shown until the thumbnail is decoded, such as its tiny copy in the {@link ListSnapshot}. May be null.
+     */
+    public void load(ImageView view, String hash, Bitmap placeholder) {
+        cancel(view);
+
+        Bitmap cached = hash != null ? thumbnailCache.peek(hash) : null;
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        if (placeholder != null) {
+            view.setImageBitmap(placeholder);
+        } else {
+            view.setImageResource(R.drawable.ic_language);
+        }
+        if (hash == null) {
+            return;
+        }
+
+        Request request = new Request(view, hash);
+        view.setTag(R.id.thumbnail_request, request);
+        request.future = executor.submit(request);
+    }
+
+    /**
+     * Cancels the decode pending for the view, if any.
+     * @param view
+     */
+    public void cancel(ImageView view) {
+        Request request = (Request) view.getTag(R.id.thumbnail_request);
+        if (request != null) {
+            request.cancelled = true;
+            request.future.cancel(false);
+            view.setTag(R.id.thumbnail_request, null);
+        }
+    }
+
+    /** Decodes one row thumbnail and binds it if the view has not moved on to another row. */
+    private class Request implements Runnable {
+        private final ImageView view;
+        private final String hash;
+
+        /** Set on the main thread when the view is rebound or recycled. */
+        private volatile boolean cancelled;
+
+        /** Handle used to drop the request while it is still queued. */
+        private Future<?> future;
+
+        Request(ImageView view, String hash) {
+            this.view = view;
+            this.hash = hash;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final Bitmap bitmap = thumbnailCache.get(hash);
+            if (bitmap == null || cancelled) {
+                return;
+            }
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Request current = (Request) view.getTag(R.id.thumbnail_request);
+                    if (current == Request.this && !cancelled) {
+                        view.setImageBitmap(bitmap);
+                        view.setTag(R.id.thumbnail_request, null);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.linker.core;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * Measures the fetch of a page's metadata from a stand-in server on the loopback interface, the way a shared link is
+ * scraped: the head is streamed first, and only when it is not usable is the whole document parsed from the same
+ * response, replaying the bytes the head parser already read.
+ */
+@State(Scope.Benchmark)
+public class FetchBenchmark {
+
+    private static final String[] PAGES = {"news_article.html", "blog_post.html", "shop_page.html"};
+
+    @Param({"news_article.html", "blog_post.html", "shop_page.html"})
+    public String page;
+
+    private HttpServer server;
+
+    private LinkHttpClient client;
+
+    private String url;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = Fixtures.serve(PAGES);
+        client = new LinkHttpClient(1000, 1000);
+        url = Fixtures.url(server, page);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public HeadMetadataExtractor.Metadata fetch() throws IOException {
+        try (LinkHttpClient.Response response = client.get(url)) {
+            RecordingInputStream body = new RecordingInputStream(response.getBody());
+            HeadMetadataExtractor.Metadata head = new HeadMetadataExtractor().extract(body, response.getCharset(), response.getUrl());
+            if (head.isUsable()) {
+                return head;
+            }
+            return new DocumentMetadataExtractor().extract(body.replay(), response.getCharset(), response.getUrl());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.linker.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+/**
+ * Loads the share payloads and pages under src/jmh/resources/fixtures and serves the pages from a stand-in server.
+ * The pages are trimmed copies of a news article, a blog post and a shop page without Open Graph tags, so every
+ * path of the ingestion is measured without the network.
+ */
+final class Fixtures {
+
+    /** Charset of the payloads and the pages that do not declare one. */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Fixtures() {}
+
+    /**
+     * Reads a fixture.
+     * @param name File name under fixtures/.
+     * @return byte[]
+     */
+    static byte[] read(String name) throws IOException {
+        try (InputStream input = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (input == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /** Reads a text fixture as UTF-8. */
+    static String readText(String name) throws IOException {
+        return new String(read(name), UTF_8);
+    }
+
+    /**
+     * Serves each page at /name on the loopback interface, as the page's server would.
+     * @param names File names under fixtures/.
+     * @return HttpServer - The started server. Stop it when done.
+     */
+    static HttpServer serve(String... names) throws IOException {
+        // Small responses would otherwise wait on delayed acknowledgements and measure the loopback, not the client.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        for (String name : names) {
+            final byte[] page = read(name);
+            server.createContext("/" + name, new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    exchange.getResponseHeaders().add("Content-Type", "text/html");
+                    exchange.sendResponseHeaders(200, page.length);
+                    try (OutputStream body = exchange.getResponseBody()) {
+                        body.write(page);
+                    }
+                }
+            });
+        }
+        server.start();
+        return server;
+    }
+
+    /** Returns the URL of a page served by the server. */
+    static String url(HttpServer server, String name) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + name;
+    }
+}
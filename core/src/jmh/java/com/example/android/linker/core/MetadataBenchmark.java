@@ -0,0 +1,40 @@
+package com.example.android.linker.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Measures the title and thumbnail extraction from pages already in memory: the streaming head parser and the whole
+ * document fallback.
+ */
+@State(Scope.Benchmark)
+public class MetadataBenchmark {
+
+    private static final String BASE_URL = "https://www.example.com/page.html";
+
+    @Param({"news_article.html", "blog_post.html", "shop_page.html"})
+    public String page;
+
+    private byte[] html;
+
+    @Setup
+    public void setUp() throws IOException {
+        html = Fixtures.read(page);
+    }
+
+    @Benchmark
+    public HeadMetadataExtractor.Metadata head() throws IOException {
+        return new HeadMetadataExtractor().extract(new ByteArrayInputStream(html), null, BASE_URL);
+    }
+
+    @Benchmark
+    public HeadMetadataExtractor.Metadata document() throws IOException {
+        return new DocumentMetadataExtractor().extract(new ByteArrayInputStream(html), null, BASE_URL);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.linker.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures the handling of shared text: finding the URLs, then validating and normalizing each one.
+ */
+@State(Scope.Benchmark)
+public class UrlBenchmark {
+
+    /** A tweet, an email body and an exported chat of a thousand messages. */
+    @Param({"tweet.txt", "email.txt", "chat.txt"})
+    public String payload;
+
+    private String text;
+
+    private String[] urls;
+
+    @Setup
+    public void setUp() throws IOException {
+        text = Fixtures.readText(payload);
+        List<String> extracted = UrlExtractor.extractUrls(text);
+        urls = extracted.toArray(new String[extracted.size()]);
+    }
+
+    @Benchmark
+    public List<String> extract() {
+        return UrlExtractor.extractUrls(text);
+    }
+
+    @Benchmark
+    public int validate() {
+        int valid = 0;
+        for (String url : urls) {
+            if (UrlValidator.isValid(url)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String url : urls) {
+            blackhole.consume(UrlNormalizer.normalize(url));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.linker.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One time limit for every stage of a fetch, which may also be cancelled from another thread.
+ * Stages call {@link #check()} between steps. A blocking request registers itself with {@link #watch(Closeable)} and is
+ * aborted as soon as the deadline passes or {@link #cancel()} is called, rather than when its own timeout runs out.
+ */
+public class Deadline {
+
+    /** Tag identifies the originating class of the log output. */
+    private static final String LOG_TAG = Deadline.class.getSimpleName();
+
+    /** Fires the deadlines. Its single thread only aborts requests, which does not block. */
+    private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+    /** Expiry on the {@link System#nanoTime()} clock, or Long.MAX_VALUE when there is no limit. */
+    private final long expiresAt;
+
+    /** Aborts the watched request when the deadline passes. Null when there is no limit. */
+    private final ScheduledFuture<?> alarm;
+
+    private volatile boolean expired;
+
+    private volatile boolean cancelled;
+
+    /** The request in flight, guarded by this. */
+    private Closeable watched;
+
+    private Deadline(long timeoutMillis) {
+        if (timeoutMillis == Long.MAX_VALUE) {
+            expiresAt = Long.MAX_VALUE;
+            alarm = null;
+        } else {
+            expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            alarm = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expired = true;
+                    abort();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts a deadline. Call {@link #finish()} once the work is over, so the timer lets go of it.
+     * @param timeoutMillis Time allowed from now.
+     * @return Deadline
+     */
+    public static Deadline after(long timeoutMillis) {
+        return new Deadline(Math.max(0, timeoutMillis));
+    }
+
+    /** Returns a deadline that never passes, although it can still be cancelled. */
+    public static Deadline none() {
+        return new Deadline(Long.MAX_VALUE);
+    }
+
+    /** Returns whether the time is up. */
+    public boolean isExpired() {
+        return expired || (alarm != null && System.nanoTime() >= expiresAt);
+    }
+
+    /** Returns whether {@link #cancel()} was called. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Returns whether the work should stop, because the time is up or it was cancelled. */
+    public boolean isDone() {
+        return cancelled || isExpired();
+    }
+
+    /** Returns the time left in milliseconds, 0 once the deadline has passed, or Long.MAX_VALUE without a limit. */
+    public long remainingMillis() {
+        if (alarm == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+    }
+
+    /**
+     * Shortens a timeout of a single step to the time left, so no step waits past the deadline.
+     * @param timeoutMillis The timeout of the step.
+     * @return int - The shorter of the two, at least 1 ms since 0 means no timeout to {@link java.net.URLConnection}.
+     */
+    public int limit(int timeoutMillis) {
+        return (int) Math.max(1, Math.min(timeoutMillis, remainingMillis()));
+    }
+
+    /**
+     * Throws once the work should stop.
+     * @throws InterruptedIOException When the deadline has passed or it was cancelled.
+     */
+    public void check() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Cancelled");
+        }
+        if (isExpired()) {
+            throw new InterruptedIOException("Deadline exceeded");
+        }
+    }
+
+    /**
+     * Registers the request in flight, to be closed from the timer or the cancelling thread.
+     * A request registered after the deadline is closed right away.
+     * @param request Its close() must be safe to call from another thread.
+     */
+    public void watch(Closeable request) {
+        synchronized (this) {
+            watched = request;
+        }
+        if (isDone()) {
+            abort();
+        }
+    }
+
+    /**
+     * Unregisters a request that is over.
+     * @param request
+     */
+    public synchronized void unwatch(Closeable request) {
+        if (watched == request) {
+            watched = null;
+        }
+    }
+
+    /** Stops the work and aborts the request in flight. May be called from any thread. */
+    public void cancel() {
+        cancelled = true;
+        abort();
+    }
+
+    /** Releases the timer. The deadline keeps answering as before. */
+    public void finish() {
+        if (alarm != null) {
+            alarm.cancel(false);
+        }
+    }
+
+    private void abort() {
+        Closeable request;
+        synchronized (this) {
+            request = watched;
+            watched = null;
+        }
+        if (request != null) {
+            try {
+                request.close();
+            } catch (IOException e) {
+                // The request fails on its own thread, which is what aborting it is for.
+            }
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
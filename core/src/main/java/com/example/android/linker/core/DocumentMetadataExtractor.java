@@ -0,0 +1,50 @@
+package com.example.android.linker.core;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses the whole page for a title and thumbnail. Used when the {@link HeadMetadataExtractor} finds no usable head.
+ */
+public class DocumentMetadataExtractor {
+
+    /**
+     * Parses the document read from the stream.
+     * @param input The response body. It is not closed.
+     * @param charset Charset of the response, or null to detect it from the document.
+     * @param baseUrl Resolves relative image URLs.
+     * @return Metadata - The title, or an empty string, and the image URL, or an empty string when there is none.
+     */
+    public HeadMetadataExtractor.Metadata extract(InputStream input, String charset, String baseUrl) throws IOException {
+        return extract(Jsoup.parse(input, charset, baseUrl));
+    }
+
+    /**
+     * Finds the Open Graph image of the document, or else the first PNG or JPEG image in the body.
+     * @param doc
+     * @return Metadata
+     */
+    public HeadMetadataExtractor.Metadata extract(Document doc) {
+        HeadMetadataExtractor.Metadata metadata = new HeadMetadataExtractor.Metadata();
+        metadata.title = doc.title();
+        metadata.imageUrl = "";
+        metadata.headComplete = true;
+
+        Element image = doc.select("meta[property=og:image]").first(); //Uses Open Graph Protocol.
+        if (image != null) {
+            // Resolved like the head parser does, keeping the raw value when there is no base to resolve against.
+            metadata.imageUrl = image.hasAttr("abs:content") ? image.attr("abs:content") : image.attr("content");
+        }
+        if (metadata.imageUrl.equals("")) {
+            image = doc.select("img[src~=.*(png|jpe?g).*]").first(); //Searches in the img element for any text that ends in png, jpg, or jpeg.
+            if (image != null) {
+                metadata.imageUrl = image.attr("abs:src").replace("&amp;", "&");
+            }
+        }
+        return metadata;
+    }
+}
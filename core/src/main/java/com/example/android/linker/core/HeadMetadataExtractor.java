@@ -0,0 +1,357 @@
+package com.example.android.linker.core;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streams the start of an HTML page and extracts the title and thumbnail URL without building a DOM.
+ * Tokenizing stops as soon as the head is over, or once the byte budget is spent, so the caller can close the
+ * connection without downloading the rest of the page.
+ */
+public class HeadMetadataExtractor {
+
+    /** Default number of bytes read before giving up on finding the end of the head. */
+    public static final int DEFAULT_BYTE_BUDGET = 64 * 1024;
+
+    /** Charset used when the response does not declare one. */
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    /** Meta tags holding the thumbnail URL, in order of preference. */
+    private static final String[] IMAGE_PROPERTIES = {"og:image", "og:image:url", "og:image:secure_url", "twitter:image"};
+
+    /** Number of bytes read before giving up. */
+    private final int byteBudget;
+
+    public HeadMetadataExtractor() {
+        this(DEFAULT_BYTE_BUDGET);
+    }
+
+    public HeadMetadataExtractor(int byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Tokenizes the page until the head is over or the byte budget is spent.
+     * @param input The response body. It is not closed.
+     * @param charset Charset from the Content-Type header, or null.
+     * @param baseUrl URL of the page, used to resolve a relative thumbnail URL.
+     * @return Metadata - Whatever was found before tokenizing stopped.
+     */
+    public Metadata extract(InputStream input, String charset, String baseUrl) throws IOException {
+        BoundedInputStream bounded = new BoundedInputStream(input, byteBudget);
+        Reader reader = new BufferedReader(new InputStreamReader(bounded, charset != null ? charset : DEFAULT_CHARSET));
+        Metadata metadata = new Metadata();
+        String ogTitle = null;
+        String[] images = new String[IMAGE_PROPERTIES.length];
+
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c != '<') {
+                continue;
+            }
+            String tag = readTag(reader);
+            if (tag == null) {
+                break;
+            }
+            if (tag.startsWith("!")) { // Comments and the doctype.
+                continue;
+            }
+
+            String name = tagName(tag);
+            if (name.equals("/head") || name.equals("body")) {
+                metadata.headComplete = true;
+                break;
+            }
+
+            if (name.equals("title")) {
+                String text = readRawText(reader, name);
+                if (metadata.title == null && text != null) {
+                    metadata.title = decodeEntities(text).replaceAll("\\s+", " ").trim();
+                }
+            } else if ((name.equals("script") || name.equals("style")) && !tag.endsWith("/")) {
+                readRawText(reader, name); // Raw text can hold markup that must not be tokenized.
+            } else if (name.equals("meta")) {
+                Map<String, String> attributes = attributes(tag);
+                String property = attributes.containsKey("property") ? attributes.get("property") : attributes.get("name");
+                String content = attributes.get("content");
+                if (property == null || content == null || content.isEmpty()) {
+                    continue;
+                }
+                property = property.toLowerCase(Locale.US);
+                if (property.equals("og:title") && ogTitle == null) {
+                    ogTitle = decodeEntities(content).trim();
+                }
+                for (int i = 0; i < IMAGE_PROPERTIES.length; i++) {
+                    if (property.equals(IMAGE_PROPERTIES[i]) && images[i] == null) {
+                        images[i] = resolve(baseUrl, decodeEntities(content).trim());
+                    }
+                }
+            }
+        }
+
+        if (metadata.title == null || metadata.title.isEmpty()) {
+            metadata.title = ogTitle;
+        }
+        for (String image : images) {
+            if (image != null) {
+                metadata.imageUrl = image;
+                break;
+            }
+        }
+        metadata.bytesRead = bounded.count;
+        return metadata;
+    }
+
+    /**
+     * Reads the rest of a tag after its opening bracket. Quoted attribute values may contain a closing bracket.
+     * @param reader
+     * @return String - The tag without its brackets, or null when the input ends first.
+     */
+    private static String readTag(Reader reader) throws IOException {
+        StringBuilder tag = new StringBuilder();
+        char quote = 0;
+        int c;
+        while ((c = reader.read()) != -1) {
+            boolean comment = tag.length() >= 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-';
+            if (comment) {
+                if (c == '>' && tag.length() >= 5 && tag.charAt(tag.length() - 1) == '-' && tag.charAt(tag.length() - 2) == '-') {
+                    return tag.toString();
+                }
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                return tag.toString();
+            }
+            tag.append((char) c);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the text of a raw text element up to its closing tag, and consumes the closing tag.
+     * @param reader
+     * @param name Lowercase name of the element.
+     * @return String - The text, or null when the input ends first.
+     */
+    private static String readRawText(Reader reader, String name) throws IOException {
+        String end = "</" + name;
+        StringBuilder text = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            text.append((char) c);
+            int start = text.length() - end.length();
+            if (start >= 0 && endsWithIgnoreCase(text, end)) {
+                while (c != '>' && c != -1) {
+                    c = reader.read();
+                }
+                return text.substring(0, start);
+            }
+        }
+        return null;
+    }
+
+    /** Returns true when the text ends with the lowercase suffix, ignoring the case of the text. */
+    private static boolean endsWithIgnoreCase(StringBuilder text, String suffix) {
+        int offset = text.length() - suffix.length();
+        for (int i = 0; i < suffix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(offset + i)) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the lowercase name of the tag, prefixed with a slash for end tags. */
+    private static String tagName(String tag) {
+        int end = 0;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)) && (tag.charAt(end) != '/' || end == 0)) {
+            end++;
+        }
+        return tag.substring(0, end).toLowerCase(Locale.US);
+    }
+
+    /**
+     * Parses the attributes of a start tag.
+     * @param tag The tag without its brackets.
+     * @return Map - Lowercase attribute names to their raw values.
+     */
+    private static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        int i = tagName(tag).length();
+        int length = tag.length();
+        while (i < length) {
+            while (i < length && (Character.isWhitespace(tag.charAt(i)) || tag.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < length && !Character.isWhitespace(tag.charAt(i)) && tag.charAt(i) != '=' && tag.charAt(i) != '/') {
+                i++;
+            }
+            if (nameStart == i) {
+                break;
+            }
+            String name = tag.substring(nameStart, i).toLowerCase(Locale.US);
+            while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+
+            String value = "";
+            if (i < length && tag.charAt(i) == '=') {
+                i++;
+                while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                if (i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+                    char quote = tag.charAt(i++);
+                    int valueStart = i;
+                    while (i < length && tag.charAt(i) != quote) {
+                        i++;
+                    }
+                    value = tag.substring(valueStart, i);
+                    i++;
+                } else {
+                    int valueStart = i;
+                    while (i < length && !Character.isWhitespace(tag.charAt(i))) {
+                        i++;
+                    }
+                    value = tag.substring(valueStart, i);
+                }
+            }
+            if (!attributes.containsKey(name)) {
+                attributes.put(name, value);
+            }
+        }
+        return attributes;
+    }
+
+    /** Decodes the character references that commonly appear in titles and URLs. */
+    private static String decodeEntities(String text) {
+        if (text.indexOf('&') == -1) {
+            return text;
+        }
+
+        StringBuilder decoded = new StringBuilder(text.length());
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            int semicolon = c == '&' ? text.indexOf(';', i) : -1;
+            if (semicolon == -1 || semicolon - i > 10) {
+                decoded.append(c);
+                i++;
+                continue;
+            }
+
+            String entity = text.substring(i + 1, semicolon);
+            String replacement = null;
+            if (entity.equals("amp")) {
+                replacement = "&";
+            } else if (entity.equals("lt")) {
+                replacement = "<";
+            } else if (entity.equals("gt")) {
+                replacement = ">";
+            } else if (entity.equals("quot")) {
+                replacement = "\"";
+            } else if (entity.equals("apos")) {
+                replacement = "'";
+            } else if (entity.equals("nbsp")) {
+                replacement = " ";
+            } else if (entity.startsWith("#")) {
+                try {
+                    int codePoint = entity.startsWith("#x") || entity.startsWith("#X")
+                            ? Integer.parseInt(entity.substring(2), 16)
+                            : Integer.parseInt(entity.substring(1));
+                    replacement = new String(Character.toChars(codePoint));
+                } catch (IllegalArgumentException e) {
+                    replacement = null;
+                }
+            }
+
+            if (replacement == null) {
+                decoded.append(c);
+                i++;
+            } else {
+                decoded.append(replacement);
+                i = semicolon + 1;
+            }
+        }
+        return decoded.toString();
+    }
+
+    /** Resolves a possibly relative URL against the page URL. */
+    private static String resolve(String baseUrl, String url) {
+        try {
+            return new URL(new URL(baseUrl), url).toString();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /** Metadata found in the head of a page. */
+    public static class Metadata {
+
+        /** Text of the title element, or the og:title when the page has no title. */
+        public String title;
+
+        /** Absolute URL of the Open Graph or Twitter card image. */
+        public String imageUrl;
+
+        /** Bytes read from the response before tokenizing stopped. */
+        public long bytesRead;
+
+        /** True when the end of the head was reached within the byte budget. */
+        public boolean headComplete;
+
+        /** Returns true when the head had both a title and a thumbnail, so no fallback parse is needed. */
+        public boolean isUsable() {
+            return title != null && !title.isEmpty() && imageUrl != null;
+        }
+    }
+
+    /** Reports the end of the stream once the byte budget is spent. */
+    private static class BoundedInputStream extends FilterInputStream {
+        private final long budget;
+        private long count;
+
+        BoundedInputStream(InputStream input, long budget) {
+            super(input);
+            this.budget = budget;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (count >= budget) {
+                return -1;
+            }
+            int c = super.read();
+            if (c != -1) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (count >= budget) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, budget - count));
+            if (read != -1) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.linker.core;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations into logarithmic buckets and answers percentiles, without keeping the samples.
+ * Every power of two is split into eight buckets, so a percentile is off by at most 12.5%. Recording is lock free
+ * and may happen on any thread.
+ */
+public class LatencyHistogram {
+
+    /** Each power of two is split into 2^SUB_BUCKET_BITS buckets. */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Enough powers of two for any positive long. */
+    private static final int MAGNITUDES = 64 - SUB_BUCKET_BITS + 1;
+
+    /** Sample counts per bucket. Durations are bucketed in microseconds. */
+    private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalMicros = new AtomicLong();
+
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /**
+     * Records one sample.
+     * @param nanos Duration of the sample.
+     * @param bytes Bytes handled by the sample, or 0.
+     */
+    public void record(long nanos, long bytes) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        totalBytes.addAndGet(Math.max(0, bytes));
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // Retries until this sample is recorded as the maximum or a larger one is.
+        }
+    }
+
+    /** Returns the number of samples. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Returns the bytes of all samples. */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /** Returns the longest sample in microseconds. */
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /** Returns the mean of the samples in microseconds, or 0 without samples. */
+    public long getMeanMicros() {
+        long samples = count.get();
+        return samples == 0 ? 0 : totalMicros.get() / samples;
+    }
+
+    /**
+     * Estimates a percentile from the buckets.
+     * @param percentile From 0 to 100.
+     * @return long - The upper bound of the bucket holding the percentile in microseconds, at most the maximum, or 0 without samples.
+     */
+    public long getPercentileMicros(double percentile) {
+        long samples = count.get();
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * samples));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /** Drops every sample. */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+        totalBytes.set(0);
+    }
+
+    /** Summarizes the samples in milliseconds, such as "n=12 p50=3.2 p95=40.1 p99=51.0 max=51.0 ms, 48.0 KB". */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d p50=%.1f p95=%.1f p99=%.1f max=%.1f ms, %.1f KB", getCount(),
+                getPercentileMicros(50) / 1000.0, getPercentileMicros(95) / 1000.0, getPercentileMicros(99) / 1000.0,
+                getMaxMicros() / 1000.0, getTotalBytes() / 1024.0);
+    }
+
+    /** Finds the bucket of a duration. Durations under 2^SUB_BUCKET_BITS microseconds have a bucket each. */
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the largest duration of a bucket in microseconds. */
+    static long upperBound(int index) {
+        int magnitude = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        if (magnitude == 0) {
+            return subBucket;
+        }
+        int shift = magnitude - 1;
+        if (shift + SUB_BUCKET_BITS >= 62) {
+            return Long.MAX_VALUE;
+        }
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
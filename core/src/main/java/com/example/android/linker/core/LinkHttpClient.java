@@ -0,0 +1,443 @@
+package com.example.android.linker.core;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared client for the page and image downloads of the app.
+ * Connections come from the platform {@link HttpURLConnection} pool and stay alive between requests, as long as
+ * every {@link Response} is closed. Responses are requested gzipped and decompressed transparently.
+ * A request given a {@link Deadline} is aborted, even in the middle of a read, once the deadline passes or is cancelled.
+ */
+public class LinkHttpClient {
+
+    /** Default time allowed to open a connection, in milliseconds. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /** Default time allowed between two reads, in milliseconds. */
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+
+    /** Redirects followed before giving up. */
+    private static final int MAX_REDIRECTS = 5;
+
+    /**
+     * Unread bytes drained when a response is closed early. Draining lets the connection go back to the pool,
+     * but past this limit dropping the connection is cheaper than downloading the rest.
+     */
+    private static final int DRAIN_LIMIT = 16 * 1024;
+
+    /** Sent with every request. */
+    private static final String USER_AGENT = "Mozilla/5.0 (Linux; Android) Linker";
+
+    /** Single instance shared by every download. */
+    private static LinkHttpClient instance;
+
+    /** Time allowed to open a connection when the request does not set its own. */
+    private final int connectTimeout;
+
+    /** Time allowed between two reads when the request does not set its own. */
+    private final int readTimeout;
+
+    public LinkHttpClient(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /** Returns the shared client. */
+    public static synchronized LinkHttpClient getInstance() {
+        if (instance == null) {
+            instance = new LinkHttpClient(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        }
+        return instance;
+    }
+
+    /**
+     * Sends a GET request with the client timeouts.
+     * @param url
+     * @return Response - Must be closed.
+     */
+    public Response get(String url) throws IOException {
+        return get(url, connectTimeout, readTimeout);
+    }
+
+    /**
+     * Sends a GET request with extra headers, such as the validators of a conditional request.
+     * @param url
+     * @param headers Sent with every hop of a redirect.
+     * @return Response - Must be closed. Its status is 304 when a conditional request found the page unchanged.
+     */
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        return get(url, connectTimeout, readTimeout, headers);
+    }
+
+    /**
+     * Sends a GET request with extra headers, bounded by a deadline.
+     * @param url
+     * @param headers Sent with every hop of a redirect.
+     * @param deadline Bounds the request and the reads of its body.
+     * @return Response - Must be closed.
+     * @throws InterruptedIOException When the deadline passes or is cancelled before the response is read.
+     */
+    public Response get(String url, Map<String, String> headers, Deadline deadline) throws IOException {
+        return get(url, connectTimeout, readTimeout, headers, deadline);
+    }
+
+    /**
+     * Sends a GET request, following redirects between http and https as well.
+     * @param url
+     * @param connectTimeout Time allowed to open the connection, in milliseconds.
+     * @param readTimeout Time allowed between two reads, in milliseconds.
+     * @return Response - Must be closed.
+     */
+    public Response get(String url, int connectTimeout, int readTimeout) throws IOException {
+        return get(url, connectTimeout, readTimeout, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Sends a GET request, following redirects between http and https as well.
+     * @param url
+     * @param connectTimeout Time allowed to open the connection, in milliseconds.
+     * @param readTimeout Time allowed between two reads, in milliseconds.
+     * @param headers Sent with every hop of a redirect.
+     * @return Response - Must be closed.
+     */
+    public Response get(String url, int connectTimeout, int readTimeout, Map<String, String> headers) throws IOException {
+        return get(url, connectTimeout, readTimeout, headers, Deadline.none());
+    }
+
+    /**
+     * Sends a GET request, following redirects between http and https as well.
+     * The timeouts of every hop are shortened to the time left before the deadline.
+     * @param url
+     * @param connectTimeout Time allowed to open the connection, in milliseconds.
+     * @param readTimeout Time allowed between two reads, in milliseconds.
+     * @param headers Sent with every hop of a redirect.
+     * @param deadline Bounds the request and the reads of its body.
+     * @return Response - Must be closed.
+     * @throws InterruptedIOException When the deadline passes or is cancelled before the response is read.
+     */
+    public Response get(String url, int connectTimeout, int readTimeout, Map<String, String> headers, Deadline deadline) throws IOException {
+        URL current = new URL(url);
+        long connectNanos = 0;
+        long firstByteNanos = 0;
+        for (int redirects = 0; ; redirects++) {
+            deadline.check();
+            HttpURLConnection connection = (HttpURLConnection) current.openConnection();
+            connection.setConnectTimeout(deadline.limit(connectTimeout));
+            connection.setReadTimeout(deadline.limit(readTimeout));
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            Disconnect abort = new Disconnect(connection);
+            deadline.watch(abort);
+            long start = System.nanoTime();
+            long connected;
+            int status;
+            try {
+                connection.connect();
+                connected = System.nanoTime();
+                status = connection.getResponseCode();
+            } catch (IOException e) {
+                deadline.unwatch(abort);
+                connection.disconnect();
+                deadline.check(); // Reports an aborted request as such rather than as a broken socket.
+                throw e;
+            }
+            connectNanos += connected - start;
+            firstByteNanos += System.nanoTime() - connected;
+            String location = connection.getHeaderField("Location");
+            if (status >= 300 && status < 400 && location != null) {
+                deadline.unwatch(abort);
+                new Response(connection, status, 0, 0).close();
+                if (redirects == MAX_REDIRECTS) {
+                    throw new IOException("Too many redirects for " + url);
+                }
+                current = new URL(current, location);
+                continue;
+            }
+            if (status >= 400) {
+                deadline.unwatch(abort);
+                new Response(connection, status, 0, 0).close();
+                throw new IOException("HTTP " + status + " for " + current);
+            }
+            return new Response(connection, status, connectNanos, firstByteNanos, deadline, abort);
+        }
+    }
+
+    /**
+     * Reads the lifetime of a response from its Cache-Control header.
+     * @param cacheControl The header value, may be null.
+     * @return long - The max-age in seconds, 0 when the response must be revalidated every time, or -1 when the header sets none.
+     */
+    public static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        long maxAge = -1;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Math.max(0, Long.parseLong(directive.substring(8).replace("\"", "").trim()));
+                } catch (NumberFormatException e) {
+                    maxAge = 0;
+                }
+            }
+        }
+        return maxAge;
+    }
+
+    /**
+     * Reads whether a Cache-Control header forbids storing the response.
+     * @param cacheControl The header value, may be null.
+     * @return boolean - True when the header has a no-store directive.
+     */
+    public static boolean isNoStore(String cacheControl) {
+        if (cacheControl == null) {
+            return false;
+        }
+        for (String directive : cacheControl.split(",")) {
+            if (directive.trim().toLowerCase(Locale.US).equals("no-store")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Response of a request. Closing it returns the connection to the pool whenever possible. */
+    public static class Response implements Closeable {
+        private final HttpURLConnection connection;
+        private final int status;
+        private final long connectNanos;
+        private final long firstByteNanos;
+        private final Deadline deadline;
+        private final Disconnect abort;
+        private CountingInputStream body;
+        private boolean closed;
+
+        Response(HttpURLConnection connection, int status, long connectNanos, long firstByteNanos) {
+            this(connection, status, connectNanos, firstByteNanos, Deadline.none(), null);
+        }
+
+        Response(HttpURLConnection connection, int status, long connectNanos, long firstByteNanos, Deadline deadline, Disconnect abort) {
+            this.connection = connection;
+            this.status = status;
+            this.connectNanos = connectNanos;
+            this.firstByteNanos = firstByteNanos;
+            this.deadline = deadline;
+            this.abort = abort;
+        }
+
+        /** Returns the HTTP status code. */
+        public int getStatus() {
+            return status;
+        }
+
+        /** Returns the URL the response came from, after redirects. */
+        public String getUrl() {
+            return connection.getURL().toString();
+        }
+
+        /** Returns whether a conditional request found the page unchanged. */
+        public boolean isNotModified() {
+            return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /** Returns the decompressed body bytes read so far. */
+        public long getBytesRead() {
+            return body != null ? body.count : 0;
+        }
+
+        /** Returns the time spent resolving the host and connecting, over every hop of a redirect. Near zero for a pooled connection. */
+        public long getConnectNanos() {
+            return connectNanos;
+        }
+
+        /** Returns the time from sending the request until the response headers arrived, over every hop of a redirect. */
+        public long getFirstByteNanos() {
+            return firstByteNanos;
+        }
+
+        /** Returns the time spent in body reads so far, including decompression but not what the caller does between reads. */
+        public long getReadNanos() {
+            return body != null ? body.nanos : 0;
+        }
+
+        /** Returns a response header, or null. */
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        /** Returns the Content-Type header, or null. */
+        public String getContentType() {
+            return connection.getContentType();
+        }
+
+        /**
+         * Extracts the charset parameter of the Content-Type header.
+         * @return String - The charset, or null when the header has none.
+         */
+        public String getCharset() {
+            String contentType = getContentType();
+            if (contentType == null) {
+                return null;
+            }
+            for (String parameter : contentType.split(";")) {
+                parameter = parameter.trim();
+                if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                    return parameter.substring(8).replace("\"", "").trim();
+                }
+            }
+            return null;
+        }
+
+        /** Returns the decompressed body. Its reads throw {@link InterruptedIOException} once the deadline is done. */
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                deadline.check();
+                InputStream raw = connection.getInputStream();
+                body = new CountingInputStream("gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(new CloseShield(raw)) : raw, deadline);
+            }
+            return body;
+        }
+
+        /**
+         * Closes the response. A short unread remainder is drained so the connection can be reused,
+         * otherwise the connection is dropped. It is dropped as well once the deadline is done, as draining could block.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (abort != null) {
+                deadline.unwatch(abort);
+            }
+            if (deadline.isDone()) {
+                connection.disconnect();
+                return;
+            }
+            try {
+                InputStream raw = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+                if (raw == null) {
+                    return;
+                }
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained <= DRAIN_LIMIT && (read = raw.read(buffer)) != -1) {
+                    drained += read;
+                }
+                if (drained > DRAIN_LIMIT) {
+                    connection.disconnect();
+                } else {
+                    raw.close();
+                }
+            } catch (IOException e) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /** Aborts a connection from the deadline timer or the cancelling thread. */
+    private static class Disconnect implements Closeable {
+        private final HttpURLConnection connection;
+
+        Disconnect(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() {
+            connection.disconnect();
+        }
+    }
+
+    /** Counts the bytes read from the body and the time spent reading them, and stops reading once the deadline is done. */
+    private static class CountingInputStream extends FilterInputStream {
+        private final Deadline deadline;
+        private long count;
+        private long nanos;
+
+        CountingInputStream(InputStream input, Deadline deadline) {
+            super(input);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            deadline.check();
+            long start = System.nanoTime();
+            int read;
+            try {
+                read = super.read();
+            } catch (IOException e) {
+                deadline.check();
+                throw e;
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            deadline.check();
+            long start = System.nanoTime();
+            int read;
+            try {
+                read = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                deadline.check();
+                throw e;
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            deadline.check();
+            long start = System.nanoTime();
+            long skipped = super.skip(n);
+            nanos += System.nanoTime() - start;
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /** Keeps the gzip stream from closing the raw stream, which {@link Response#close()} owns. */
+    private static class CloseShield extends FilterInputStream {
+        CloseShield(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
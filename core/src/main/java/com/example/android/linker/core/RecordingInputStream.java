@@ -0,0 +1,75 @@
+package com.example.android.linker.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Keeps a copy of the bytes read through it, so a parser that stopped early, such as the {@link HeadMetadataExtractor},
+ * can hand the whole stream to another parser without downloading the page again.
+ * The copy only grows as far as the first parser read, including whatever its buffers read ahead.
+ */
+public class RecordingInputStream extends FilterInputStream {
+
+    /** Bytes read so far. Null once {@link #replay()} stopped the recording. */
+    private ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+    public RecordingInputStream(InputStream input) {
+        super(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1 && recorded != null) {
+            recorded.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0 && recorded != null) {
+            recorded.write(buffer, offset, read);
+        }
+        return read;
+    }
+
+    /** Reads the skipped bytes, so they are recorded as well. */
+    @Override
+    public long skip(long count) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(count, 8192)];
+        long skipped = 0;
+        while (skipped < count) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Stops recording and returns the stream from its start: the recorded bytes, then the rest of the underlying stream.
+     * Must be called once at most. Closing the returned stream closes the underlying one.
+     * @return InputStream
+     */
+    public InputStream replay() {
+        if (recorded == null) {
+            throw new IllegalStateException("The stream was replayed already.");
+        }
+        byte[] bytes = recorded.toByteArray();
+        recorded = null;
+        return new SequenceInputStream(new ByteArrayInputStream(bytes), in);
+    }
+}
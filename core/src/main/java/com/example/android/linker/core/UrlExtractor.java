@@ -0,0 +1,188 @@
+package com.example.android.linker.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the URLs in shared text or HTML in a single pass over the characters.
+ * A URL starts with http://, https:// or www. at the start of a word and ends at whitespace, a quote or a tag.
+ * Punctuation ending the sentence and unbalanced closing brackets are not part of the URL.
+ */
+public final class UrlExtractor {
+
+    /** Characters that end a sentence rather than a URL. Closing brackets are handled separately. */
+    private static final String TRAILING_PUNCTUATION = ".,;:!?'*\u2026";
+
+    private UrlExtractor() {}
+
+    /**
+     * Extracts every distinct URL, in order of appearance.
+     * @param text
+     * @return List - The URLs, each starting with http:// or https://.
+     */
+    public static List<String> extractUrls(CharSequence text) {
+        Set<String> urls = new LinkedHashSet<>();
+        int length = text.length();
+        int position = 0;
+        while (position < length) {
+            int start = findStart(text, position);
+            if (start == -1) {
+                break;
+            }
+            int end = findEnd(text, start);
+            String url = toUrl(text, start, end);
+            if (url != null) {
+                urls.add(url);
+            }
+            position = Math.max(end, start + 1);
+        }
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * Extracts the first URL.
+     * @param text
+     * @return String - The URL, starting with http:// or https://, or null if the text holds none.
+     */
+    public static String extractFirstUrl(CharSequence text) {
+        int length = text.length();
+        int position = 0;
+        while (position < length) {
+            int start = findStart(text, position);
+            if (start == -1) {
+                return null;
+            }
+            int end = findEnd(text, start);
+            String url = toUrl(text, start, end);
+            if (url != null) {
+                return url;
+            }
+            position = Math.max(end, start + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the next place a URL starts.
+     * @return int - The index of the first character of the URL, or -1 if there is none.
+     */
+    private static int findStart(CharSequence text, int from) {
+        int length = text.length();
+        for (int i = from; i < length; i++) {
+            char c = text.charAt(i);
+            if ((c | 0x20) != 'h' && (c | 0x20) != 'w') {
+                continue;
+            }
+            if (i > 0 && isWordChar(text.charAt(i - 1))) {
+                continue;
+            }
+            if (prefixLength(text, i) > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Measures the scheme or www. prefix at the index, ignoring case. The prefix must be followed by a letter or digit.
+     * @return int - The length of the prefix, or 0 if there is none.
+     */
+    private static int prefixLength(CharSequence text, int index) {
+        int length;
+        if (regionMatches(text, index, "https://")) {
+            length = 8;
+        } else if (regionMatches(text, index, "http://")) {
+            length = 7;
+        } else if (regionMatches(text, index, "www.")) {
+            length = 4;
+        } else {
+            return 0;
+        }
+        return index + length < text.length() && Character.isLetterOrDigit(text.charAt(index + length)) ? length : 0;
+    }
+
+    /** Compares a lowercase ASCII prefix to the text at the index, ignoring case. */
+    private static boolean regionMatches(CharSequence text, int index, String prefix) {
+        if (index + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = text.charAt(index + i);
+            char expected = prefix.charAt(i);
+            if (c != expected && !(expected >= 'a' && expected <= 'z' && (c | 0x20) == expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the end of the URL starting at the index. Trailing punctuation is trimmed, and a closing bracket is kept
+     * only when it closes a bracket opened inside the URL, as in Wikipedia links.
+     * @return int - The index after the last character of the URL.
+     */
+    private static int findEnd(CharSequence text, int start) {
+        int length = text.length();
+        int end = start;
+        int parentheses = 0;
+        int squareBrackets = 0;
+        while (end < length) {
+            char c = text.charAt(end);
+            if (isTerminator(c)) {
+                break;
+            }
+            if (c == '(') {
+                parentheses++;
+            } else if (c == '[') {
+                squareBrackets++;
+            } else if ((c == ')' && --parentheses < 0) || (c == ']' && --squareBrackets < 0)) {
+                break;
+            }
+            end++;
+        }
+        while (end > start && TRAILING_PUNCTUATION.indexOf(text.charAt(end - 1)) != -1) {
+            end--;
+        }
+        return end;
+    }
+
+    /** Converts the characters to a URL, decoding the ampersands of HTML and adding the scheme to a www. address. */
+    private static String toUrl(CharSequence text, int start, int end) {
+        int prefix = prefixLength(text, start);
+        if (prefix == 0 || end - start <= prefix) {
+            return null;
+        }
+        String url = text.subSequence(start, end).toString();
+        if (url.indexOf('&') != -1) {
+            url = url.replace("&amp;", "&");
+        }
+        return prefix == 4 ? "https://" + url : url;
+    }
+
+    /** Whitespace, quotes, angle brackets and braces never appear unescaped in a URL. */
+    private static boolean isTerminator(char c) {
+        switch (c) {
+            case '"':
+            case '<':
+            case '>':
+            case '{':
+            case '}':
+            case '|':
+            case '\\':
+            case '^':
+            case '`':
+            case '\u201C':
+            case '\u201D':
+                return true;
+            default:
+                return Character.isWhitespace(c) || Character.isSpaceChar(c);
+        }
+    }
+
+    /** Letters, digits and the characters that would make a prefix part of a longer word or address. */
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '/' || c == '@' || c == '_' || c == '-';
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.linker.core;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * Reduces the different spellings of a page address to one key, so a page is cached once however it was shared.
+ */
+public final class UrlNormalizer {
+
+    /** Query parameters that only track where a link was shared from and never change the page. */
+    private static final String[] TRACKING_PARAMETERS = {"utm_", "fbclid", "gclid", "mc_cid", "mc_eid"};
+
+    private UrlNormalizer() {}
+
+    /**
+     * Normalizes the URL. The scheme and host are lowercased, default ports, fragments and tracking parameters are
+     * dropped, and an empty path becomes "/". The rest of the path and query is kept as is, since servers may treat
+     * it as case sensitive.
+     * @param url
+     * @return String - The normalized URL, or the URL unchanged when it cannot be parsed.
+     */
+    public static String normalize(String url) {
+        URI uri;
+        try {
+            uri = new URI(url.trim());
+        } catch (URISyntaxException e) {
+            return url;
+        }
+        if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+            return url;
+        }
+
+        String scheme = uri.getScheme().toLowerCase(Locale.US);
+        StringBuilder normalized = new StringBuilder(url.length());
+        normalized.append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            normalized.append(uri.getRawUserInfo()).append('@');
+        }
+        String host = uri.getHost() != null ? uri.getHost() : uri.getRawAuthority();
+        normalized.append(host.toLowerCase(Locale.US));
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+            normalized.append(':').append(port);
+        }
+
+        String path = uri.getRawPath();
+        normalized.append(path == null || path.isEmpty() ? "/" : path);
+
+        String query = stripTracking(uri.getRawQuery());
+        if (query != null) {
+            normalized.append('?').append(query);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Removes the tracking parameters from a query string.
+     * @param query
+     * @return String - The remaining query, or null when nothing remains.
+     */
+    private static String stripTracking(String query) {
+        if (query == null || query.isEmpty()) {
+            return null;
+        }
+        StringBuilder kept = new StringBuilder(query.length());
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty() || isTracking(parameter)) {
+                continue;
+            }
+            if (kept.length() > 0) {
+                kept.append('&');
+            }
+            kept.append(parameter);
+        }
+        return kept.length() > 0 ? kept.toString() : null;
+    }
+
+    private static boolean isTracking(String parameter) {
+        String name = parameter.toLowerCase(Locale.US);
+        for (String tracking : TRACKING_PARAMETERS) {
+            if (tracking.endsWith("_") ? name.startsWith(tracking) : (name.equals(tracking) || name.startsWith(tracking + "="))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.android.linker.core;
+
+/**
+ * Checks a web address in one pass over its characters, without regular expressions.
+ * Accepts what the list stores: an optional http, https or rtsp scheme, an optional user, a domain name with a
+ * top-level domain or an IPv4 address, an optional port, and a path, query or fragment without whitespace.
+ */
+public final class UrlValidator {
+
+    /** Schemes of the addresses accepted, lowercase. */
+    private static final String[] SCHEMES = {"http://", "https://", "rtsp://"};
+
+    /** Longest label of a domain name. */
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    private UrlValidator() {}
+
+    /**
+     * Validates whether the URL follows the syntax of a web address.
+     * @param url
+     * @return boolean - True if the URL is a web address.
+     */
+    public static boolean isValid(String url) {
+        if (url == null) {
+            return false;
+        }
+        int length = url.length();
+        int position = schemeLength(url);
+
+        // The user info ends at the last @ before the path, if there is one.
+        int authorityEnd = position;
+        while (authorityEnd < length && "/?#".indexOf(url.charAt(authorityEnd)) == -1) {
+            authorityEnd++;
+        }
+        int at = url.lastIndexOf('@', authorityEnd - 1);
+        if (at >= position) {
+            for (int i = position; i < at; i++) {
+                if (isWhitespace(url.charAt(i))) {
+                    return false;
+                }
+            }
+            position = at + 1;
+        }
+
+        int hostEnd = position;
+        while (hostEnd < authorityEnd && url.charAt(hostEnd) != ':') {
+            hostEnd++;
+        }
+        if (!isIpv4Address(url, position, hostEnd) && !isDomainName(url, position, hostEnd)) {
+            return false;
+        }
+
+        if (hostEnd < authorityEnd) {
+            int digits = authorityEnd - hostEnd - 1;
+            if (digits < 1 || digits > 5) {
+                return false;
+            }
+            for (int i = hostEnd + 1; i < authorityEnd; i++) {
+                if (!isAsciiDigit(url.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+
+        for (int i = authorityEnd; i < length; i++) {
+            if (isWhitespace(url.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the length of the scheme and its slashes, ignoring case, or 0 when the URL has no known scheme. */
+    private static int schemeLength(String url) {
+        for (String scheme : SCHEMES) {
+            if (url.regionMatches(true, 0, scheme, 0, scheme.length())) {
+                return scheme.length();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks for at least two labels of letters, digits and inner hyphens. The last label is the top-level domain and
+     * is made of letters, or is an internationalized xn-- label.
+     */
+    private static boolean isDomainName(String url, int start, int end) {
+        int labels = 0;
+        int labelStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && url.charAt(i) != '.') {
+                char c = url.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '-') {
+                    return false;
+                }
+                continue;
+            }
+            int labelLength = i - labelStart;
+            if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH
+                    || url.charAt(labelStart) == '-' || url.charAt(i - 1) == '-') {
+                return false;
+            }
+            labels++;
+            if (i == end) {
+                return labels >= 2 && isTopLevelDomain(url, labelStart, end);
+            }
+            labelStart = i + 1;
+        }
+        return false;
+    }
+
+    private static boolean isTopLevelDomain(String url, int start, int end) {
+        if (url.regionMatches(true, start, "xn--", 0, 4)) {
+            return end - start > 4;
+        }
+        if (end - start < 2) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isLetter(url.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Checks for four decimal numbers from 0 to 255 separated by dots. */
+    private static boolean isIpv4Address(String url, int start, int end) {
+        int parts = 0;
+        int value = -1;
+        for (int i = start; i <= end; i++) {
+            if (i < end && isAsciiDigit(url.charAt(i))) {
+                value = (value == -1 ? 0 : value * 10) + url.charAt(i) - '0';
+                if (value > 255) {
+                    return false;
+                }
+                continue;
+            }
+            if (value == -1 || (i < end && url.charAt(i) != '.')) {
+                return false;
+            }
+            parts++;
+            value = -1;
+        }
+        return parts == 4;
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.linker.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the whole document fallback parser.
+ */
+public class DocumentMetadataExtractorTest {
+
+    private static HeadMetadataExtractor.Metadata extract(String html) throws IOException {
+        return new DocumentMetadataExtractor().extract(new ByteArrayInputStream(html.getBytes(Charset.forName("UTF-8"))),
+                "UTF-8", "https://example.com/news/");
+    }
+
+    @Test
+    public void prefersOpenGraphImage() throws Exception {
+        HeadMetadataExtractor.Metadata metadata = extract("<title>Story</title>"
+                + "<meta property=\"og:image\" content=\"https://cdn.example.com/og.jpg\"><body><img src=\"a.png\"></body>");
+
+        assertEquals("Story", metadata.title);
+        assertEquals("https://cdn.example.com/og.jpg", metadata.imageUrl);
+    }
+
+    @Test
+    public void resolvesRelativeOpenGraphImage() throws Exception {
+        assertEquals("https://example.com/images/share.png",
+                extract("<meta property=\"og:image\" content=\"/images/share.png\">").imageUrl);
+    }
+
+    @Test
+    public void fallsBackToFirstBodyImage() throws Exception {
+        HeadMetadataExtractor.Metadata metadata = extract("<body><img src=\"icon.svg\"><img src=\"photo.jpg?w=1&amp;h=2\"></body>");
+
+        assertEquals("", metadata.title);
+        assertEquals("https://example.com/news/photo.jpg?w=1&h=2", metadata.imageUrl);
+    }
+
+    @Test
+    public void pageWithoutImage() throws Exception {
+        assertEquals("", extract("<title>Text only</title><p>Hello</p>").imageUrl);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.linker.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the streaming head parser.
+ */
+public class HeadMetadataExtractorTest {
+
+    private static final String PAGE_URL = "https://example.com/news/story.html";
+
+    private HeadMetadataExtractor.Metadata extract(String html, int byteBudget) throws IOException {
+        return new HeadMetadataExtractor(byteBudget)
+                .extract(new ByteArrayInputStream(html.getBytes(Charset.forName("UTF-8"))), null, PAGE_URL);
+    }
+
+    @Test
+    public void extractsTitleAndOpenGraphImage() throws Exception {
+        HeadMetadataExtractor.Metadata metadata = extract("<!DOCTYPE html><html><head>"
+                + "<title>\n  Tom &amp; Jerry  </title>"
+                + "<meta property=\"og:image\" content=\"https://cdn.example.com/a.jpg?w=1&amp;h=2\">"
+                + "</head><body></body></html>", HeadMetadataExtractor.DEFAULT_BYTE_BUDGET);
+
+        assertEquals("Tom & Jerry", metadata.title);
+        assertEquals("https://cdn.example.com/a.jpg?w=1&h=2", metadata.imageUrl);
+        assertTrue(metadata.headComplete);
+        assertTrue(metadata.isUsable());
+    }
+
+    @Test
+    public void resolvesRelativeImageAndPrefersOpenGraph() throws Exception {
+        HeadMetadataExtractor.Metadata metadata = extract("<head>"
+                + "<meta name='twitter:image' content='https://example.com/twitter.png'/>"
+                + "<meta property=og:image content=/images/share.png />"
+                + "<title>Story</title></head>", HeadMetadataExtractor.DEFAULT_BYTE_BUDGET);
+
+        assertEquals("https://example.com/images/share.png", metadata.imageUrl);
+    }
+
+    @Test
+    public void ignoresMarkupInsideCommentsAndScripts() throws Exception {
+        HeadMetadataExtractor.Metadata metadata = extract("<head>"
+                + "<!-- <title>Commented</title> -->"
+                + "<script>document.write('</head><body><title>Scripted</title>');</script>"
+                + "<title>Real</title></head>", HeadMetadataExtractor.DEFAULT_BYTE_BUDGET);
+
+        assertEquals("Real", metadata.title);
+        assertNull(metadata.imageUrl);
+        assertFalse(metadata.isUsable());
+    }
+
+    @Test
+    public void fallsBackToOpenGraphTitle() throws Exception {
+        HeadMetadataExtractor.Metadata metadata = extract("<head>"
+                + "<meta property=\"og:title\" content=\"Shared &quot;title&quot;\">"
+                + "</head>", HeadMetadataExtractor.DEFAULT_BYTE_BUDGET);
+
+        assertEquals("Shared \"title\"", metadata.title);
+    }
+
+    @Test
+    public void stopsAtByteBudget() throws Exception {
+        StringBuilder html = new StringBuilder("<head>");
+        for (int i = 0; i < 1000; i++) {
+            html.append("<meta name=\"filler\" content=\"").append(i).append("\">");
+        }
+        html.append("<title>Too late</title></head>");
+
+        HeadMetadataExtractor.Metadata metadata = extract(html.toString(), 1024);
+
+        assertNull(metadata.title);
+        assertFalse(metadata.headComplete);
+        assertTrue(metadata.bytesRead <= 1024);
+    }
+}
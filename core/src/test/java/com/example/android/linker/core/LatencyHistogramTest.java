@@ -0,0 +1,53 @@
+package com.example.android.linker.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the percentile histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryDuration() {
+        for (long micros = 0; micros < 100000; micros++) {
+            int index = LatencyHistogram.index(micros);
+            assertTrue(micros + " is above its bucket", micros <= LatencyHistogram.upperBound(index));
+            assertTrue(micros + " is below its bucket", index == 0 || micros > LatencyHistogram.upperBound(index - 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis * 1000000L, 10);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000, histogram.getTotalBytes());
+        assertEquals(100000, histogram.getMaxMicros());
+        assertEquals(50500, histogram.getMeanMicros());
+        assertWithin(50000, histogram.getPercentileMicros(50));
+        assertWithin(95000, histogram.getPercentileMicros(95));
+        assertWithin(99000, histogram.getPercentileMicros(99));
+        assertEquals(100000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void emptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(50));
+
+        histogram.record(5000, 0);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.android.linker.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the shared HTTP client against a stand-in server on the loopback interface.
+ */
+public class LinkHttpClientTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    /** Client ports seen by the server, one per request. */
+    private final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, "text/html; charset=utf-8", "<title>Page</title>".getBytes(UTF_8));
+            }
+        });
+        server.createContext("/gzip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write("compressed body".getBytes(UTF_8));
+                }
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                respond(exchange, "text/plain", compressed.toByteArray());
+            }
+        });
+        server.createContext("/redirect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", "/page");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, "text/plain", "late".getBytes(UTF_8));
+            }
+        });
+        server.createContext("/trickle", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "text/plain");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    for (int i = 0; i < 20; i++) {
+                        output.write('.');
+                        output.flush();
+                        Thread.sleep(100);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // The client hung up.
+                }
+            }
+        });
+        server.createContext("/conditional", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Cache-Control", "public, max-age=60");
+                respond(exchange, "text/html", "<title>Page</title>".getBytes(UTF_8));
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    @Test
+    public void readsBodyAndCharset() throws Exception {
+        try (LinkHttpClient.Response response = new LinkHttpClient(1000, 1000).get(baseUrl + "/page")) {
+            assertEquals(200, response.getStatus());
+            assertEquals("utf-8", response.getCharset());
+            assertEquals("<title>Page</title>", read(response.getBody()));
+        }
+    }
+
+    @Test
+    public void decompressesGzip() throws Exception {
+        try (LinkHttpClient.Response response = new LinkHttpClient(1000, 1000).get(baseUrl + "/gzip")) {
+            assertEquals("compressed body", read(response.getBody()));
+        }
+    }
+
+    @Test
+    public void reusesConnectionAfterClose() throws Exception {
+        LinkHttpClient client = new LinkHttpClient(1000, 1000);
+        for (int i = 0; i < 3; i++) {
+            try (LinkHttpClient.Response response = client.get(baseUrl + "/page")) {
+                read(response.getBody());
+            }
+        }
+        assertEquals(3, clientPorts.size());
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+        assertEquals(clientPorts.get(1), clientPorts.get(2));
+    }
+
+    @Test
+    public void followsRedirects() throws Exception {
+        try (LinkHttpClient.Response response = new LinkHttpClient(1000, 1000).get(baseUrl + "/redirect")) {
+            assertEquals(baseUrl + "/page", response.getUrl());
+            assertEquals("<title>Page</title>", read(response.getBody()));
+        }
+    }
+
+    @Test
+    public void countsBodyBytes() throws Exception {
+        try (LinkHttpClient.Response response = new LinkHttpClient(1000, 1000).get(baseUrl + "/gzip")) {
+            read(response.getBody());
+            assertEquals("compressed body".length(), response.getBytesRead());
+        }
+    }
+
+    @Test
+    public void timesEachStage() throws Exception {
+        try (LinkHttpClient.Response response = new LinkHttpClient(1000, 1000).get(baseUrl + "/redirect")) {
+            assertEquals(0, response.getReadNanos());
+            read(response.getBody());
+            assertTrue(response.getConnectNanos() > 0);
+            assertTrue(response.getFirstByteNanos() > 0);
+            assertTrue(response.getReadNanos() > 0);
+        }
+    }
+
+    @Test
+    public void sendsConditionalRequests() throws Exception {
+        LinkHttpClient client = new LinkHttpClient(1000, 1000);
+        String etag;
+        try (LinkHttpClient.Response response = client.get(baseUrl + "/conditional")) {
+            assertFalse(response.isNotModified());
+            etag = response.getHeader("ETag");
+            assertEquals(60, LinkHttpClient.parseMaxAge(response.getHeader("Cache-Control")));
+        }
+        try (LinkHttpClient.Response response = client.get(baseUrl + "/conditional", Collections.singletonMap("If-None-Match", etag))) {
+            assertTrue(response.isNotModified());
+        }
+    }
+
+    @Test
+    public void parsesMaxAge() {
+        assertEquals(-1, LinkHttpClient.parseMaxAge(null));
+        assertEquals(-1, LinkHttpClient.parseMaxAge("public"));
+        assertEquals(300, LinkHttpClient.parseMaxAge("public, max-age=300"));
+        assertEquals(0, LinkHttpClient.parseMaxAge("max-age=300, no-cache"));
+        assertEquals(0, LinkHttpClient.parseMaxAge("no-store"));
+        assertEquals(0, LinkHttpClient.parseMaxAge("max-age=soon"));
+    }
+
+    @Test
+    public void parsesNoStore() {
+        assertFalse(LinkHttpClient.isNoStore(null));
+        assertFalse(LinkHttpClient.isNoStore("max-age=300, no-cache"));
+        assertTrue(LinkHttpClient.isNoStore("private, No-Store"));
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void enforcesReadTimeout() throws Exception {
+        new LinkHttpClient(1000, 1000).get(baseUrl + "/slow", 1000, 100).close();
+    }
+
+    @Test
+    public void deadlineAbortsWaitForHeaders() throws Exception {
+        Deadline deadline = Deadline.after(150);
+        long start = System.nanoTime();
+        try {
+            new LinkHttpClient(1000, 5000).get(baseUrl + "/slow", Collections.<String, String>emptyMap(), deadline).close();
+            fail("The response came after the deadline.");
+        } catch (InterruptedIOException e) {
+            assertTrue(deadline.isExpired());
+        } finally {
+            deadline.finish();
+        }
+        assertTrue(System.nanoTime() - start < 800000000L);
+    }
+
+    @Test
+    public void deadlineAbortsBodyRead() throws Exception {
+        Deadline deadline = Deadline.after(300);
+        long start = System.nanoTime();
+        try (LinkHttpClient.Response response = new LinkHttpClient(1000, 5000).get(baseUrl + "/trickle", Collections.<String, String>emptyMap(), deadline)) {
+            read(response.getBody());
+            fail("The body was read past the deadline.");
+        } catch (InterruptedIOException e) {
+            assertTrue(deadline.isExpired());
+        } finally {
+            deadline.finish();
+        }
+        assertTrue(System.nanoTime() - start < 1000000000L);
+    }
+
+    @Test
+    public void cancelAbortsBodyRead() throws Exception {
+        final Deadline deadline = Deadline.none();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                deadline.cancel();
+            }
+        }).start();
+        long start = System.nanoTime();
+        try (LinkHttpClient.Response response = new LinkHttpClient(1000, 5000).get(baseUrl + "/trickle", Collections.<String, String>emptyMap(), deadline)) {
+            read(response.getBody());
+            fail("The body was read after the cancel.");
+        } catch (InterruptedIOException e) {
+            assertTrue(deadline.isCancelled());
+            assertFalse(deadline.isExpired());
+        }
+        assertTrue(System.nanoTime() - start < 1000000000L);
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void cancelledDeadlineSendsNothing() throws Exception {
+        Deadline deadline = Deadline.none();
+        deadline.cancel();
+        new LinkHttpClient(1000, 1000).get(baseUrl + "/page", Collections.<String, String>emptyMap(), deadline);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnErrorStatus() throws Exception {
+        new LinkHttpClient(1000, 1000).get(baseUrl + "/missing").close();
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.linker.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the stream handing a page from the head parser to the document parser.
+ */
+public class RecordingInputStreamTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static String readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    @Test
+    public void replayStartsFromTheFirstByte() throws IOException {
+        RecordingInputStream input = new RecordingInputStream(new ByteArrayInputStream("<head></head><body>".getBytes(UTF_8)));
+        assertEquals('<', input.read());
+        byte[] buffer = new byte[5];
+        assertEquals(5, input.read(buffer, 0, 5));
+        assertEquals(2, input.skip(2));
+
+        assertEquals("<head></head><body>", readAll(input.replay()));
+    }
+
+    @Test
+    public void documentParsedFromTheStreamTheHeadStopped() throws IOException {
+        String html = "<html><head><title>Story</title></head><body><img src=\"photo.jpg\"></body></html>";
+        RecordingInputStream input = new RecordingInputStream(new ByteArrayInputStream(html.getBytes(UTF_8)));
+
+        HeadMetadataExtractor.Metadata head = new HeadMetadataExtractor().extract(input, "UTF-8", "https://example.com/");
+        assertFalse(head.isUsable());
+
+        HeadMetadataExtractor.Metadata document = new DocumentMetadataExtractor().extract(input.replay(), "UTF-8", "https://example.com/");
+        assertEquals("Story", document.title);
+        assertEquals("https://example.com/photo.jpg", document.imageUrl);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void replaysOnce() {
+        RecordingInputStream input = new RecordingInputStream(new ByteArrayInputStream(new byte[0]));
+        input.replay();
+        input.replay();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.linker.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the URL extraction from shared text.
+ */
+public class UrlExtractorTest {
+
+    @Test
+    public void findsEveryUrlInOrder() {
+        assertEquals(Arrays.asList("https://a.com/1", "http://b.org/2", "https://www.c.net/3"),
+                UrlExtractor.extractUrls("first https://a.com/1 then http://b.org/2\nand www.c.net/3 last"));
+    }
+
+    @Test
+    public void dropsDuplicates() {
+        assertEquals(Collections.singletonList("https://a.com/"), UrlExtractor.extractUrls("https://a.com/ and https://a.com/"));
+    }
+
+    @Test
+    public void trimsTrailingPunctuationAndQuotes() {
+        assertEquals(Arrays.asList("https://a.com/x", "https://b.com", "https://c.com/y"),
+                UrlExtractor.extractUrls("Read https://a.com/x. Or \"https://b.com\", or 'https://c.com/y'!"));
+    }
+
+    @Test
+    public void keepsBalancedBrackets() {
+        assertEquals(Arrays.asList("https://en.wikipedia.org/wiki/Java_(programming_language)", "https://a.com/b"),
+                UrlExtractor.extractUrls("(see https://en.wikipedia.org/wiki/Java_(programming_language)) [link](https://a.com/b)"));
+    }
+
+    @Test
+    public void readsHtmlAttributes() {
+        assertEquals(Collections.singletonList("https://a.com/?x=1&y=2"),
+                UrlExtractor.extractUrls("<a href=\"https://a.com/?x=1&amp;y=2\">A</a>"));
+    }
+
+    @Test
+    public void ignoresPrefixesInsideWords() {
+        assertEquals(Collections.<String>emptyList(), UrlExtractor.extractUrls("mailto:user@www.example.com shttp://x http:// www."));
+    }
+
+    @Test
+    public void ignoresCaseOfPrefix() {
+        assertEquals(Collections.singletonList("HTTPS://A.com"), UrlExtractor.extractUrls("HTTPS://A.com"));
+    }
+
+    @Test
+    public void firstUrl() {
+        assertEquals("https://a.com/1", UrlExtractor.extractFirstUrl("Check this out: https://a.com/1 https://b.com/2"));
+        assertNull(UrlExtractor.extractFirstUrl("no links here"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.android.linker.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the cache key normalization.
+ */
+public class UrlNormalizerTest {
+
+    @Test
+    public void lowercasesSchemeAndHost() {
+        assertEquals("https://example.com/Path", UrlNormalizer.normalize("HTTPS://Example.COM/Path"));
+    }
+
+    @Test
+    public void dropsDefaultPortAndFragment() {
+        assertEquals("https://example.com/a", UrlNormalizer.normalize("https://example.com:443/a#section"));
+        assertEquals("http://example.com:8080/a", UrlNormalizer.normalize("http://example.com:8080/a"));
+    }
+
+    @Test
+    public void addsRootPath() {
+        assertEquals("https://example.com/", UrlNormalizer.normalize("https://example.com"));
+    }
+
+    @Test
+    public void dropsTrackingParameters() {
+        assertEquals("https://example.com/a?id=1&page=2",
+                UrlNormalizer.normalize("https://example.com/a?utm_source=x&id=1&fbclid=abc&page=2&utm_medium=y"));
+        assertEquals("https://example.com/a", UrlNormalizer.normalize("https://example.com/a?utm_campaign=z"));
+    }
+
+    @Test
+    public void leavesUnparsableUrlsAlone() {
+        assertEquals("not a url", UrlNormalizer.normalize("not a url"));
+    }
+}